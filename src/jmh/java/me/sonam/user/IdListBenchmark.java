@@ -0,0 +1,42 @@
+package me.sonam.user;
+
+import me.sonam.user.util.IdList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Parsing the comma separated ids of GET /users/ids/{ids} for small and large id lists
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IdListBenchmark {
+
+    @Param({"10", "500", "5000"})
+    private int ids;
+
+    private String commaSeparatedIds;
+
+    @Setup
+    public void setup() {
+        commaSeparatedIds = Stream.generate(UUID::randomUUID).limit(ids).map(UUID::toString)
+                .collect(Collectors.joining(","));
+    }
+
+    @Benchmark
+    public List<UUID> parse() {
+        return IdList.parse(commaSeparatedIds);
+    }
+}
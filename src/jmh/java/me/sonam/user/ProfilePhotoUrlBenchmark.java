@@ -0,0 +1,80 @@
+package me.sonam.user;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import me.sonam.user.repo.entity.MyUser;
+import me.sonam.user.util.ProfilePhotoUrl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the profilePhoto part of getUserByAuthenticationId before and after the thumbnail_url column:
+ * parsing the profilePhoto json on every read, as a json object or double encoded as a json string, against
+ * reading the stored thumbnailUrl.  Invalid json takes the exception path of ProfilePhotoUrl.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProfilePhotoUrlBenchmark {
+
+    private MyUser jsonObjectUser;
+    private MyUser jsonStringUser;
+    private MyUser invalidJsonUser;
+
+    @Setup
+    public void setup() {
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("profilePhotoUrl", "https://sonam.cloud/user-rest-service/videos/2024-11-22/2024-11-22T08:15:40.314460.jpeg");
+        jsonObject.addProperty("profilePhotoAcl", "private");
+        jsonObject.addProperty("profilePhotoFileKey", "videos/2024-11-22/2024-11-22T08:15:40.314460.jpeg");
+        jsonObject.addProperty("thumbnailUrl", "https://sonam.cloud/user-rest-service/videos/2024-11-22/thumbnail/2024-11-22T08:15:40.314460.jpeg");
+        jsonObject.addProperty("thumbnailAcl", "public");
+
+        jsonObjectUser = user(jsonObject.toString());
+        jsonStringUser = user(new JsonPrimitive(jsonObject.toString()).toString());
+        invalidJsonUser = user("{\"thumbnailUrl\": \"https://sonam.cloud/user-rest-service/videos/");
+    }
+
+    @Benchmark
+    public Map<String, Object> parseJsonObject() {
+        return profilePhoto(ProfilePhotoUrl.getProfileUrl(jsonObjectUser.getProfilePhoto()));
+    }
+
+    @Benchmark
+    public Map<String, Object> parseDoubleEncodedJson() {
+        return profilePhoto(ProfilePhotoUrl.getProfileUrl(jsonStringUser.getProfilePhoto()));
+    }
+
+    @Benchmark
+    public Map<String, Object> parseInvalidJson() {
+        return profilePhoto(ProfilePhotoUrl.getProfileUrl(invalidJsonUser.getProfilePhoto()));
+    }
+
+    @Benchmark
+    public Map<String, Object> thumbnailUrlColumn() {
+        return profilePhoto(jsonObjectUser.getThumbnailUrl());
+    }
+
+    private static Map<String, Object> profilePhoto(String thumbnailUrl) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("profilePhoto", thumbnailUrl);
+        return map;
+    }
+
+    private static MyUser user(String profilePhoto) {
+        MyUser myUser = new MyUser(UUID.randomUUID(), "Dommy", "thecat", "dommy@cat.email", "dommy",
+                true, true, profilePhoto, true, null, null, false);
+        myUser.setThumbnailUrl(ProfilePhotoUrl.getProfileUrl(profilePhoto));
+        return myUser;
+    }
+}
@@ -0,0 +1,58 @@
+package me.sonam.user;
+
+import me.sonam.user.handler.carrier.User;
+import me.sonam.user.repo.entity.MyUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping MyUser rows to User and writing User lists as json, the work of the batch lookups per response
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserMappingBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int users;
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private List<MyUser> myUsers;
+    private List<User> userList;
+
+    @Setup
+    public void setup() {
+        myUsers = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            myUsers.add(new MyUser(UUID.randomUUID(), "Dommy" + i, "thecat", "dommy" + i + "@cat.email", "dommy" + i,
+                    true, true, null, true, null, null, false));
+        }
+        userList = mapUsers();
+    }
+
+    @Benchmark
+    public List<User> mapUsers() {
+        List<User> mapped = new ArrayList<>(myUsers.size());
+        for (MyUser myUser : myUsers) {
+            mapped.add(User.of(myUser));
+        }
+        return mapped;
+    }
+
+    @Benchmark
+    public byte[] serializeUsers() {
+        return jsonMapper.writeValueAsBytes(userList);
+    }
+}
@@ -0,0 +1,63 @@
+package me.sonam.user;
+
+import me.sonam.user.handler.carrier.UserProfile;
+import me.sonam.user.repo.entity.MyUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the json body of getUserByAuthenticationId built the way it used to be, a HashMap with a new
+ * SimpleDateFormat for the birth date on every call, against the UserProfile record.  The old code formatted the
+ * LocalDate directly, which SimpleDateFormat rejects, so the baseline converts it to a java.sql.Date first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserResponseBenchmark {
+    private static final String THUMBNAIL_URL = "https://sonam.cloud/user-rest-service/videos/2024-11-22/thumbnail/2024-11-22T08:15:40.314460.jpeg";
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private MyUser myUser;
+
+    @Setup
+    public void setup() {
+        myUser = new MyUser(UUID.randomUUID(), "Dommy", "thecat", "dommy@cat.email", "dommy",
+                true, true, null, true, LocalDate.of(1990, 4, 12), null, false);
+        myUser.setThumbnailUrl(THUMBNAIL_URL);
+    }
+
+    @Benchmark
+    public byte[] hashMapWithSimpleDateFormat() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", myUser.getId().toString());
+        map.put("firstName", myUser.getFirstName());
+        map.put("lastName", myUser.getLastName());
+        map.put("email", myUser.getEmail());
+        map.put("profilePhoto", myUser.getThumbnailUrl());
+        map.put("authenticationId", myUser.getAuthenticationId());
+        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
+        if (myUser.getBirthDate() != null) {
+            map.put("dateOfBirth", dateFormat.format(java.sql.Date.valueOf(myUser.getBirthDate())));
+        }
+        return jsonMapper.writeValueAsBytes(map);
+    }
+
+    @Benchmark
+    public byte[] userProfileRecord() {
+        return jsonMapper.writeValueAsBytes(UserProfile.of(myUser, myUser.getThumbnailUrl()));
+    }
+}
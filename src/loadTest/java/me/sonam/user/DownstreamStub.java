@@ -0,0 +1,108 @@
+package me.sonam.user;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for one of the account, authentication, organization and role services, or the token endpoint
+ * of the authorization server.  Every call is answered with a success body the web clients accept, after the
+ * latency plus a random part of the jitter.  A share of the calls given by errorRate is answered with a 500
+ * instead.  The settings are read from load.{name}.latency-millis, load.{name}.jitter-millis and
+ * load.{name}.error-rate, falling back to load.downstream.latency-millis, load.downstream.jitter-millis and
+ * load.downstream.error-rate.
+ */
+public class DownstreamStub {
+    private static final Logger LOG = LoggerFactory.getLogger(DownstreamStub.class);
+
+    private static final String TOKEN_RESPONSE = "{\"access_token\": \"load-test-token\", \"scope\": \"message.read message.write\", " +
+            "\"token_type\": \"Bearer\", \"expires_in\": 299}";
+
+    private final String name;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final MockWebServer mockWebServer = new MockWebServer();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    public DownstreamStub(String name, long latencyMillis, long jitterMillis, double errorRate) {
+        this.name = name;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return respond(request);
+            }
+        });
+    }
+
+    public static DownstreamStub fromSystemProperties(String name) {
+        return new DownstreamStub(name,
+                Long.parseLong(setting(name, "latency-millis", "0")),
+                Long.parseLong(setting(name, "jitter-millis", "0")),
+                Double.parseDouble(setting(name, "error-rate", "0")));
+    }
+
+    private static String setting(String name, String key, String defaultValue) {
+        return System.getProperty("load." + name + "." + key, System.getProperty("load.downstream." + key, defaultValue));
+    }
+
+    public void start() throws IOException {
+        mockWebServer.start();
+        LOG.info("{} stub on port {} with latency {} ms, jitter {} ms, error rate {}", name, mockWebServer.getPort(),
+                latencyMillis, jitterMillis, errorRate);
+    }
+
+    public void shutdown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    public String root() {
+        return "http://localhost:" + mockWebServer.getPort();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long calls() {
+        return calls.get();
+    }
+
+    public long injectedErrors() {
+        return injectedErrors.get();
+    }
+
+    private MockResponse respond(RecordedRequest request) {
+        calls.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+
+        MockResponse response = new MockResponse().setHeader("Content-Type", "application/json")
+                .setHeadersDelay(delay, TimeUnit.MILLISECONDS);
+
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            injectedErrors.incrementAndGet();
+            return response.setResponseCode(500).setBody("{\"error\": \"injected by the " + name + " stub\"}");
+        }
+        String path = request.getPath() == null ? "" : request.getPath();
+        if (path.endsWith("/oauth2/token")) {
+            return response.setResponseCode(200).setBody(TOKEN_RESPONSE);
+        }
+        if ("POST".equals(request.getMethod())) {
+            return response.setResponseCode(201).setBody("{\"message\": \"" + name + " created\"}");
+        }
+        return response.setResponseCode(200).setBody("{\"message\": \"" + name + " " + request.getMethod().toLowerCase() + " done\"}");
+    }
+}
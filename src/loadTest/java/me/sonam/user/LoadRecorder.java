@@ -0,0 +1,82 @@
+package me.sonam.user;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and response statuses of the load test calls by operation.  The percentiles are computed over the
+ * whole measured run, not a decaying window.
+ */
+public class LoadRecorder {
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.95, 0.99, 0.999};
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    public void record(String operation, long nanos, int status, boolean expected) {
+        operations.computeIfAbsent(operation, this::operation).record(nanos, status, expected);
+    }
+
+    private Operation operation(String name) {
+        return new Operation(Timer.builder("load.calls").tag("operation", name)
+                .publishPercentiles(PERCENTILES)
+                .percentilePrecision(3)
+                .distributionStatisticExpiry(Duration.ofDays(1))
+                .distributionStatisticBufferLength(1)
+                .register(meterRegistry));
+    }
+
+    /**
+     * @param elapsed measured time the calls were made in
+     */
+    public LoadReport report(Duration elapsed) {
+        List<LoadReport.OperationReport> reports = new ArrayList<>();
+        new TreeMap<>(operations).forEach((name, operation) -> reports.add(operation.report(name, elapsed)));
+        return new LoadReport(elapsed.toMillis(), reports);
+    }
+
+    private static final class Operation {
+        private final Timer timer;
+        private final LongAdder unexpected = new LongAdder();
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        Operation(Timer timer) {
+            this.timer = timer;
+        }
+
+        void record(long nanos, int status, boolean expected) {
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+            statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+            if (!expected) {
+                unexpected.increment();
+            }
+        }
+
+        LoadReport.OperationReport report(String name, Duration elapsed) {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            Map<String, Double> percentiles = new TreeMap<>();
+            for (ValueAtPercentile valueAtPercentile : snapshot.percentileValues()) {
+                percentiles.put("p" + BigDecimal.valueOf(valueAtPercentile.percentile() * 100).stripTrailingZeros().toPlainString(),
+                        valueAtPercentile.value(TimeUnit.MILLISECONDS));
+            }
+            Map<Integer, Long> statusCounts = new TreeMap<>();
+            statuses.forEach((status, count) -> statusCounts.put(status, count.sum()));
+
+            return new LoadReport.OperationReport(name, snapshot.count(), unexpected.sum(),
+                    snapshot.count() * 1000.0 / Math.max(1, elapsed.toMillis()),
+                    snapshot.mean(TimeUnit.MILLISECONDS), snapshot.max(TimeUnit.MILLISECONDS), percentiles, statusCounts);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package me.sonam.user;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of a load test run, written as json so runs can be compared.  Latencies are in milliseconds.
+ *
+ * @param operations by operation name
+ */
+public record LoadReport(long elapsedMillis, List<OperationReport> operations) {
+
+    /**
+     * @param errors calls answered with another status than the operation expects, or not answered
+     * @param statuses number of calls by response status, 0 when no response came back
+     */
+    public record OperationReport(String operation, long calls, long errors, double callsPerSecond,
+                                  double meanMillis, double maxMillis, Map<String, Double> percentiles,
+                                  Map<Integer, Long> statuses) {
+    }
+
+    public String table() {
+        StringBuilder table = new StringBuilder(String.format("%-14s %9s %9s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "calls", "errors", "calls/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (OperationReport report : operations) {
+            table.append(String.format("%-14s %9d %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", report.operation(),
+                    report.calls(), report.errors(), report.callsPerSecond(), percentile(report, "p50"),
+                    percentile(report, "p90"), percentile(report, "p99"), percentile(report, "p99.9"),
+                    report.maxMillis()));
+        }
+        return table.toString();
+    }
+
+    private static double percentile(OperationReport report, String key) {
+        return report.percentiles().getOrDefault(key, Double.NaN);
+    }
+}
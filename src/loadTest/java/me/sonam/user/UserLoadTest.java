@@ -0,0 +1,300 @@
+package me.sonam.user;
+
+import me.sonam.security.util.TokenRequestFilter;
+import me.sonam.user.handler.ProfilePhotoUpdate;
+import me.sonam.user.handler.UserTransfer;
+import me.sonam.user.repo.UserRepository;
+import me.sonam.user.repo.entity.MyUser;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives a mix of signups, user lookups by id, batch lookups, name searches and profile photo updates against the
+ * service running on H2, with {@link DownstreamStub}s standing in for the account, authentication, organization and
+ * role services and the authorization server.  Nothing outside this jvm is called, so it runs offline.
+ * Run it with {@code ./gradlew loadTest}, the settings are system properties:
+ * <ul>
+ *     <li>load.users: users saved before the run and looked up, 1000</li>
+ *     <li>load.concurrency: calls in flight, 32</li>
+ *     <li>load.warmup-seconds: calls made before measuring, 10</li>
+ *     <li>load.duration-seconds: measured time, 30</li>
+ *     <li>load.batch-size: ids in a batch lookup, 50</li>
+ *     <li>load.mix: weights of the operations, signup:1,getUserById:10,batchIds:3,nameSearch:3,profilePhoto:1</li>
+ *     <li>load.results-file: json report, build/reports/load/results.json</li>
+ * </ul>
+ * and the latency and error injection of the stubs, see {@link DownstreamStub}.  The report has the throughput and
+ * latency percentiles of every operation.
+ */
+@SpringBootTest(classes = {Application.class}, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "logging.level.me.sonam=warn",
+                "logging.level.me.sonam.user.UserLoadTest=info",
+                "logging.level.me.sonam.user.DownstreamStub=info",
+                // the tests use chunks of 1 id
+                "user-batch.chunk-size=500"
+        })
+public class UserLoadTest {
+    private static final Logger LOG = LoggerFactory.getLogger(UserLoadTest.class);
+
+    private static final String[] FIRST_NAMES = {"Tenzin", "Pema", "Karma", "Dorji", "Sonam", "Yeshi", "Kinley", "Tashi",
+            "Ugyen", "Jigme"};
+    private static final String[] LAST_NAMES = {"Wangmo", "Lhamo", "Dema", "Choden", "Zangmo", "Norbu", "Tshering",
+            "Penjor", "Rinzin", "Dawa"};
+
+    private static final List<DownstreamStub> stubs = new ArrayList<>();
+    private static DownstreamStub account;
+    private static DownstreamStub authentication;
+    private static DownstreamStub organization;
+    private static DownstreamStub role;
+    private static DownstreamStub authServer;
+
+    private final int users = Integer.getInteger("load.users", 1000);
+    private final int concurrency = Integer.getInteger("load.concurrency", 32);
+    private final Duration warmup = Duration.ofSeconds(Long.getLong("load.warmup-seconds", 10));
+    private final Duration duration = Duration.ofSeconds(Long.getLong("load.duration-seconds", 30));
+    private final int batchSize = Integer.getInteger("load.batch-size", 50);
+    private final Mix mix = Mix.parse(System.getProperty("load.mix",
+            "signup:1,getUserById:10,batchIds:3,nameSearch:3,profilePhoto:1"));
+    private final Path resultsFile = Path.of(System.getProperty("load.results-file", "build/reports/load/results.json"));
+
+    private final AtomicLong signups = new AtomicLong();
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final List<MyUser> savedUsers = new ArrayList<>();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TokenRequestFilter tokenRequestFilter;
+
+    @MockitoBean
+    private ReactiveJwtDecoder jwtDecoder;
+
+    private WebClient webClient;
+
+    @BeforeAll
+    static void startStubs() throws IOException {
+        account = DownstreamStub.fromSystemProperties("account");
+        authentication = DownstreamStub.fromSystemProperties("authentication");
+        organization = DownstreamStub.fromSystemProperties("organization");
+        role = DownstreamStub.fromSystemProperties("role");
+        // the service token is taken once and reused, so the token endpoint is not slowed or failed
+        authServer = new DownstreamStub("auth-server", 0, 0, 0);
+        stubs.addAll(List.of(account, authentication, organization, role, authServer));
+        for (DownstreamStub stub : stubs) {
+            stub.start();
+        }
+    }
+
+    @AfterAll
+    static void stopStubs() throws IOException {
+        for (DownstreamStub stub : stubs) {
+            stub.shutdown();
+        }
+    }
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry r) {
+        r.add("account-rest-service.root", account::root);
+        r.add("authentication-rest-service.root", authentication::root);
+        r.add("organization-rest-service.root", organization::root);
+        r.add("role-rest-service.root", role::root);
+        r.add("auth-server.root", authServer::root);
+    }
+
+    @BeforeEach
+    public void setup() {
+        // the bearer token of a load test call is the authenticationId of its user
+        when(jwtDecoder.decode(anyString())).thenAnswer(invocation -> {
+            String token = invocation.getArgument(0);
+            return Mono.just(new Jwt(token, null, null, Map.of("alg", "none"), Map.of("sub", token)));
+        });
+        tokenRequestFilter.getRequestFilters().forEach(requestFilter ->
+                requestFilter.getAccessToken().setAccessToken("load-test-token"));
+
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("load-test").maxConnections(concurrency)
+                .pendingAcquireMaxCount(-1).build();
+        webClient = WebClient.builder().baseUrl("http://localhost:" + port)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider)))
+                .build();
+    }
+
+    @Test
+    public void mixedWorkload() throws IOException {
+        saveUsers();
+        LOG.info("warm up for {} s with {} calls in flight", warmup.toSeconds(), concurrency);
+        run(warmup, new LoadRecorder());
+
+        LOG.info("measure for {} s with {} calls in flight, mix: {}", duration.toSeconds(), concurrency, mix);
+        LoadRecorder recorder = new LoadRecorder();
+        long start = System.nanoTime();
+        run(duration, recorder);
+        LoadReport report = recorder.report(Duration.ofNanos(System.nanoTime() - start));
+
+        LOG.info("load test results:\n{}", report.table());
+        stubs.forEach(stub -> LOG.info("{} stub answered {} calls, {} with an injected error", stub.name(),
+                stub.calls(), stub.injectedErrors()));
+
+        Files.createDirectories(resultsFile.toAbsolutePath().getParent());
+        Files.writeString(resultsFile, JsonMapper.builder().build().writerWithDefaultPrettyPrinter()
+                .writeValueAsString(report));
+        LOG.info("wrote results to {}", resultsFile.toAbsolutePath());
+
+        assertThat(report.operations()).isNotEmpty();
+    }
+
+    private void saveUsers() {
+        for (int i = 0; i < users; i++) {
+            String authenticationId = "load-" + runId + "-" + i;
+            savedUsers.add(new MyUser(UUID.randomUUID(), FIRST_NAMES[i % FIRST_NAMES.length],
+                    LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length], authenticationId + "@load.test",
+                    authenticationId, true, true, null, true, null, null, true));
+        }
+        Long saved = userRepository.saveAll(savedUsers).count().block();
+        LOG.info("saved {} users", saved);
+    }
+
+    private void run(Duration time, LoadRecorder recorder) {
+        long deadline = System.nanoTime() + time.toNanos();
+
+        Flux.range(0, concurrency)
+                .flatMap(worker -> Mono.defer(() -> call(mix.next(), recorder))
+                        .repeat(() -> System.nanoTime() < deadline), concurrency)
+                .blockLast();
+    }
+
+    private Mono<Void> call(String operation, LoadRecorder recorder) {
+        Request request = request(operation);
+        long start = System.nanoTime();
+
+        return request.spec().exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode().value()))
+                // no response
+                .onErrorReturn(0)
+                .doOnNext(status -> recorder.record(operation, System.nanoTime() - start, status,
+                        status == request.expectedStatus()))
+                .then();
+    }
+
+    private Request request(String operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        MyUser myUser = savedUsers.get(random.nextInt(savedUsers.size()));
+
+        return switch (operation) {
+            case "signup" -> {
+                String authenticationId = "signup-" + runId + "-" + signups.incrementAndGet();
+                UserTransfer userTransfer = new UserTransfer(myUser.getFirstName(), myUser.getLastName(),
+                        authenticationId + "@load.test", authenticationId, "pass", false);
+                yield new Request(webClient.post().uri("/users").headers(headers -> headers.setBearerAuth(authenticationId))
+                        .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON).bodyValue(userTransfer), 201);
+            }
+            case "getUserById" -> new Request(webClient.get().uri("/users/{id}", myUser.getId())
+                    .headers(headers -> headers.setBearerAuth(myUser.getAuthenticationId()))
+                    .accept(MediaType.APPLICATION_JSON), 200);
+            case "batchIds" -> {
+                String ids = random.ints(batchSize, 0, savedUsers.size())
+                        .mapToObj(index -> savedUsers.get(index).getId().toString()).collect(Collectors.joining(","));
+                yield new Request(webClient.get().uri("/users/ids/{ids}", ids)
+                        .headers(headers -> headers.setBearerAuth(myUser.getAuthenticationId()))
+                        .accept(MediaType.APPLICATION_JSON), 200);
+            }
+            case "nameSearch" -> new Request(webClient.get().uri("/users/names/{firstName}/{lastName}",
+                            myUser.getFirstName(), myUser.getLastName().substring(0, 3))
+                    .headers(headers -> headers.setBearerAuth(myUser.getAuthenticationId()))
+                    .accept(MediaType.APPLICATION_JSON), 200);
+            case "profilePhoto" -> {
+                ProfilePhotoUpdate profilePhotoUpdate = new ProfilePhotoUpdate();
+                profilePhotoUpdate.setProfilePhoto("{\"thumbnailUrl\": \"https://load.test/thumbnail/" + UUID.randomUUID() + ".jpeg\"}");
+                yield new Request(webClient.put().uri("/users/photo")
+                        .headers(headers -> headers.setBearerAuth(myUser.getAuthenticationId()))
+                        .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON)
+                        .bodyValue(profilePhotoUpdate), 200);
+            }
+            default -> throw new IllegalArgumentException("unknown operation in load.mix: " + operation);
+        };
+    }
+
+    private record Request(WebClient.RequestHeadersSpec<?> spec, int expectedStatus) {
+    }
+
+    /**
+     * picks operations at random in proportion to their weights
+     */
+    private record Mix(String[] operations, int[] cumulativeWeights) {
+
+        static Mix parse(String mix) {
+            Map<String, Integer> weights = new LinkedHashMap<>();
+            for (String entry : mix.split(",")) {
+                String[] nameAndWeight = entry.trim().split(":");
+                weights.put(nameAndWeight[0], Integer.parseInt(nameAndWeight[1]));
+            }
+            String[] operations = weights.keySet().toArray(new String[0]);
+            int[] cumulativeWeights = new int[operations.length];
+            int total = 0;
+            for (int i = 0; i < operations.length; i++) {
+                total += weights.get(operations[i]);
+                cumulativeWeights[i] = total;
+            }
+            return new Mix(operations, cumulativeWeights);
+        }
+
+        String next() {
+            int value = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int i = 0; i < cumulativeWeights.length; i++) {
+                if (value < cumulativeWeights[i]) {
+                    return operations[i];
+                }
+            }
+            return operations[operations.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder mix = new StringBuilder();
+            for (int i = 0; i < operations.length; i++) {
+                mix.append(i == 0 ? "" : ",").append(operations[i]).append(':')
+                        .append(cumulativeWeights[i] - (i == 0 ? 0 : cumulativeWeights[i - 1]));
+            }
+            return mix.toString();
+        }
+    }
+}
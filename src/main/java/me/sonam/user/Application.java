@@ -1,15 +1,15 @@
 package me.sonam.user;
 
 import io.r2dbc.spi.ConnectionFactory;
+import me.sonam.user.repo.SchemaMigration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.context.annotation.Bean;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.r2dbc.connection.init.ConnectionFactoryInitializer;
-import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.reactive.CorsWebFilter;
 import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
@@ -23,15 +23,20 @@ public class Application {
         SpringApplication.run(Application.class, args);
     }
 
+    /**
+     * applies the versioned scripts in db/migration before the repositories are used
+     */
     @Bean()
-    ConnectionFactoryInitializer initializer(ConnectionFactory connectionFactory) {
-        ConnectionFactoryInitializer initializer = new ConnectionFactoryInitializer();
-        initializer.setConnectionFactory(connectionFactory);
-        // This will create our database table and schema
-        initializer.setDatabasePopulator(new ResourceDatabasePopulator(new ClassPathResource("schema.sql")));
+    SchemaMigration schemaMigration(ConnectionFactory connectionFactory) {
+        return new SchemaMigration(connectionFactory);
+    }
 
-        // This will drop our table after we are done so we can have a fresh start next run
-        //initializer.setDatabaseCleaner(new ResourceDatabasePopulator(new ClassPathResource("cleanup.sql")));
-        return initializer;
+    /**
+     * transaction for writes that go together, like a new user and its signup outbox row, on the auto-configured
+     * transaction manager
+     */
+    @Bean
+    TransactionalOperator transactionalOperator(ReactiveTransactionManager transactionManager) {
+        return TransactionalOperator.create(transactionManager);
     }
 }
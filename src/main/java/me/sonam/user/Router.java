@@ -1,6 +1,7 @@
 package me.sonam.user;
 
 import me.sonam.user.handler.UserHandler;
+import me.sonam.user.metrics.RouteMetricsFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
@@ -17,19 +18,26 @@ public class Router {
     private static final Logger LOG = LoggerFactory.getLogger(Router.class);
 
     @Bean
-    public RouterFunction<ServerResponse> route(UserHandler handler) {
+    public RouterFunction<ServerResponse> route(UserHandler handler, RouteMetricsFilter routeMetricsFilter) {
         LOG.info("building router function");
         return RouterFunctions
                 .route(POST("/users").and(accept(MediaType.APPLICATION_JSON)), handler::signupUser)
+                .andRoute(POST("/users/bulk").and(contentType(MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON)), handler::bulkSignup)
                 .andRoute(PUT("/users").and(accept(MediaType.APPLICATION_JSON)), handler::update)
                 .andRoute(PUT("/users/photo").and(accept(MediaType.APPLICATION_JSON)), handler::updateProfilePhoto)
                 .andRoute(GET("/users/names/{firstName}/{lastName}").and(accept(MediaType.APPLICATION_JSON)), handler::findMatchingFirstNameAndLastName)
+                // streaming variants are only reached when the client does not accept application/json
+                .andRoute(GET("/users/names/{firstName}/{lastName}").and(accept(MediaType.APPLICATION_NDJSON, MediaType.TEXT_EVENT_STREAM)), handler::streamMatchingFirstNameAndLastName)
+                .andRoute(POST("/users/batch").and(accept(MediaType.APPLICATION_JSON)), handler::getUsersByIds)
                 .andRoute(GET("/users/ids/{ids}").and(accept(MediaType.APPLICATION_JSON)), handler::getBatchOfUserById)
+                .andRoute(GET("/users/availability").and(accept(MediaType.APPLICATION_JSON)), handler::checkAvailability)
                 .andRoute(GET("/users/{id}").and(accept(MediaType.APPLICATION_JSON)), handler::getUserById)
                 .andRoute(GET("/users/authentication-id/{authenticationId}").and(accept(MediaType.APPLICATION_JSON)), handler::getUserByAuthId)
                 .andRoute(GET("/users/profile/authentication-id/{authenticationId}").and(accept(MediaType.APPLICATION_JSON)), handler::getUserByAuthIdProfileSearch)
+                .andRoute(PUT("/users/active").and(accept(MediaType.APPLICATION_JSON)), handler::activateUsers)
                 .andRoute(PUT("/users/{authenticationId}/active").and(accept(MediaType.APPLICATION_JSON)), handler::activateUser)
-                .andRoute(DELETE("/users/{organizationId}").and(accept(MediaType.APPLICATION_JSON)), handler::deleteUserData);
+                .andRoute(DELETE("/users/{organizationId}").and(accept(MediaType.APPLICATION_JSON)), handler::deleteUserData)
+                .filter(routeMetricsFilter);
 
     }
 }
@@ -0,0 +1,244 @@
+package me.sonam.user.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import me.sonam.user.repo.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * {@link BloomFilter} of the lower-cased authenticationIds and emails of all users, so an availability check of a
+ * name that no user has is answered without a query.  When the filter may contain the name the caller's query
+ * decides.  The filter is built by streaming the My_User keys once the application is ready and rebuilt every
+ * user-availability.rebuild-interval-minutes, which drops deleted users and resizes it for the current row count.
+ * Users saved in between are added with {@link #add(String, String)}, which publishes a {@link UserAddedEvent} so
+ * the {@link UserChangeBus} adds them on the other pods as well.  Until the first build every check queries.
+ */
+@Component
+public class AvailabilityFilter implements ApplicationEventPublisherAware {
+    private static final Logger LOG = LoggerFactory.getLogger(AvailabilityFilter.class);
+
+    private static final String AUTHENTICATION_ID = "a:";
+    private static final String EMAIL = "e:";
+
+    private final UserRepository userRepository;
+
+    @Value("${user-availability.filter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${user-availability.filter.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${user-availability.filter.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${user-availability.filter.rebuild-interval-minutes:60}")
+    private long rebuildIntervalMinutes;
+
+    // filter answering checks, and the one being built which also gets the users saved during the build
+    private volatile BloomFilter filter;
+    private final AtomicReference<BloomFilter> building = new AtomicReference<>();
+    // one rebuild runs at a time, a rebuild asked for while one runs is made again once it finishes
+    private final AtomicBoolean rebuildRunning = new AtomicBoolean();
+    private final AtomicBoolean rebuildAgain = new AtomicBoolean();
+
+    private final Timer rebuild;
+    private final Counter filtered;
+    private final Counter confirmed;
+    private final Counter falsePositives;
+    private final Counter unfiltered;
+
+    private Disposable rebuilding;
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    public AvailabilityFilter(UserRepository userRepository, MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+
+        Gauge.builder("user.availability.filter.bits", this, availabilityFilter -> availabilityFilter.filter == null ? 0
+                        : availabilityFilter.filter.bitSize())
+                .description("size of the availability filter bit array").register(meterRegistry);
+        Gauge.builder("user.availability.filter.false.positive.rate", this, availabilityFilter -> availabilityFilter.filter == null ? 0
+                        : availabilityFilter.filter.expectedFalsePositiveRate())
+                .description("expected false positive rate of the availability filter from the bits set").register(meterRegistry);
+        rebuild = Timer.builder("user.availability.filter.rebuild")
+                .description("time to build the availability filter from the users table").register(meterRegistry);
+        filtered = counter(meterRegistry, "filtered");
+        confirmed = counter(meterRegistry, "confirmed");
+        falsePositives = counter(meterRegistry, "false-positive");
+        unfiltered = counter(meterRegistry, "unfiltered");
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("user.availability.checks").tag("result", result)
+                .description("availability checks answered by the filter (filtered) or by a query").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            LOG.info("availability filter is disabled");
+            return;
+        }
+        rebuilding = Flux.interval(Duration.ZERO, Duration.ofMinutes(rebuildIntervalMinutes))
+                .onBackpressureDrop()
+                .concatMap(tick -> rebuild()
+                        .onErrorResume(throwable -> {
+                            LOG.error("availability filter rebuild failed: {}", throwable.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (rebuilding != null) {
+            rebuilding.dispose();
+        }
+    }
+
+    /**
+     * builds a new filter from the users table and swaps it in, unless a rebuild is already running
+     * @return number of users added, empty when a rebuild was already running
+     */
+    public Mono<Long> rebuild() {
+        return Mono.defer(() -> {
+            if (!rebuildRunning.compareAndSet(false, true)) {
+                LOG.debug("availability filter rebuild is already running");
+                return Mono.empty();
+            }
+            rebuildAgain.set(false);
+
+            return build().doFinally(signalType -> {
+                rebuildRunning.set(false);
+                if (rebuildAgain.get()) {
+                    rebuildLater();
+                }
+            });
+        });
+    }
+
+    private Mono<Long> build() {
+        return userRepository.count().flatMap(count -> {
+            // two keys a user, with room for the users to double before the next rebuild
+            BloomFilter next = BloomFilter.create(Math.max(expectedInsertions, count * 4), falsePositiveRate);
+            building.set(next);
+            Timer.Sample sample = Timer.start();
+
+            return userRepository.findLookupKeys()
+                    .doOnNext(keys -> put(next, keys.authenticationId(), keys.email()))
+                    .count()
+                    .doOnNext(users -> {
+                        filter = next;
+                        long nanos = sample.stop(rebuild);
+                        LOG.info("built availability filter of {} users in {} ms, bits: {}, hashFunctions: {}, expected false positive rate: {}",
+                                users, Duration.ofNanos(nanos).toMillis(), next.bitSize(), next.hashFunctions(),
+                                next.expectedFalsePositiveRate());
+                    })
+                    .doFinally(signalType -> building.compareAndSet(next, null));
+        });
+    }
+
+    /**
+     * adds a saved user to the filter, here and on the other pods
+     */
+    public void add(String authenticationId, String email) {
+        addLocal(authenticationId, email);
+        if (applicationEventPublisher != null) {
+            applicationEventPublisher.publishEvent(new UserAddedEvent(authenticationId, email));
+        }
+    }
+
+    /**
+     * adds a user to the filter of this pod only, for users saved on another pod
+     */
+    public void addLocal(String authenticationId, String email) {
+        BloomFilter current = filter;
+        if (current != null) {
+            put(current, authenticationId, email);
+        }
+        BloomFilter next = building.get();
+        if (next != null) {
+            put(next, authenticationId, email);
+        }
+    }
+
+    /**
+     * rebuilds the filter when additions from the other pods may have been missed, unless it is not built yet.
+     * A rebuild that is already running may have read the users table before those additions, so it is followed
+     * by another one.
+     */
+    public void rebuildAfterMissedAdditions() {
+        if (filter == null) {
+            return;
+        }
+        LOG.info("rebuild the availability filter as users added on other pods may have been missed");
+        rebuildAgain.set(true);
+        rebuildLater();
+    }
+
+    private void rebuildLater() {
+        rebuild().subscribe(null, throwable -> LOG.error("availability filter rebuild failed: {}", throwable.getMessage()));
+    }
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
+    /**
+     * @param query tells whether the lower-cased authenticationId is taken, only called when the filter may contain it
+     */
+    public Mono<Boolean> authenticationIdTaken(String authenticationId, Function<String, Mono<Boolean>> query) {
+        return taken(AUTHENTICATION_ID, authenticationId, query);
+    }
+
+    /**
+     * @param query tells whether the lower-cased email is taken, only called when the filter may contain it
+     */
+    public Mono<Boolean> emailTaken(String email, Function<String, Mono<Boolean>> query) {
+        return taken(EMAIL, email, query);
+    }
+
+    private Mono<Boolean> taken(String prefix, String value, Function<String, Mono<Boolean>> query) {
+        final String key = value.toLowerCase(Locale.ROOT);
+        BloomFilter current = filter;
+
+        if (current == null) {
+            unfiltered.increment();
+            return query.apply(key);
+        }
+        if (!current.mightContain(prefix + key)) {
+            filtered.increment();
+            return Mono.just(false);
+        }
+        // a name of a user that can still be replaced by a new signup also counts as a false positive
+        return query.apply(key).doOnNext(taken -> (taken ? confirmed : falsePositives).increment());
+    }
+
+    private static void put(BloomFilter bloomFilter, String authenticationId, String email) {
+        if (authenticationId != null) {
+            bloomFilter.put(AUTHENTICATION_ID + authenticationId.toLowerCase(Locale.ROOT));
+        }
+        if (email != null) {
+            bloomFilter.put(EMAIL + email.toLowerCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package me.sonam.user.cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+
+/**
+ * In-process stand-in for {@link PostgresUserChangeBus}, for tests and databases without LISTEN/NOTIFY.
+ * The messages go through a sink shared by all buses in the jvm, so application contexts in one jvm
+ * act like pods.
+ */
+@Component
+@ConditionalOnProperty(name = "user-change-bus.type", havingValue = "local", matchIfMissing = true)
+public class LocalUserChangeBus extends UserChangeBus {
+
+    private static final Sinks.Many<String> MESSAGES = Sinks.many().multicast().directBestEffort();
+
+    private final Disposable subscription;
+
+    public LocalUserChangeBus(UserCache userCache, AvailabilityFilter availabilityFilter, MeterRegistry meterRegistry) {
+        super(userCache, availabilityFilter, meterRegistry);
+        subscription = MESSAGES.asFlux().subscribe(this::receive);
+    }
+
+    @Override
+    protected void send(String message) {
+        // retry only when another thread is emitting, a bus with no subscribers drops the message
+        MESSAGES.emitNext(message, (signalType, emitResult) -> emitResult == Sinks.EmitResult.FAIL_NON_SERIALIZED);
+    }
+
+    @PreDestroy
+    public void stop() {
+        subscription.dispose();
+    }
+}
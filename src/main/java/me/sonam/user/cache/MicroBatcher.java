@@ -0,0 +1,97 @@
+package me.sonam.user.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Coalesces calls for single keys that arrive close together into one call of the batch function.  A batch is
+ * sent when it has maxBatchSize calls or maxWait after its first call, whichever comes first, and up to
+ * concurrency batches run at a time.  Calls for the same key in one batch share the result.  A key missing from
+ * the result map completes its calls empty, and a failed batch fails all of its calls.
+ *
+ * @param <K> key
+ * @param <V> result for a key
+ */
+public class MicroBatcher<K, V> {
+    private static final Logger LOG = LoggerFactory.getLogger(MicroBatcher.class);
+
+    private final String name;
+    private final Function<Set<K>, Mono<Map<K, V>>> batchFunction;
+    private final Sinks.Many<Call<K, V>> calls = Sinks.many().unicast().onBackpressureBuffer();
+    private final Disposable batching;
+    private final Counter submitted;
+    private final DistributionSummary batchSize;
+
+    public MicroBatcher(String name, int maxBatchSize, Duration maxWait, int concurrency,
+                        Function<Set<K>, Mono<Map<K, V>>> batchFunction, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.batchFunction = batchFunction;
+        this.submitted = Counter.builder("user.batcher.calls").tag("name", name)
+                .description("single calls submitted to be batched").register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("user.batcher.batch.size").tag("name", name)
+                .description("calls coalesced into one batch").register(meterRegistry);
+
+        this.batching = calls.asFlux()
+                .bufferTimeout(maxBatchSize, maxWait)
+                // batches wait here while concurrency batches are running
+                .onBackpressureBuffer()
+                .flatMap(this::run, concurrency)
+                .subscribe();
+    }
+
+    public Mono<V> submit(K key) {
+        return Mono.defer(() -> {
+            submitted.increment();
+            Sinks.One<V> result = Sinks.one();
+            // other threads may be submitting, spin until this call is added
+            calls.emitNext(new Call<>(key, result), Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+            return result.asMono();
+        });
+    }
+
+    private Mono<Void> run(List<Call<K, V>> batch) {
+        Set<K> keys = new LinkedHashSet<>();
+        batch.forEach(call -> keys.add(call.key()));
+        batchSize.record(batch.size());
+        LOG.debug("{} batch of {} calls for {} keys", name, batch.size(), keys.size());
+
+        return Mono.defer(() -> batchFunction.apply(keys))
+                .defaultIfEmpty(Map.of())
+                .doOnNext(results -> batch.forEach(call -> {
+                    V value = results.get(call.key());
+                    if (value == null) {
+                        call.result().tryEmitEmpty();
+                    }
+                    else {
+                        call.result().tryEmitValue(value);
+                    }
+                }))
+                .doOnError(throwable -> {
+                    LOG.error("{} batch of {} keys failed: {}", name, keys.size(), throwable.getMessage());
+                    batch.forEach(call -> call.result().tryEmitError(throwable));
+                })
+                .onErrorComplete()
+                .then();
+    }
+
+    public void dispose() {
+        calls.tryEmitComplete();
+        batching.dispose();
+    }
+
+    private record Call<K, V>(K key, Sinks.One<V> result) {
+    }
+}
@@ -0,0 +1,225 @@
+package me.sonam.user.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Wrapped;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import me.sonam.user.metrics.QueryMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends user changes with {@code pg_notify} on the user_changed channel and keeps a dedicated connection,
+ * outside of the connection pool, that LISTENs on the channel.  Each time the LISTEN connection is opened the
+ * local cache is flushed, because changes sent while it was down are not delivered.  A lost connection is opened
+ * again with backoff up to user-change-bus.max-reconnect-backoff-seconds.
+ * Messages sent within user-change-bus.batch-window-millis of each other, such as the evicts of a batch activation,
+ * go out as one notification, up to user-change-bus.batch-size messages separated by newlines and kept below the
+ * notification payload limit.  A notification that fails is logged and counted without holding back the others of
+ * its batch, and a single message over the limit is not sent at all.  Each pg_notify is timed with
+ * {@link QueryMetrics} as PostgresUserChangeBus.notify.
+ */
+@Component
+@ConditionalOnProperty(name = "user-change-bus.type", havingValue = "postgres")
+public class PostgresUserChangeBus extends UserChangeBus {
+    private static final Logger LOG = LoggerFactory.getLogger(PostgresUserChangeBus.class);
+
+    private static final String CHANNEL = "user_changed";
+    // Postgres rejects notification payloads of 8000 bytes or more
+    private static final int MAX_PAYLOAD_BYTES = 7900;
+    private static final String NOTIFY = "select pg_notify(:channel, :payload)";
+
+    private final ConnectionFactory connectionFactory;
+    private final DatabaseClient databaseClient;
+    private final QueryMetrics queryMetrics;
+    private final MeterRegistry meterRegistry;
+    private final Counter sendFailures;
+    private final AtomicInteger connected = new AtomicInteger();
+
+    @Value("${user-change-bus.max-reconnect-backoff-seconds:30}")
+    private long maxReconnectBackoffSeconds;
+
+    @Value("${user-change-bus.batch-size:100}")
+    private int batchSize;
+
+    @Value("${user-change-bus.batch-window-millis:5}")
+    private long batchWindowMillis;
+
+    private Disposable listening;
+    private MicroBatcher<String, Boolean> notifyBatcher;
+
+    public PostgresUserChangeBus(UserCache userCache, AvailabilityFilter availabilityFilter, MeterRegistry meterRegistry,
+                                 ConnectionFactory connectionFactory, DatabaseClient databaseClient,
+                                 QueryMetrics queryMetrics) {
+        super(userCache, availabilityFilter, meterRegistry);
+        this.connectionFactory = connectionFactory;
+        this.databaseClient = databaseClient;
+        this.queryMetrics = queryMetrics;
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("user.cache.invalidation.connected", connected, AtomicInteger::get)
+                .description("1 when the user_changed LISTEN connection is open").register(meterRegistry);
+        sendFailures = Counter.builder("user.cache.invalidation.failed")
+                .description("user changes that could not be sent to the other pods").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void setNotifyBatcher() {
+        // one batch at a time keeps the messages in order
+        notifyBatcher = new MicroBatcher<>("user-change-notify", batchSize, Duration.ofMillis(batchWindowMillis), 1,
+                this::sendBatch, meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        LOG.info("listen for user changes on channel {}", CHANNEL);
+
+        listening = Flux.usingWhen(Mono.from(unpooled(connectionFactory).create()).cast(PostgresqlConnection.class),
+                        connection -> Flux.from(connection.createStatement("LISTEN " + CHANNEL).execute())
+                                .flatMap(result -> result.getRowsUpdated())
+                                .then(Mono.fromRunnable(() -> {
+                                    connected.set(1);
+                                    flush();
+                                }))
+                                .thenMany(connection.getNotifications()),
+                        PostgresqlConnection::close)
+                .doOnNext(notification -> receivePayload(notification.getParameter()))
+                .doOnError(throwable -> {
+                    connected.set(0);
+                    LOG.error("user change LISTEN connection failed: {}", throwable.getMessage());
+                })
+                .doOnComplete(() -> {
+                    connected.set(0);
+                    LOG.warn("user change LISTEN connection closed");
+                })
+                .repeatWhen(completed -> completed.delayElements(Duration.ofSeconds(1)))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(maxReconnectBackoffSeconds))
+                        // start the backoff again once a connection has received notifications
+                        .transientErrors(true))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (listening != null) {
+            listening.dispose();
+        }
+        notifyBatcher.dispose();
+    }
+
+    @Override
+    protected void send(String message) {
+        if (message.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD_BYTES) {
+            LOG.error("user change is over the notification payload limit and is not sent: {}...",
+                    message.substring(0, Math.min(message.length(), 200)));
+            sendFailures.increment();
+            return;
+        }
+        notifyBatcher.submit(message)
+                .subscribe(null, throwable -> LOG.error("failed to notify user change {}: {}", message, throwable.getMessage()));
+    }
+
+    // each payload is sent on its own, so one failed notification does not drop the rest of the batch
+    private Mono<Map<String, Boolean>> sendBatch(Set<String> messages) {
+        return Flux.fromIterable(payloads(messages))
+                .concatMap(payload -> queryMetrics.record(PostgresUserChangeBus.class.getSimpleName(), "notify", NOTIFY,
+                                "channel: " + QueryMetrics.shape(CHANNEL) + ", payload: " + QueryMetrics.shape(payload),
+                                databaseClient.sql(NOTIFY)
+                                        .bind("channel", CHANNEL)
+                                        .bind("payload", payload)
+                                        .then())
+                        .doOnSuccess(unused -> LOG.debug("notified user changes {}", payload))
+                        .onErrorResume(throwable -> {
+                            LOG.error("failed to notify user changes {}: {}", payload, throwable.getMessage());
+                            sendFailures.increment(messages(payload).size());
+                            return Mono.empty();
+                        }))
+                .then(Mono.just(Map.of()));
+    }
+
+    private void receivePayload(String payload) {
+        messages(payload).forEach(this::receive);
+    }
+
+    /**
+     * joins the messages of this pod with newlines into as few notification payloads as the payload limit allows
+     */
+    public static List<String> payloads(Collection<String> messages) {
+        List<String> payloads = new ArrayList<>();
+        StringBuilder payload = new StringBuilder();
+        int payloadBytes = 0;
+
+        for (String message : messages) {
+            int messageBytes = message.getBytes(StandardCharsets.UTF_8).length;
+            if (payloadBytes > 0 && payloadBytes + 1 + messageBytes > MAX_PAYLOAD_BYTES) {
+                payloads.add(payload.toString());
+                payload.setLength(0);
+                payloadBytes = 0;
+            }
+            if (payloadBytes > 0) {
+                payload.append('\n');
+                payloadBytes++;
+            }
+            payload.append(message);
+            payloadBytes += messageBytes;
+        }
+        if (payloadBytes > 0) {
+            payloads.add(payload.toString());
+        }
+        return payloads;
+    }
+
+    /**
+     * splits a notification payload into its messages.  All messages of a payload come from one pod and start with
+     * its instance id, which marks where each message starts even if a value holds a newline.
+     */
+    public static List<String> messages(String payload) {
+        int prefixEnd = payload.indexOf(';');
+        if (prefixEnd < 0) {
+            return List.of(payload);
+        }
+        String separator = "\n" + payload.substring(0, prefixEnd + 1);
+
+        List<String> messages = new ArrayList<>();
+        int start = 0;
+        int next;
+        while ((next = payload.indexOf(separator, start)) >= 0) {
+            messages.add(payload.substring(start, next));
+            start = next + 1;
+        }
+        messages.add(payload.substring(start));
+        return messages;
+    }
+
+    // the pool would take the LISTEN connection out of use for other queries
+    private static ConnectionFactory unpooled(ConnectionFactory connectionFactory) {
+        if (connectionFactory instanceof Wrapped<?> wrapped && wrapped.unwrap() instanceof ConnectionFactory target) {
+            return target;
+        }
+        return connectionFactory;
+    }
+}
@@ -0,0 +1,80 @@
+package me.sonam.user.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent lookups for the same key into one subscription to the source.
+ * Callers that arrive while a lookup for their key is in flight get the result of that
+ * lookup.  The entry is removed as soon as the source terminates so nothing is cached
+ * beyond the lifetime of the in-flight call.  When a generation is given, a caller only joins a lookup that
+ * started in the current generation, so a lookup that may have read a row before it was changed is not shared
+ * with callers that arrive after the change.
+ *
+ * @param <K> lookup key
+ * @param <V> lookup result
+ */
+public class SingleFlight<K, V> {
+    private static final Logger LOG = LoggerFactory.getLogger(SingleFlight.class);
+
+    private final String name;
+    private final ConcurrentMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongSupplier generation;
+    private final Counter calls;
+    private final Counter collapsed;
+
+    public SingleFlight(String name, MeterRegistry meterRegistry) {
+        this(name, () -> 0, meterRegistry);
+    }
+
+    public SingleFlight(String name, LongSupplier generation, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.generation = generation;
+        this.calls = Counter.builder("user.singleflight.calls").tag("name", name)
+                .description("lookups requested").register(meterRegistry);
+        this.collapsed = Counter.builder("user.singleflight.collapsed").tag("name", name)
+                .description("lookups that joined an in-flight call instead of querying").register(meterRegistry);
+    }
+
+    public Mono<V> execute(K key, Supplier<Mono<V>> source) {
+        return Mono.defer(() -> {
+            calls.increment();
+            long current = generation.getAsLong();
+            Flight<V> existing = inFlight.get(key);
+            if (existing != null && existing.generation() == current) {
+                collapsed.increment();
+                LOG.debug("{} joined in-flight lookup for key: {}", name, key);
+                return existing.result();
+            }
+
+            @SuppressWarnings("unchecked")
+            Flight<V>[] holder = new Flight[1];
+            holder[0] = new Flight<>(current, source.get()
+                    .doFinally(signalType -> inFlight.remove(key, holder[0]))
+                    .cache());
+
+            // a lookup of an older generation is replaced, its callers still get its result
+            Flight<V> joined = inFlight.compute(key, (k, flight) ->
+                    flight != null && flight.generation() == current ? flight : holder[0]);
+            if (joined != holder[0]) {
+                collapsed.increment();
+            }
+            return joined.result();
+        });
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private record Flight<V>(long generation, Mono<V> result) {
+    }
+}
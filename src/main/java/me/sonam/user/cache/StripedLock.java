@@ -0,0 +1,158 @@
+package me.sonam.user.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs actions one at a time per key without blocking a thread.  Keys are hashed onto a fixed number of
+ * stripes, each stripe runs one action and queues the others in arrival order, so unrelated keys on the same
+ * stripe also wait for each other.  An action holding several keys takes their stripes in index order, which
+ * keeps two actions from waiting on each other.  A waiting caller that cancels is skipped, a running action
+ * that is cancelled releases its stripes.
+ * The lock only covers this jvm, other pods are kept apart by the database.
+ */
+public class StripedLock {
+    private static final Logger LOG = LoggerFactory.getLogger(StripedLock.class);
+
+    private final String name;
+    private final Stripe[] stripes;
+    private final Counter acquired;
+    private final Counter contended;
+    private final Timer wait;
+
+    public StripedLock(String name, int stripeCount, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.acquired = Counter.builder("user.lock.acquired").tag("name", name)
+                .description("stripes taken").register(meterRegistry);
+        this.contended = Counter.builder("user.lock.contended").tag("name", name)
+                .description("stripes taken after waiting for another action").register(meterRegistry);
+        this.wait = Timer.builder("user.lock.wait").tag("name", name)
+                .description("time waited for a stripe").register(meterRegistry);
+    }
+
+    /**
+     * subscribes to the action once no other action holds any of the keys
+     * @param keys null keys are ignored
+     */
+    public <T> Mono<T> withLock(Supplier<Mono<T>> action, String... keys) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for (String key : keys) {
+            if (key != null) {
+                indexes.add(Math.floorMod(spread(key.hashCode()), stripes.length));
+            }
+        }
+
+        Supplier<Mono<T>> locked = action;
+        // the lowest stripe is taken first, so wrap from the highest
+        for (Integer index : indexes.descendingSet()) {
+            Supplier<Mono<T>> inner = locked;
+            locked = () -> stripes[index].run(inner);
+        }
+        return Mono.defer(locked);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private final class Stripe {
+        // running action plus waiting ones
+        private final AtomicInteger count = new AtomicInteger();
+        private final Queue<Waiter<?>> waiters = new ConcurrentLinkedQueue<>();
+
+        <T> Mono<T> run(Supplier<Mono<T>> action) {
+            return Mono.create(sink -> {
+                Waiter<T> waiter = new Waiter<>(this, action, sink);
+                sink.onCancel(waiter::cancel);
+
+                if (count.getAndIncrement() == 0) {
+                    if (!waiter.start()) {
+                        release();
+                    }
+                }
+                else {
+                    contended.increment();
+                    LOG.debug("{} action waits for a stripe", name);
+                    waiters.add(waiter);
+                }
+            });
+        }
+
+        void release() {
+            while (count.decrementAndGet() > 0) {
+                Waiter<?> next;
+                // the waiter counted itself before adding itself to the queue
+                while ((next = waiters.poll()) == null) {
+                    Thread.onSpinWait();
+                }
+                if (next.start()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private final class Waiter<T> {
+        private static final int WAITING = 0;
+        private static final int RUNNING = 1;
+        private static final int CANCELLED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private final Stripe stripe;
+        private final Supplier<Mono<T>> action;
+        private final MonoSink<T> sink;
+        private final long created = System.nanoTime();
+        private volatile Disposable running;
+
+        Waiter(Stripe stripe, Supplier<Mono<T>> action, MonoSink<T> sink) {
+            this.stripe = stripe;
+            this.action = action;
+            this.sink = sink;
+        }
+
+        /**
+         * @return false when the caller cancelled while waiting
+         */
+        boolean start() {
+            if (!state.compareAndSet(WAITING, RUNNING)) {
+                return false;
+            }
+            acquired.increment();
+            wait.record(System.nanoTime() - created, TimeUnit.NANOSECONDS);
+
+            // the action keeps the caller's context, the web clients read the request token from it
+            running = Mono.defer(action)
+                    .doFinally(signalType -> stripe.release())
+                    .contextWrite(sink.contextView())
+                    .subscribe(sink::success, sink::error, () -> sink.success());
+            return true;
+        }
+
+        void cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                return;
+            }
+            Disposable disposable = running;
+            if (disposable != null) {
+                disposable.dispose();
+            }
+        }
+    }
+}
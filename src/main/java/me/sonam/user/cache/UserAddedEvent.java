@@ -0,0 +1,8 @@
+package me.sonam.user.cache;
+
+/**
+ * published by {@link AvailabilityFilter} when a user was saved on this pod, so the other pods add the names
+ * to their filter too.  Either value can be null.
+ */
+public record UserAddedEvent(String authenticationId, String email) {
+}
@@ -0,0 +1,294 @@
+package me.sonam.user.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import me.sonam.user.handler.carrier.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * In-process read-through cache of {@link User} by user id.  The cache is bounded by an
+ * approximate byte weight of each entry and expires entries after a fixed time since write.
+ * Writers must call one of the evict methods after changing a user row.
+ * Ids and authenticationIds with no user are remembered for {@code user-cache.negative-ttl-seconds} so repeated
+ * lookups of unknown users do not reach the database, 0 turns this off.  Evicting an id or authenticationId also
+ * forgets that it was missing.
+ * The cache can be turned off with the {@code user-cache.enabled} property, in which case
+ * every lookup goes to the loader.
+ * The evict methods publish a {@link UserChangedEvent} so the {@link UserChangeBus} can evict the user on the
+ * other pods, which call the evictLocal methods.
+ * A load that read the row before a writer changed it can finish after the writer's evict.  Every evict stamps the
+ * stripes of its id and authenticationId with a clock, and a load passes the clock value from before it read,
+ * {@link #loadStarted()}, so a result older than the last evict of its keys is not cached.  {@link #invalidateAll()}
+ * counts as an evict of every key.
+ */
+@Component
+public class UserCache implements ApplicationEventPublisherAware {
+    private static final Logger LOG = LoggerFactory.getLogger(UserCache.class);
+
+    // rough object overhead of a User with its UUID and boxed Booleans
+    private static final int USER_BASE_WEIGHT = 160;
+
+    private static final int EVICT_STRIPES = 4096;
+
+    private final boolean enabled;
+    private final boolean negativeEnabled;
+    private final Cache<UUID, User> usersById;
+    private final Cache<UUID, Boolean> missingIds;
+    private final Cache<String, Boolean> missingAuthenticationIds;
+
+    // secondary index so that writers keyed by authenticationId can evict the cached user
+    private final Map<String, UUID> idsByAuthenticationId = new ConcurrentHashMap<>();
+
+    // ticks on every evict, and the tick of the last evict of the ids and authenticationIds of each stripe
+    private final AtomicLong evictClock = new AtomicLong();
+    private final AtomicLongArray evictedAt = new AtomicLongArray(EVICT_STRIPES);
+    // tick of the last invalidateAll, which evicts every key
+    private volatile long flushedAt;
+
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    public UserCache(@Value("${user-cache.enabled:true}") boolean enabled,
+                     @Value("${user-cache.maximum-weight-bytes:16777216}") long maximumWeightBytes,
+                     @Value("${user-cache.expire-after-write-seconds:300}") long expireAfterWriteSeconds,
+                     @Value("${user-cache.negative-ttl-seconds:30}") long negativeTtlSeconds,
+                     @Value("${user-cache.negative-maximum-size:100000}") long negativeMaximumSize,
+                     MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.usersById = Caffeine.newBuilder()
+                .maximumWeight(maximumWeightBytes)
+                .weigher((UUID id, User user) -> weigh(user))
+                .expireAfterWrite(Duration.ofSeconds(expireAfterWriteSeconds))
+                .evictionListener((UUID id, User user, RemovalCause cause) -> removeIndex(id, user))
+                .recordStats()
+                .build();
+
+        // a negative ttl of 0 turns the negative cache off
+        this.negativeEnabled = negativeTtlSeconds > 0;
+        this.missingIds = Caffeine.newBuilder()
+                .maximumSize(negativeMaximumSize)
+                .expireAfterWrite(Duration.ofSeconds(Math.max(negativeTtlSeconds, 1)))
+                .recordStats()
+                .build();
+        this.missingAuthenticationIds = Caffeine.newBuilder()
+                .maximumSize(negativeMaximumSize)
+                .expireAfterWrite(Duration.ofSeconds(Math.max(negativeTtlSeconds, 1)))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, usersById, "userById");
+        CaffeineCacheMetrics.monitor(meterRegistry, missingIds, "missingUserId");
+        CaffeineCacheMetrics.monitor(meterRegistry, missingAuthenticationIds, "missingAuthenticationId");
+        LOG.info("user cache enabled: {}, maximumWeightBytes: {}, expireAfterWriteSeconds: {}, negativeTtlSeconds: {}",
+                enabled, maximumWeightBytes, expireAfterWriteSeconds, negativeTtlSeconds);
+    }
+
+    /**
+     * return the cached user for this id or subscribe to the loader and cache its result.
+     * An empty result from the loader is remembered as a missing id, an error result is not cached.
+     */
+    public Mono<User> getUserById(UUID id, Function<UUID, Mono<User>> loader) {
+        if (!enabled) {
+            return loader.apply(id);
+        }
+
+        return Mono.defer(() -> {
+            User user = usersById.getIfPresent(id);
+            if (user != null) {
+                LOG.debug("user cache hit for id: {}", id);
+                return Mono.just(user);
+            }
+            if (missingIds.getIfPresent(id) != null) {
+                LOG.debug("user cache knows id {} is missing", id);
+                return Mono.empty();
+            }
+            long loadStarted = loadStarted();
+            return loader.apply(id).doOnNext(loaded -> put(loaded, loadStarted))
+                    .switchIfEmpty(Mono.fromRunnable(() -> {
+                        if (negativeEnabled && !evictedSince(id, loadStarted)) {
+                            missingIds.put(id, Boolean.TRUE);
+                        }
+                    }));
+        });
+    }
+
+    /**
+     * @return true when a lookup of this authenticationId found no user within the negative ttl
+     */
+    public boolean isMissingAuthenticationId(String authenticationId) {
+        return enabled && missingAuthenticationIds.getIfPresent(authenticationId.toLowerCase(Locale.ROOT)) != null;
+    }
+
+    /**
+     * @param loadStarted {@link #loadStarted()} from before the lookup that found no user
+     */
+    public void putMissingAuthenticationId(String authenticationId, long loadStarted) {
+        if (enabled && negativeEnabled && !evictedSince(authenticationId.toLowerCase(Locale.ROOT), loadStarted)) {
+            missingAuthenticationIds.put(authenticationId.toLowerCase(Locale.ROOT), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return the cached user with this authenticationId or null, the loader is not called
+     */
+    public User getIfPresent(String authenticationId) {
+        if (!enabled || authenticationId == null) {
+            return null;
+        }
+        UUID id = idsByAuthenticationId.get(authenticationId.toLowerCase(Locale.ROOT));
+        return id == null ? null : usersById.getIfPresent(id);
+    }
+
+    /**
+     * @return clock value to pass to the put methods, taken before reading the user
+     */
+    public long loadStarted() {
+        return evictClock.get();
+    }
+
+    /**
+     * caches the user unless it was evicted after the load started, the load may have read the old row
+     * @param loadStarted {@link #loadStarted()} from before the user was read
+     */
+    public void put(User user, long loadStarted) {
+        if (!enabled || user.getId() == null) {
+            return;
+        }
+        String authenticationIdKey = user.getAuthenticationId() == null ? null : user.getAuthenticationId().toLowerCase(Locale.ROOT);
+        if (evictedSince(user.getId(), loadStarted) || (authenticationIdKey != null && evictedSince(authenticationIdKey, loadStarted))) {
+            LOG.debug("user id {} changed while it was loaded, not cached", user.getId());
+            return;
+        }
+        usersById.put(user.getId(), user);
+        if (user.getAuthenticationId() != null) {
+            idsByAuthenticationId.put(user.getAuthenticationId().toLowerCase(Locale.ROOT), user.getId());
+        }
+    }
+
+    /**
+     * evicts the user after it was changed, here and on the other pods
+     */
+    public void evict(UUID id) {
+        if (!enabled || id == null) {
+            return;
+        }
+        evictLocal(id);
+        publish(new UserChangedEvent(id, null));
+    }
+
+    /**
+     * evicts the user after it was changed, here and on the other pods
+     */
+    public void evictByAuthenticationId(String authenticationId) {
+        if (!enabled || authenticationId == null) {
+            return;
+        }
+        UUID id = idsByAuthenticationId.get(authenticationId.toLowerCase(Locale.ROOT));
+        evictLocalByAuthenticationId(authenticationId);
+        publish(new UserChangedEvent(id, authenticationId));
+    }
+
+    /**
+     * evicts the user from this pod only, for changes made on another pod
+     */
+    public void evictLocal(UUID id) {
+        if (!enabled || id == null) {
+            return;
+        }
+        stamp(id);
+        missingIds.invalidate(id);
+        User user = usersById.asMap().remove(id);
+        if (user != null) {
+            removeIndex(id, user);
+        }
+        LOG.debug("evicted user id {} from cache", id);
+    }
+
+    public void evictLocalByAuthenticationId(String authenticationId) {
+        if (!enabled || authenticationId == null) {
+            return;
+        }
+        stamp(authenticationId.toLowerCase(Locale.ROOT));
+        missingAuthenticationIds.invalidate(authenticationId.toLowerCase(Locale.ROOT));
+        UUID id = idsByAuthenticationId.get(authenticationId.toLowerCase(Locale.ROOT));
+        if (id != null) {
+            evictLocal(id);
+        }
+    }
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
+    private void publish(UserChangedEvent userChangedEvent) {
+        if (applicationEventPublisher != null) {
+            applicationEventPublisher.publishEvent(userChangedEvent);
+        }
+    }
+
+    /**
+     * drops every cached user, and keeps loads that started before from caching what they read
+     */
+    public void invalidateAll() {
+        flushedAt = evictClock.incrementAndGet();
+        usersById.invalidateAll();
+        missingIds.invalidateAll();
+        missingAuthenticationIds.invalidateAll();
+        idsByAuthenticationId.clear();
+    }
+
+    public CacheStats stats() {
+        return usersById.stats();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private void stamp(Object key) {
+        evictedAt.accumulateAndGet(stripe(key), evictClock.incrementAndGet(), Math::max);
+    }
+
+    private boolean evictedSince(Object key, long loadStarted) {
+        return flushedAt > loadStarted || evictedAt.get(stripe(key)) > loadStarted;
+    }
+
+    private static int stripe(Object key) {
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), EVICT_STRIPES);
+    }
+
+    private void removeIndex(UUID id, User user) {
+        if (user != null && user.getAuthenticationId() != null) {
+            idsByAuthenticationId.remove(user.getAuthenticationId().toLowerCase(Locale.ROOT), id);
+        }
+    }
+
+    private static int weigh(User user) {
+        return USER_BASE_WEIGHT + 2 * (length(user.getFirstName()) + length(user.getLastName())
+                + length(user.getEmail()) + length(user.getAuthenticationId()) + length(user.getProfilePhoto()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
@@ -0,0 +1,131 @@
+package me.sonam.user.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Carries user changes between the pods so each pod can evict the user from its {@link UserCache}.
+ * A change made here is sent as a message {@code <pod instance id>;<sent epoch millis>;<user id>;<authenticationId>}
+ * with empty values for unknown ids.  A saved user is sent as
+ * {@code <pod instance id>;<sent epoch millis>;added;<authenticationId>;<email>} with url encoded values, so each
+ * pod can add the names to its {@link AvailabilityFilter}.  Messages sent by this pod are skipped when received.
+ * When messages may have been missed, for example after the connection to the other pods was lost, the whole
+ * local cache is flushed and the availability filter rebuilt.
+ * The {@code user-change-bus.type} property picks the implementation: {@link PostgresUserChangeBus} for running
+ * against Postgres, or {@link LocalUserChangeBus} as an in-process stand-in.
+ */
+public abstract class UserChangeBus {
+    private static final Logger LOG = LoggerFactory.getLogger(UserChangeBus.class);
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private static final String ADDED = "added";
+
+    private final UserCache userCache;
+    private final AvailabilityFilter availabilityFilter;
+
+    private final Counter published;
+    private final Counter received;
+    private final Counter flushes;
+    private final Timer lag;
+
+    protected UserChangeBus(UserCache userCache, AvailabilityFilter availabilityFilter, MeterRegistry meterRegistry) {
+        this.userCache = userCache;
+        this.availabilityFilter = availabilityFilter;
+
+        published = Counter.builder("user.cache.invalidation.published")
+                .description("user changes sent to the other pods").register(meterRegistry);
+        received = Counter.builder("user.cache.invalidation.received")
+                .description("user changes received from the other pods").register(meterRegistry);
+        flushes = Counter.builder("user.cache.invalidation.flushes")
+                .description("full cache flushes after user changes may have been missed").register(meterRegistry);
+        lag = Timer.builder("user.cache.invalidation.lag")
+                .description("time from a user change on another pod to its eviction on this pod").register(meterRegistry);
+    }
+
+    /**
+     * sends the message to all pods, including this one
+     */
+    protected abstract void send(String message);
+
+    @EventListener
+    public void onUserChanged(UserChangedEvent userChangedEvent) {
+        String message = instanceId + ";" + System.currentTimeMillis() + ";"
+                + (userChangedEvent.id() == null ? "" : userChangedEvent.id()) + ";"
+                + (userChangedEvent.authenticationId() == null ? "" : userChangedEvent.authenticationId());
+        LOG.debug("send user change {}", message);
+        published.increment();
+        send(message);
+    }
+
+    @EventListener
+    public void onUserAdded(UserAddedEvent userAddedEvent) {
+        String message = instanceId + ";" + System.currentTimeMillis() + ";" + ADDED + ";"
+                + encode(userAddedEvent.authenticationId()) + ";" + encode(userAddedEvent.email());
+        LOG.debug("send user added {}", message);
+        published.increment();
+        send(message);
+    }
+
+    protected void receive(String message) {
+        String[] parts = message.split(";", 4);
+        if (parts.length != 4) {
+            LOG.warn("ignore user change message not in the expected format: {}", message);
+            return;
+        }
+        if (parts[0].equals(instanceId)) {
+            return;
+        }
+        LOG.debug("received user change {}", message);
+        received.increment();
+
+        try {
+            lag.record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - Long.parseLong(parts[1]))));
+            if (parts[2].equals(ADDED)) {
+                String[] names = parts[3].split(";", -1);
+                if (names.length != 2) {
+                    LOG.warn("ignore user added message not in the expected format: {}", message);
+                    return;
+                }
+                availabilityFilter.addLocal(decode(names[0]), decode(names[1]));
+                return;
+            }
+            if (!parts[2].isEmpty()) {
+                userCache.evictLocal(UUID.fromString(parts[2]));
+            }
+        }
+        catch (IllegalArgumentException e) {
+            LOG.warn("ignore user change message with invalid values: {}", message);
+        }
+        if (!parts[3].isEmpty()) {
+            userCache.evictLocalByAuthenticationId(parts[3]);
+        }
+    }
+
+    /**
+     * drops every cached user, for when changes may have been missed
+     */
+    protected void flush() {
+        LOG.info("flush the user cache as user changes may have been missed");
+        flushes.increment();
+        userCache.invalidateAll();
+        availabilityFilter.rebuildAfterMissedAdditions();
+    }
+
+    private static String encode(String value) {
+        return value == null ? "" : URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String value) {
+        return value.isEmpty() ? null : URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,10 @@
+package me.sonam.user.cache;
+
+import java.util.UUID;
+
+/**
+ * published by {@link UserCache} when a user was changed on this pod.  Either value can be null when
+ * the writer only knows the other one.
+ */
+public record UserChangedEvent(UUID id, String authenticationId) {
+}
@@ -0,0 +1,81 @@
+package me.sonam.user.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.BodyInserters;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.Duration;
+
+/**
+ * In-process cache of response records already serialized to json bytes, so a read of an unchanged user
+ * writes the cached bytes instead of serializing the record again.  The key is the immutable record itself,
+ * which acts as the version of the user: a changed user row gives a record that is not equal to the cached
+ * one, so a cached body is never stale and needs no eviction.  Superseded entries age out by weight and time.
+ * The cache can be turned off with the {@code user-json-cache.enabled} property, in which case the record is
+ * written by the json encoder.
+ */
+@Component
+public class UserJsonCache {
+    private static final Logger LOG = LoggerFactory.getLogger(UserJsonCache.class);
+
+    // rough overhead of a cache entry and the byte array header
+    private static final int ENTRY_BASE_WEIGHT = 64;
+
+    private final boolean enabled;
+    private final JsonMapper jsonMapper;
+    private final Cache<Record, byte[]> jsonByRecord;
+
+    public UserJsonCache(@Value("${user-json-cache.enabled:true}") boolean enabled,
+                         @Value("${user-json-cache.maximum-weight-bytes:8388608}") long maximumWeightBytes,
+                         @Value("${user-json-cache.expire-after-access-seconds:600}") long expireAfterAccessSeconds,
+                         JsonMapper jsonMapper, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.jsonMapper = jsonMapper;
+        this.jsonByRecord = Caffeine.newBuilder()
+                .maximumWeight(maximumWeightBytes)
+                .weigher((Record record, byte[] json) -> ENTRY_BASE_WEIGHT + 2 * json.length)
+                .expireAfterAccess(Duration.ofSeconds(expireAfterAccessSeconds))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, jsonByRecord, "userJson");
+        LOG.info("user json cache enabled: {}, maximumWeightBytes: {}, expireAfterAccessSeconds: {}",
+                enabled, maximumWeightBytes, expireAfterAccessSeconds);
+    }
+
+    /**
+     * @return the json bytes of this record, serialized on the first call for an equal record
+     */
+    public byte[] json(Record record) {
+        if (!enabled) {
+            return jsonMapper.writeValueAsBytes(record);
+        }
+        return jsonByRecord.get(record, jsonMapper::writeValueAsBytes);
+    }
+
+    /**
+     * body inserter writing the cached json bytes of the record as one data buffer
+     */
+    public BodyInserter<?, ReactiveHttpOutputMessage> body(Record record) {
+        if (!enabled) {
+            return BodyInserters.fromValue(record);
+        }
+        return BodyInserters.fromDataBuffers(Mono.fromSupplier(() ->
+                DefaultDataBufferFactory.sharedInstance.wrap(json(record))));
+    }
+
+    public void invalidateAll() {
+        jsonByRecord.invalidateAll();
+    }
+}
@@ -0,0 +1,56 @@
+package me.sonam.user.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.server.context.WebServerInitializedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The actuator endpoints, including the Prometheus scrape, are served on management.server.port, which is only
+ * exposed inside the cluster.  Requests on that port are let through without a token, every request on the api
+ * port still needs one.
+ */
+@Configuration
+@ConditionalOnProperty(name = "management.server.port")
+public class ManagementSecurityConfig implements ApplicationListener<WebServerInitializedEvent> {
+    private static final Logger LOG = LoggerFactory.getLogger(ManagementSecurityConfig.class);
+
+    private static final String MANAGEMENT_NAMESPACE = "management";
+
+    // port the management server listens on, known once it has started
+    private volatile int managementPort = -1;
+
+    @Bean
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public SecurityWebFilterChain managementSecurityWebFilterChain(ServerHttpSecurity http) {
+        ServerWebExchangeMatcher onManagementPort = exchange -> {
+            InetSocketAddress localAddress = exchange.getRequest().getLocalAddress();
+            return localAddress != null && localAddress.getPort() == managementPort
+                    ? ServerWebExchangeMatcher.MatchResult.match() : ServerWebExchangeMatcher.MatchResult.notMatch();
+        };
+
+        return http.securityMatcher(onManagementPort)
+                .authorizeExchange(exchanges -> exchanges.anyExchange().permitAll())
+                .csrf(ServerHttpSecurity.CsrfSpec::disable)
+                .build();
+    }
+
+    @Override
+    public void onApplicationEvent(WebServerInitializedEvent event) {
+        if (MANAGEMENT_NAMESPACE.equals(event.getApplicationContext().getServerNamespace())) {
+            managementPort = event.getWebServer().getPort();
+            LOG.info("actuator endpoints are served without a token on management port {}", managementPort);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package me.sonam.user.config;
+
+import me.sonam.user.metrics.QueryMetrics;
+import me.sonam.user.metrics.RepositoryTimingPostProcessor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RepositoryMetricsConfig {
+
+    // static so the post processor is created before the repositories
+    @Bean
+    @ConditionalOnProperty(name = "repository-metrics.enabled", havingValue = "true", matchIfMissing = true)
+    public static RepositoryTimingPostProcessor repositoryTimingPostProcessor(ObjectProvider<QueryMetrics> queryMetrics) {
+        return new RepositoryTimingPostProcessor(queryMetrics);
+    }
+}
@@ -1,21 +1,36 @@
 package me.sonam.user.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
 import me.sonam.security.headerfilter.ReactiveRequestContextHolder;
+import me.sonam.user.handler.UserService;
 import me.sonam.user.handler.UserSignupService;
+import me.sonam.user.metrics.MeteredUserService;
+import me.sonam.user.metrics.WebClientMetricsFilter;
 import me.sonam.user.repo.UserRepository;
 import me.sonam.user.webclient.AccountWebClient;
 import me.sonam.user.webclient.AuthenticationWebClient;
 import me.sonam.user.webclient.OrganizationWebClient;
 import me.sonam.user.webclient.RoleWebClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 @Configuration
 public class WebClientConfig {
+    private static final Logger LOG = LoggerFactory.getLogger(WebClientConfig.class);
+
     @Value("${account-rest-service.context}")
     private String deleteMyAccountEndpoint;
 
@@ -31,9 +46,33 @@ public class WebClientConfig {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Value("${tokenExpireSeconds:1}")
     private int tokenExpireSeconds;
 
+    @Value("${web-client.pool.max-connections:100}")
+    private int maxConnections;
+
+    @Value("${web-client.pool.pending-acquire-max-count:500}")
+    private int pendingAcquireMaxCount;
+
+    @Value("${web-client.pool.pending-acquire-timeout-millis:5000}")
+    private long pendingAcquireTimeoutMillis;
+
+    @Value("${web-client.pool.max-idle-time-seconds:30}")
+    private long maxIdleTimeSeconds;
+
+    @Value("${web-client.pool.max-life-time-seconds:300}")
+    private long maxLifeTimeSeconds;
+
+    @Value("${web-client.pool.evict-in-background-seconds:30}")
+    private long evictInBackgroundSeconds;
+
+    @Value("${web-client.connect-timeout-millis:5000}")
+    private int connectTimeoutMillis;
+
     @Bean
     public ReactiveRequestContextHolder reactiveRequestContextHolder(
             @Qualifier("tokenWebClientBuilder") WebClient.Builder tokenWebClientBuilder) {
@@ -48,27 +87,98 @@ public class WebClientConfig {
         return new UserSignupService(accountWebClient, authenticationWebClient, organizationWebClient, roleWebClient);
     }
 
+    // the handler calls the service through the metered wrapper
+    @Bean
+    @Primary
+    public UserService userService(UserSignupService userSignupService) {
+        return new MeteredUserService(userSignupService, meterRegistry);
+    }
+
+    // each downstream service gets its own connection pool so a slow service cannot take the connections of another
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider accountConnectionProvider() {
+        return connectionProvider("account-rest-service");
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider authenticationConnectionProvider() {
+        return connectionProvider("authentication-rest-service");
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider organizationConnectionProvider() {
+        return connectionProvider("organization-rest-service");
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider roleConnectionProvider() {
+        return connectionProvider("role-rest-service");
+    }
+
+    // the service builder is cloned so the connector is not set on the shared builder, the clone keeps its filters.
+    // The metrics filter is added last so it times the downstream call only, see WebClientMetricsFilter
     @Bean
     public AccountWebClient accountWebClient(
-            @Qualifier("serviceWebClientBuilder") WebClient.Builder serviceWebClientBuilder) {
-        return new AccountWebClient(serviceWebClientBuilder, deleteMyAccountEndpoint, userRepository);
+            @Qualifier("serviceWebClientBuilder") WebClient.Builder serviceWebClientBuilder,
+            @Qualifier("accountConnectionProvider") ConnectionProvider connectionProvider) {
+        return new AccountWebClient(serviceWebClientBuilder.clone().clientConnector(connector(connectionProvider))
+                        .filter(new WebClientMetricsFilter(connectionProvider.name(), meterRegistry)),
+                deleteMyAccountEndpoint, userRepository);
     }
 
     @Bean
     public AuthenticationWebClient authenticationWebClient(
-            @Qualifier("serviceWebClientBuilder") WebClient.Builder serviceWebClientBuilder) {
-        return new AuthenticationWebClient(serviceWebClientBuilder, deleteMyAuthenticationEndpoint, userRepository);
+            @Qualifier("serviceWebClientBuilder") WebClient.Builder serviceWebClientBuilder,
+            @Qualifier("authenticationConnectionProvider") ConnectionProvider connectionProvider) {
+        return new AuthenticationWebClient(serviceWebClientBuilder.clone().clientConnector(connector(connectionProvider))
+                        .filter(new WebClientMetricsFilter(connectionProvider.name(), meterRegistry)),
+                deleteMyAuthenticationEndpoint, userRepository);
     }
 
     @Bean
     public OrganizationWebClient organizationWebClient(
-            @Qualifier("serviceWebClientBuilder") WebClient.Builder serviceWebClientBuilder) {
-        return new OrganizationWebClient(serviceWebClientBuilder, deleteMyOrganizationEndpoint);
+            @Qualifier("serviceWebClientBuilder") WebClient.Builder serviceWebClientBuilder,
+            @Qualifier("organizationConnectionProvider") ConnectionProvider connectionProvider) {
+        return new OrganizationWebClient(serviceWebClientBuilder.clone().clientConnector(connector(connectionProvider))
+                        .filter(new WebClientMetricsFilter(connectionProvider.name(), meterRegistry)),
+                deleteMyOrganizationEndpoint);
     }
 
     @Bean
     public RoleWebClient roleWebClient(
-            @Qualifier("serviceWebClientBuilder") WebClient.Builder serviceWebClientBuilder) {
-        return new RoleWebClient(serviceWebClientBuilder, deleteMyRoleEndpoint);
+            @Qualifier("serviceWebClientBuilder") WebClient.Builder serviceWebClientBuilder,
+            @Qualifier("roleConnectionProvider") ConnectionProvider connectionProvider) {
+        return new RoleWebClient(serviceWebClientBuilder.clone().clientConnector(connector(connectionProvider))
+                        .filter(new WebClientMetricsFilter(connectionProvider.name(), meterRegistry)),
+                deleteMyRoleEndpoint);
+    }
+
+    /**
+     * pool metrics are published as reactor.netty.connection.provider.* tagged with the pool name
+     */
+    private ConnectionProvider connectionProvider(String name) {
+        LOG.info("creating connection pool {} with maxConnections: {}, pendingAcquireMaxCount: {}",
+                name, maxConnections, pendingAcquireMaxCount);
+
+        return ConnectionProvider.builder(name)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMillis))
+                .maxIdleTime(Duration.ofSeconds(maxIdleTimeSeconds))
+                .maxLifeTime(Duration.ofSeconds(maxLifeTimeSeconds))
+                .evictInBackground(Duration.ofSeconds(evictInBackgroundSeconds))
+                .metrics(true)
+                .build();
+    }
+
+    // reactor netty client metrics (connect, tls, time to first byte) tagged with the pool name instead of the uri,
+    // the uris carry user ids
+    private ReactorClientHttpConnector connector(ConnectionProvider connectionProvider) {
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .metrics(true, uri -> connectionProvider.name())
+                .keepAlive(true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis);
+        return new ReactorClientHttpConnector(httpClient);
     }
 }
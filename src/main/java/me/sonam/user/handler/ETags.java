@@ -0,0 +1,76 @@
+package me.sonam.user.handler;
+
+import me.sonam.user.handler.carrier.User;
+import org.springframework.http.ETag;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Strong ETags of the user read endpoints.  The ETag of a user is its id with the row version, which every
+ * update query of {@link me.sonam.user.repo.UserRepository} increments, so it changes whenever the user does.
+ * The ETag of a list of users is a digest of the ids and versions in response order.
+ */
+final class ETags {
+
+    private ETags() {
+    }
+
+    static String of(UUID id, long version) {
+        return of(id.toString(), version);
+    }
+
+    static String of(String id, long version) {
+        return "\"" + id + "-" + version + "\"";
+    }
+
+    static String of(List<User> users) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (User user : users) {
+                digest.update((user.getId() + "-" + user.getVersion() + ",").getBytes(StandardCharsets.US_ASCII));
+            }
+            return "\"" + Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(Arrays.copyOf(digest.digest(), 16)) + "\"";
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return true when an If-None-Match header of the request matches the ETag
+     */
+    static boolean notModified(ServerRequest serverRequest, String eTag) {
+        List<String> ifNoneMatch = serverRequest.headers().header(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        ETag current = ETag.create(eTag);
+        return ifNoneMatch.stream().flatMap(header -> ETag.parse(header).stream())
+                .anyMatch(requested -> requested.isWildcard() || requested.compare(current, false));
+    }
+
+    /**
+     * answers 304 with no body when the request has the ETag, otherwise writes the json body with the ETag
+     */
+    static Mono<ServerResponse> okOrNotModified(ServerRequest serverRequest, String eTag,
+                                                Function<ServerResponse.BodyBuilder, Mono<ServerResponse>> body) {
+        if (notModified(serverRequest, eTag)) {
+            return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        return body.apply(ServerResponse.ok().eTag(eTag).contentType(MediaType.APPLICATION_JSON));
+    }
+}
@@ -0,0 +1,52 @@
+package me.sonam.user.handler;
+
+import me.sonam.user.repo.entity.UserNameMatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * keyset position of the last row of a name search page.  It is passed to clients as an opaque
+ * url-safe string and sent back to read the next page.
+ */
+public record NameSearchCursor(int rank, String firstNameKey, String lastNameKey, UUID id) {
+
+    // sorts before every row, the rank of a row is never negative
+    public static final NameSearchCursor FIRST = new NameSearchCursor(-1, "", "", new UUID(0, 0));
+
+    public static NameSearchCursor after(UserNameMatch userNameMatch) {
+        return new NameSearchCursor(userNameMatch.matchRank(), userNameMatch.firstNameKey(),
+                userNameMatch.lastNameKey(), userNameMatch.id());
+    }
+
+    public String encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(rank);
+            out.writeUTF(firstNameKey);
+            out.writeUTF(lastNameKey);
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("failed to encode name search cursor", e);
+        }
+    }
+
+    public static NameSearchCursor decode(String cursor) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)));
+            return new NameSearchCursor(in.readInt(), in.readUTF(), in.readUTF(), new UUID(in.readLong(), in.readLong()));
+        }
+        catch (IOException | IllegalArgumentException e) {
+            throw new UserException("name search cursor is not valid");
+        }
+    }
+}
@@ -4,4 +4,8 @@ public class UserException extends RuntimeException{
     public UserException(String message) {
         super(message);
     }
+
+    protected UserException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
 }
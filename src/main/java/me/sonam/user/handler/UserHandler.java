@@ -1,15 +1,26 @@
 package me.sonam.user.handler;
 
+import me.sonam.user.cache.UserCache;
+import me.sonam.user.cache.UserJsonCache;
+import me.sonam.user.handler.carrier.BulkSignupResult;
+import me.sonam.user.handler.carrier.User;
+import me.sonam.user.idempotency.IdempotentRequests;
+import me.sonam.user.repo.entity.UserNameMatch;
+import me.sonam.user.util.IdList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.data.util.Pair;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.io.IOException;
@@ -22,22 +33,47 @@ import java.util.*;
 public class UserHandler {
     private static final Logger LOG = LoggerFactory.getLogger(UserHandler.class);
     private static final String AUTHENTICATION_ID = "authenticationId";
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private UserJsonCache userJsonCache;
+
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private IdempotentRequests idempotentRequests;
+
+    @Value("${name-search.default-limit:50}")
+    private int nameSearchDefaultLimit;
+
+    @Value("${name-search.max-limit:200}")
+    private int nameSearchMaxLimit;
+
+    @Value("${name-search.stream-max-limit:10000}")
+    private int nameSearchStreamMaxLimit;
+
+    /**
+     * signs up a user.  A repeated request with the same Idempotency-Key header gets the response of the first one,
+     * see {@link IdempotentRequests}.
+     */
     public Mono<ServerResponse> signupUser(ServerRequest serverRequest) {
         LOG.info("signup user");
         LOG.info("printing myname header value {}", serverRequest.headers().firstHeader("myname"));
 
-       return userService.signupUser(serverRequest.bodyToMono(UserTransfer.class))
-                .flatMap(s ->  ServerResponse.created(URI.create("/users/"))
-                        .contentType(MediaType.APPLICATION_JSON).bodyValue(getMap(Pair.of("message", s))))
+        return idempotentRequests.handle(serverRequest, "signup", UserTransfer.class, userTransferMono ->
+                userService.signupUser(userTransferMono)
+                .map(s -> idempotentRequests.json(HttpStatus.CREATED, getMap(Pair.of("message", s))))
                 .onErrorResume(throwable -> {
                     LOG.debug("exception occurred in signupUser", throwable);
                     LOG.error("signup user failed {}", throwable.getMessage());
-                    return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
-                            .bodyValue(Map.of("error", "user signup failed with error: " + throwable.getMessage()));
-                });
+                    return Mono.just(idempotentRequests.json(HttpStatus.BAD_REQUEST,
+                            Map.of("error", "user signup failed with error: " + throwable.getMessage())));
+                }),
+                status -> status == HttpStatus.CREATED.value() ? ServerResponse.created(URI.create("/users/"))
+                        : ServerResponse.status(status));
     }
 
     public Mono<ServerResponse> updateProfilePhoto(ServerRequest serverRequest) {
@@ -54,25 +90,96 @@ public class UserHandler {
     }
 
 
+    /**
+     * signs up the users of a json array, or of newline delimited json, streamed from the request body.  The
+     * response streams a result line for every user as its batch finishes, see {@link UserService#bulkSignup(Flux)}.
+     * @param serverRequest
+     * @return
+     */
+    public Mono<ServerResponse> bulkSignup(ServerRequest serverRequest) {
+        LOG.info("bulk signup users");
+
+        Flux<BulkSignupResult> results = userService.bulkSignup(serverRequest.bodyToFlux(UserTransfer.class))
+                .onErrorResume(throwable -> {
+                    LOG.error("bulk signup stopped: {}", throwable.getMessage());
+                    return Flux.just(new BulkSignupResult(-1, null, null, null,
+                            "bulk signup stopped with error: " + throwable.getMessage()));
+                });
+
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_NDJSON).body(results, BulkSignupResult.class);
+    }
+
+    /**
+     * updates the user of the principal.  A repeated request with the same Idempotency-Key header gets the response
+     * of the first one, see {@link IdempotentRequests}.
+     */
     public Mono<ServerResponse> update(ServerRequest serverRequest) {
 
         return serverRequest.principal().flatMap(principal ->
-                userService.updateUser(principal.getName(), serverRequest.bodyToMono(UserUpdate.class))
-                .flatMap(s ->  ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
-                .onErrorResume(throwable -> {
-                    LOG.info("user update failed: ", throwable);
-                       return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
-                                .bodyValue(throwable.getMessage());
-                })
+                idempotentRequests.handle(serverRequest, "update", UserUpdate.class, userUpdateMono ->
+                        userService.updateUser(principal.getName(), userUpdateMono)
+                        .map(s -> new IdempotentRequests.Response(HttpStatus.OK.value(), s))
+                        .onErrorResume(throwable -> {
+                            LOG.info("user update failed: ", throwable);
+                            return Mono.just(new IdempotentRequests.Response(HttpStatus.BAD_REQUEST.value(),
+                                    String.valueOf(throwable.getMessage())));
+                        }),
+                        ServerResponse::status)
         );
     }
 
+    /**
+     * tells whether a new signup can use the 'authenticationId' and 'email' query parameters, at least one is required
+     * @param serverRequest
+     * @return
+     */
+    public Mono<ServerResponse> checkAvailability(ServerRequest serverRequest) {
+        String authenticationId = serverRequest.queryParam(AUTHENTICATION_ID).filter(s -> !s.isBlank()).orElse(null);
+        String email = serverRequest.queryParam("email").filter(s -> !s.isBlank()).orElse(null);
+        LOG.info("check availability of authenticationId: {}, email: {}", authenticationId, email);
+
+        if (authenticationId == null && email == null) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(Map.of("error", "authenticationId or email is required"));
+        }
+
+        return userService.checkAvailability(authenticationId, email)
+                .flatMap(availability -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(availability))
+                .onErrorResume(throwable -> {
+                    LOG.error("check availability failed: {}", throwable.getMessage());
+                    return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(Map.of("error", throwable.getMessage()));
+                });
+    }
+
+    /**
+     * returns one page of users matching the first and last name.  The optional 'limit' query parameter sets the page
+     * size, up to name-search.max-limit, and 'cursor' takes the value of the X-Next-Cursor header of the previous page.  The X-Next-Cursor header
+     * is only set when there may be more rows.  Users with searchable turned off are left out unless
+     * 'ignoreSearchable=true' is passed.
+     * @param serverRequest
+     * @return
+     */
     public Mono<ServerResponse> findMatchingFirstNameAndLastName(ServerRequest serverRequest) {
         LOG.info("authenticate user");
         LOG.info("http headers: {}", serverRequest.headers());
 
-        return userService.findMatchingName(serverRequest.pathVariable("firstName"), serverRequest.pathVariable("lastName"))
-                .collectList().flatMap(myUsers -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(myUsers))
+        return Mono.fromCallable(() -> getLimit(serverRequest, nameSearchDefaultLimit, nameSearchMaxLimit))
+                .flatMap(limit -> {
+                    NameSearchCursor cursor = serverRequest.queryParam("cursor").map(NameSearchCursor::decode)
+                            .orElse(NameSearchCursor.FIRST);
+                    boolean ignoreSearchable = serverRequest.queryParam("ignoreSearchable").filter("true"::equals).isPresent();
+
+                    return userService.findMatchingName(serverRequest.pathVariable("firstName"), serverRequest.pathVariable("lastName"),
+                                    cursor, limit, ignoreSearchable)
+                            .collectList().flatMap(users -> {
+                                ServerResponse.BodyBuilder bodyBuilder = ServerResponse.ok().contentType(MediaType.APPLICATION_JSON);
+                                if (!users.isEmpty() && users.size() >= limit) {
+                                    bodyBuilder.header(NEXT_CURSOR_HEADER, NameSearchCursor.after(users.getLast()).encode());
+                                }
+                                return bodyBuilder.bodyValue(users);
+                            });
+                })
                 .onErrorResume(throwable -> {
                     LOG.error("find matching firstname and lastname", throwable);
                     return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
@@ -80,6 +187,55 @@ public class UserHandler {
                 });
     }
 
+    /**
+     * streams users matching the first and last name as they are read from the database, for clients that accept
+     * application/x-ndjson or text/event-stream.  The stream is limited by the 'limit' query parameter, up to
+     * name-search.stream-max-limit, and takes the same 'cursor' and 'ignoreSearchable' parameters as the
+     * json endpoint.  Each server-sent event carries the cursor of its row as the event id so a client can resume
+     * after the last event it received.
+     * @param serverRequest
+     * @return
+     */
+    public Mono<ServerResponse> streamMatchingFirstNameAndLastName(ServerRequest serverRequest) {
+        LOG.info("stream users matching firstName and lastName");
+
+        return Mono.fromCallable(() -> getLimit(serverRequest, nameSearchStreamMaxLimit, nameSearchStreamMaxLimit))
+                .flatMap(limit -> {
+                    NameSearchCursor cursor = serverRequest.queryParam("cursor").map(NameSearchCursor::decode)
+                            .orElse(NameSearchCursor.FIRST);
+                    boolean ignoreSearchable = serverRequest.queryParam("ignoreSearchable").filter("true"::equals).isPresent();
+
+                    Flux<UserNameMatch> users = userService.findMatchingName(serverRequest.pathVariable("firstName"),
+                            serverRequest.pathVariable("lastName"), cursor, limit, ignoreSearchable);
+
+                    boolean eventStream = serverRequest.headers().accept().stream()
+                            .anyMatch(mediaType -> mediaType.isCompatibleWith(MediaType.TEXT_EVENT_STREAM)
+                                    && !mediaType.isWildcardType());
+                    if (eventStream) {
+                        Flux<ServerSentEvent<UserNameMatch>> events = users.map(user -> ServerSentEvent.builder(user)
+                                .id(NameSearchCursor.after(user).encode()).event("user").build());
+                        return ServerResponse.ok().contentType(MediaType.TEXT_EVENT_STREAM)
+                                .body(events, new ParameterizedTypeReference<ServerSentEvent<UserNameMatch>>() {});
+                    }
+                    return ServerResponse.ok().contentType(MediaType.APPLICATION_NDJSON).body(users, UserNameMatch.class);
+                })
+                .onErrorResume(throwable -> {
+                    LOG.error("stream matching firstname and lastname failed: {}", throwable.getMessage());
+                    return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(Map.of("error", throwable.getMessage()));
+                });
+    }
+
+    private static int getLimit(ServerRequest serverRequest, int defaultLimit, int maxLimit) {
+        try {
+            int limit = serverRequest.queryParam("limit").map(Integer::parseInt).orElse(defaultLimit);
+            return Math.max(1, Math.min(limit, maxLimit));
+        }
+        catch (NumberFormatException e) {
+            throw new UserException("limit should be a number");
+        }
+    }
+
     /**
      * allow a user to get user information by authenticationId
      * @param serverRequest
@@ -87,9 +243,21 @@ public class UserHandler {
      */
     public Mono<ServerResponse> getUserByAuthId(ServerRequest serverRequest) {
         LOG.info("get user by authId");
+        final String authenticationId = serverRequest.pathVariable(AUTHENTICATION_ID);
+
+        // answer a conditional get from the cached user version without reading the user row
+        User cachedUser = userCache.getIfPresent(authenticationId);
+        if (cachedUser != null) {
+            String eTag = ETags.of(cachedUser.getId(), cachedUser.getVersion());
+            if (ETags.notModified(serverRequest, eTag)) {
+                LOG.debug("user with authenticationId {} not modified", authenticationId);
+                return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+            }
+        }
 
-        return userService.getUserByAuthenticationId(serverRequest.pathVariable(AUTHENTICATION_ID))
-                .flatMap(s ->  ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
+        return userService.getUserByAuthenticationId(authenticationId)
+                .flatMap(s -> ETags.okOrNotModified(serverRequest, ETags.of(s.id(), s.version()),
+                        builder -> builder.body(userJsonCache.body(s))))
                 .onErrorResume(throwable -> {
                     LOG.error("get user by authid failed, {}", throwable.getMessage());
 
@@ -111,7 +279,7 @@ public class UserHandler {
 
         LOG.info("ignoreSearchable {}", ignoreSearchable);
         return userService.getUserByAuthenticationIdForProfileSearch(serverRequest.pathVariable(AUTHENTICATION_ID), ignoreSearchable)
-                .flatMap(s ->  ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
+                .flatMap(s ->  ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).body(userJsonCache.body(s)))
                 .onErrorResume(throwable -> {
                     LOG.error("get user by authid failed, {}", throwable.getMessage());
 
@@ -132,7 +300,8 @@ public class UserHandler {
         }
 
         return userService.getUserById(id)
-                .flatMap(s ->  ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
+                .flatMap(s -> ETags.okOrNotModified(serverRequest, ETags.of(s.getId(), s.getVersion()),
+                        builder -> builder.bodyValue(s)))
                 .onErrorResume(throwable -> {
                     LOG.error("get user by id failed: {}", throwable.getMessage());
 
@@ -149,10 +318,11 @@ public class UserHandler {
     public Mono<ServerResponse> getBatchOfUserById(ServerRequest serverRequest) {
         LOG.info("authenticate user");
 
-        List<UUID> uuidList = Arrays.stream(serverRequest.pathVariable("ids").split(",")).map(UUID::fromString).toList();
+        List<UUID> uuidList = IdList.parse(serverRequest.pathVariable("ids"));
 
         return userService.getBatchOfUserById(uuidList)
-                .flatMap(userList -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(userList))
+                .flatMap(userList -> ETags.okOrNotModified(serverRequest, ETags.of(userList),
+                        builder -> builder.bodyValue(userList)))
                 .onErrorResume(throwable -> {
                     LOG.error("get user by authid failed", throwable);
 
@@ -161,6 +331,25 @@ public class UserHandler {
                 });
     }
 
+    /**
+     * get users for a json array of ids in the request body.  The response has the users in the order of the
+     * requested ids and the ids that have no user.
+     * @param serverRequest
+     * @return
+     */
+    public Mono<ServerResponse> getUsersByIds(ServerRequest serverRequest) {
+        LOG.info("get users by batch of ids");
+
+        return userService.getUsersByIds(serverRequest.bodyToFlux(UUID.class))
+                .flatMap(userBatch -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(userBatch))
+                .onErrorResume(throwable -> {
+                    LOG.error("get users by batch of ids failed: {}", throwable.getMessage());
+
+                    return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(Map.of("error", throwable.getMessage()));
+                });
+    }
+
     // The account-rest-service will pass the JWT token to identify the user using security
     public Mono<ServerResponse> activateUser(ServerRequest serverRequest) {
         LOG.info("activate user");
@@ -174,6 +363,25 @@ public class UserHandler {
                 });
     }
 
+    /**
+     * activates the users for a json array of authenticationIds in the request body.  The response has the
+     * activated authenticationIds and the ones that have no user.
+     * @param serverRequest
+     * @return
+     */
+    public Mono<ServerResponse> activateUsers(ServerRequest serverRequest) {
+        LOG.info("activate users by batch of authenticationIds");
+
+        return userService.activateUsers(serverRequest.bodyToMono(String[].class).flatMapMany(Flux::fromArray))
+                .flatMap(activationBatch -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(activationBatch))
+                .onErrorResume(throwable -> {
+                    LOG.error("activate users by batch of authenticationIds failed: {}", throwable.getMessage());
+
+                    return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(Map.of("error", throwable.getMessage()));
+                });
+    }
+
     public Mono<ServerResponse> deleteUser(ServerRequest serverRequest) {
         LOG.info("delete user");
 
@@ -193,7 +401,7 @@ public class UserHandler {
         UUID organizationId = UUID.fromString(uuidString);
 
         return userService.deleteUserData(organizationId)
-                .flatMap(s ->  ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
+                .flatMap(userDataDeletion ->  ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(userDataDeletion))
                 .onErrorResume(throwable -> {
                     LOG.error("delete user failed", throwable);
                     return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
@@ -0,0 +1,17 @@
+package me.sonam.user.handler;
+
+/**
+ * signals that no user exists for a lookup.  The instances are created once without a stack trace or
+ * suppressed exceptions, so a miss costs no exception construction and the instances can be shared.
+ */
+public final class UserNotFoundException extends UserException {
+
+    public static final UserNotFoundException BY_ID = new UserNotFoundException("no user found with id");
+
+    public static final UserNotFoundException BY_AUTHENTICATION_ID =
+            new UserNotFoundException("user not found with authenticationId");
+
+    private UserNotFoundException(String message) {
+        super(message, false);
+    }
+}
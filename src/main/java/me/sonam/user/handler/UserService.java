@@ -1,13 +1,18 @@
 package me.sonam.user.handler;
 
+import me.sonam.user.handler.carrier.ActivationBatch;
+import me.sonam.user.handler.carrier.Availability;
+import me.sonam.user.handler.carrier.BulkSignupResult;
 import me.sonam.user.handler.carrier.User;
-import me.sonam.user.repo.entity.MyUser;
+import me.sonam.user.handler.carrier.UserBatch;
+import me.sonam.user.handler.carrier.UserDataDeletion;
+import me.sonam.user.handler.carrier.UserProfile;
+import me.sonam.user.repo.entity.UserNameMatch;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
 
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -16,15 +21,20 @@ import java.util.UUID;
 public interface UserService {
     //Mono<String> signupUserByAdmin(Mono<UserTransfer> userMono);
     Mono<String> signupUser(Mono<UserTransfer> userMono);
+    Flux<BulkSignupResult> bulkSignup(Flux<UserTransfer> userTransfers);
     Mono<String> updateProfilePhoto(String authenticationId, Mono<ProfilePhotoUpdate> profilePhotoUpdateMono);
     Mono<String> updateUser(String authenticationId, Mono<UserUpdate> userMono);
-    Flux<MyUser> findMatchingName(String firstName, String lastName);
+    Mono<Availability> checkAvailability(String authenticationId, String email);
+    Flux<UserNameMatch> findMatchingName(String firstName, String lastName, NameSearchCursor cursor, int limit,
+                                         boolean ignoreSearchable);
     Mono<String> activateUser(String authenticationId);
+    Mono<ActivationBatch> activateUsers(Flux<String> authenticationIds);
     Mono<String> deleteUser(String authentiationId);
-    Mono<Map<String, Object>> getUserByAuthenticationId(String authenticationId);
-    Mono<Map<String, Object>> getUserByAuthenticationIdForProfileSearch(String authenticationId, boolean ignoreSearchable);
-    Mono<Map<String, Object>> getUserForOidcUserInfo(UUID userId);
+    Mono<UserProfile> getUserByAuthenticationId(String authenticationId);
+    Mono<UserProfile> getUserByAuthenticationIdForProfileSearch(String authenticationId, boolean ignoreSearchable);
+    Mono<UserProfile> getUserForOidcUserInfo(UUID userId);
     Mono<User> getUserById(UUID id);
     Mono<List<User>> getBatchOfUserById(List<UUID> uuids);
-    Mono<String> deleteUserData(UUID organizationId);
+    Mono<UserBatch> getUsersByIds(Flux<UUID> ids);
+    Mono<UserDataDeletion> deleteUserData(UUID organizationId);
 }
@@ -1,10 +1,31 @@
 package me.sonam.user.handler;
 
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import me.sonam.user.cache.MicroBatcher;
+import me.sonam.user.cache.SingleFlight;
+import me.sonam.user.cache.StripedLock;
+import me.sonam.user.cache.AvailabilityFilter;
+import me.sonam.user.cache.UserCache;
+import me.sonam.user.handler.carrier.ActivationBatch;
+import me.sonam.user.handler.carrier.Availability;
+import me.sonam.user.handler.carrier.BulkSignupResult;
 import me.sonam.user.handler.carrier.User;
+import me.sonam.user.handler.carrier.UserBatch;
+import me.sonam.user.handler.carrier.UserDataDeletion;
+import me.sonam.user.handler.carrier.UserProfile;
+import me.sonam.user.outbox.OutboxPasswordCipher;
+import me.sonam.user.repo.SignupOutboxRepository;
+import me.sonam.user.repo.UserBatchInsert;
+import me.sonam.user.repo.UserDataDeletionFailureRepository;
 import me.sonam.user.repo.UserRepository;
 import me.sonam.user.repo.entity.MyUser;
+import me.sonam.user.repo.entity.SignupOutbox;
+import me.sonam.user.repo.entity.SignupStatus;
+import me.sonam.user.repo.entity.UserDataDeletionFailure;
+import me.sonam.user.repo.entity.UserNameMatch;
 import me.sonam.user.util.ProfilePhotoUrl;
 import me.sonam.user.webclient.AccountWebClient;
 import me.sonam.user.webclient.AuthenticationWebClient;
@@ -15,17 +36,27 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * This will add a user entry and call authentication service to create
@@ -40,6 +71,67 @@ public class UserSignupService implements UserService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private UserDataDeletionFailureRepository userDataDeletionFailureRepository;
+
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private AvailabilityFilter availabilityFilter;
+
+    @Autowired
+    private UserBatchInsert userBatchInsert;
+
+    @Value("${bulk-signup.batch-size:500}")
+    private int bulkBatchSize;
+
+    @Value("${bulk-signup.batch-concurrency:2}")
+    private int bulkBatchConcurrency;
+
+    @Value("${bulk-signup.remote-concurrency:16}")
+    private int bulkRemoteConcurrency;
+
+    @Autowired
+    private SignupOutboxRepository signupOutboxRepository;
+
+    @Autowired
+    private TransactionalOperator transactionalOperator;
+
+    @Value("${signup-outbox.enabled:false}")
+    private boolean signupOutboxEnabled;
+
+    @Autowired
+    private OutboxPasswordCipher outboxPasswordCipher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // collapses concurrent repository lookups of the same user into one query
+    private SingleFlight<UUID, MyUser> findByIdFlight;
+    private SingleFlight<String, MyUser> findByAuthenticationIdFlight;
+
+    // serializes signups of the same username or email in this pod, the unique indexes cover the other pods
+    private StripedLock signupLock;
+
+    @Value("${signup-lock.stripes:1024}")
+    private int signupLockStripes;
+
+    // coalesces single activations arriving within the batch window into one update
+    private MicroBatcher<String, Boolean> activationBatcher;
+
+    @Value("${user-activation.max-ids:5000}")
+    private int activationMaxIds;
+
+    @Value("${user-activation.batch-size:500}")
+    private int activationBatchSize;
+
+    @Value("${user-activation.batch-window-millis:5}")
+    private long activationBatchWindowMillis;
+
+    @Value("${user-activation.concurrency:4}")
+    private int activationConcurrency;
+
     //   private WebClient.Builder webClientBuilder;
 
     @Value("${account-rest-service.context}")
@@ -49,6 +141,22 @@ public class UserSignupService implements UserService {
     @Value("${authentication-rest-service.context}")
     private String authenticationEp;
 
+    // parallel or sequential calls to the downstream services when deleting user data
+    @Value("${user-data-deletion.mode:parallel}")
+    private String userDataDeletionMode;
+
+    @Value("${user-data-deletion.deadline-millis:10000}")
+    private long userDataDeletionDeadlineMillis;
+
+    @Value("${user-batch.max-ids:5000}")
+    private int batchMaxIds;
+
+    @Value("${user-batch.chunk-size:500}")
+    private int batchChunkSize;
+
+    @Value("${user-batch.concurrency:4}")
+    private int batchConcurrency;
+
     // @Autowired
     // private ReactiveRequestContextHolder reactiveRequestContextHolder;
     private final AccountWebClient accountWebClient;
@@ -74,15 +182,61 @@ public class UserSignupService implements UserService {
         serviceList.forEach(s -> LOG.info("Found service: {}", s));
     }
 
+    @PostConstruct
+    public void setSingleFlight() {
+        // a lookup that started before an evict is not joined, it may have read the old row
+        findByIdFlight = new SingleFlight<>("findById", userCache::loadStarted, meterRegistry);
+        findByAuthenticationIdFlight = new SingleFlight<>("findByAuthenticationId", userCache::loadStarted, meterRegistry);
+    }
+
+    @PostConstruct
+    public void setSignupLock() {
+        signupLock = new StripedLock("signup", signupLockStripes, meterRegistry);
+    }
+
+    @PostConstruct
+    public void setActivationBatcher() {
+        activationBatcher = new MicroBatcher<>("activation", activationBatchSize,
+                Duration.ofMillis(activationBatchWindowMillis), activationConcurrency, this::activate, meterRegistry);
+    }
+
+    @PreDestroy
+    public void stopActivationBatcher() {
+        activationBatcher.dispose();
+    }
+
+    private Mono<MyUser> findById(UUID id) {
+        return findByIdFlight.execute(id, () -> userRepository.findById(id));
+    }
+
+    // an authenticationId with no user is remembered by the user cache for a short time
+    private Mono<MyUser> findByAuthenticationId(String authenticationId) {
+        return Mono.defer(() -> {
+            if (userCache.isMissingAuthenticationId(authenticationId)) {
+                LOG.debug("authenticationId {} is known to have no user", authenticationId);
+                return Mono.empty();
+            }
+            long loadStarted = userCache.loadStarted();
+            return findByAuthenticationIdFlight.execute(authenticationId.toLowerCase(Locale.ROOT),
+                            () -> userRepository.findByAuthenticationIdIgnoreCase(authenticationId))
+                    .switchIfEmpty(Mono.fromRunnable(() -> userCache.putMissingAuthenticationId(authenticationId, loadStarted)));
+        });
+    }
+
 
     /**
      * First, check if user already exists with authenticaitonId and is active
      * Second,if user is not active with authenticationId then check user, authentication and account was created successfully in a prior call
      * and throw exception if user/authentication/account was already created before
      * Third, verify there is no user with that email already.
+     * These checks are read together in one query with {@link UserRepository#findSignupStatus(String, String)}.
+     * Signups with the same lower-cased authenticationId or email run one at a time, from the checks until the user
+     * is saved and the remote calls are made.  A signup racing on another pod, or a bulk signup, fails on the unique
+     * indexes instead.
      * Then create the user object and save it.
      * Make a rest call to Authentication to save a Authentication data
      * Then make another rest call to Account to save a Account data. On success response set the user UserAuthAccountCreated to true
+     * When signup-outbox.enabled is true the remote calls are not made here, see {@link #signupWithOutbox(UserTransfer)}.
      *
      * @param userMono
      * @return
@@ -92,40 +246,311 @@ public class UserSignupService implements UserService {
         LOG.info("signup user");
 
         return userMono.flatMap(this::validateOnSignup).//thenReturn("User sign up success, checkemail");  //
-                flatMap(userTransfer ->
-
-                userRepository.existsByAuthenticationIdIgnoreCaseAndActiveTrue(userTransfer.getAuthenticationId())
-                        .filter(aBoolean -> !aBoolean)
-                        .switchIfEmpty(Mono.error(new SignupException("User is already active with that username (authenticationId)")))
-                        .flatMap(aBoolean -> userRepository.existsByAuthenticationIdIgnoreCaseAndUserAuthAccountCreatedTrue(userTransfer.getAuthenticationId()))
-                        .filter(aBoolean -> {
-                            LOG.info("aBoolean for findByAuthenticationIdAndUserAuthAccountCreatedTrue is {}", aBoolean);
-
-                            return !aBoolean;
-                        }).switchIfEmpty(Mono.error(new SignupException("User account has already been created for that username, check to activate it by email")))
-                        .flatMap(aBoolean -> userRepository.existsByEmailIgnoreCaseAndActiveTrue(userTransfer.getEmail()))
-                        .filter(aBoolean -> !aBoolean)
-                        .switchIfEmpty(Mono.error(new SignupException("User account is active for that email")))
-                        .flatMap(aBoolean -> userRepository.existsByEmailIgnoreCaseAndUserAuthAccountCreatedTrue(userTransfer.getEmail()))
-                        .filter(aBoolean -> {
-                            LOG.info("aBoolean {}", aBoolean);
-                            return !aBoolean;
-                        }).switchIfEmpty(Mono.error(new SignupException("User account has already been created for that email, check to activate it by email")))
-                        .flatMap(aBoolean -> accountWebClient.deleteAccountByEmail(userTransfer.getEmail()))
-                        .flatMap(s -> authenticationWebClient.deleteByAuthenticationId(userTransfer.getAuthenticationId()))
-                        .flatMap(string -> userRepository.deleteByAuthenticationIdIgnoreCaseAndUserAuthAccountCreatedFalse(userTransfer.getAuthenticationId()))
-                        //just delete rows with email and account created is in false - meaning not fully created
-                        .flatMap(rows -> userRepository.deleteByEmailIgnoreCaseAndUserAuthAccountCreatedFalse(userTransfer.getEmail()))
-                        .flatMap(integer -> Mono.just(new MyUser(userTransfer.getFirstName(), userTransfer.getLastName(),
-                                userTransfer.getEmail(), userTransfer.getAuthenticationId(), userTransfer.isActive())))
-                        .flatMap(myUser -> userRepository.save(myUser))
-                        .flatMap(myUser ->
-                                authenticationWebClient.create(userTransfer.getAuthenticationId(), userTransfer.getPassword(), myUser.getId(), myUser.getActive())
-                                        .then(accountWebClient.createAccount(myUser.getFirstName() + " " + myUser.getLastName(),
-                                                userTransfer.getAuthenticationId(), myUser.getId(),
-                                                userTransfer.getEmail(), myUser.getActive(),
-                                                userTransfer.getPassword() != null && !userTransfer.getPassword().isEmpty(),
-                                                userTransfer.getActivationHost()))));
+                flatMap(userTransfer -> signupLock.withLock(() ->
+
+                userRepository.findSignupStatus(userTransfer.getAuthenticationId(), userTransfer.getEmail())
+                        .flatMap(signupStatus -> {
+                            LOG.info("signupStatus for authenticationId and email is {}", signupStatus);
+
+                            String rejection = signupRejection(signupStatus);
+                            if (rejection != null) {
+                                return Mono.error(new SignupException(rejection));
+                            }
+                            if (signupOutboxEnabled) {
+                                return signupWithOutbox(userTransfer);
+                            }
+                            return accountWebClient.deleteAccountByEmail(userTransfer.getEmail())
+                                    .flatMap(s -> signupWithRemoteCalls(userTransfer));
+                        }),
+                        userTransfer.getAuthenticationId().toLowerCase(Locale.ROOT), userTransfer.getEmail().toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * @return why a signup is not allowed for the existing users, or null when it is
+     */
+    private static String signupRejection(SignupStatus signupStatus) {
+        if (signupStatus.authenticationIdActive()) {
+            return "User is already active with that username (authenticationId)";
+        }
+        if (signupStatus.authenticationIdAccountCreated()) {
+            return "User account has already been created for that username, check to activate it by email";
+        }
+        if (signupStatus.emailActive()) {
+            return "User account is active for that email";
+        }
+        if (signupStatus.emailAccountCreated()) {
+            return "User account has already been created for that email, check to activate it by email";
+        }
+        return null;
+    }
+
+    private static String signedUpMessage(boolean active) {
+        if (active) {
+            return "Account is being created.  Ask the user to check their email to reset their password";
+        }
+        return "Account is being created.  Check email for activating account";
+    }
+
+    private Mono<String> signupWithRemoteCalls(UserTransfer userTransfer) {
+        return authenticationWebClient.deleteByAuthenticationId(userTransfer.getAuthenticationId())
+                .flatMap(string -> userRepository.deleteByAuthenticationIdIgnoreCaseAndUserAuthAccountCreatedFalse(userTransfer.getAuthenticationId()))
+                //just delete rows with email and account created is in false - meaning not fully created
+                .flatMap(rows -> userRepository.deleteByEmailIgnoreCaseAndUserAuthAccountCreatedFalse(userTransfer.getEmail()))
+                .flatMap(integer -> Mono.just(new MyUser(userTransfer.getFirstName(), userTransfer.getLastName(),
+                        userTransfer.getEmail(), userTransfer.getAuthenticationId(), userTransfer.isActive())))
+                .flatMap(myUser -> userRepository.save(myUser))
+                .onErrorMap(DuplicateKeyException.class, UserSignupService::signupConflict)
+                // drops the replaced user and a remembered miss of the authenticationId
+                .doOnNext(myUser -> {
+                    userCache.evictByAuthenticationId(myUser.getAuthenticationId());
+                    availabilityFilter.add(myUser.getAuthenticationId(), myUser.getEmail());
+                })
+                .flatMap(myUser ->
+                        authenticationWebClient.create(userTransfer.getAuthenticationId(), userTransfer.getPassword(), myUser.getId(), myUser.getActive())
+                                .then(accountWebClient.createAccount(myUser.getFirstName() + " " + myUser.getLastName(),
+                                        userTransfer.getAuthenticationId(), myUser.getId(),
+                                        userTransfer.getEmail(), myUser.getActive(),
+                                        userTransfer.getPassword() != null && !userTransfer.getPassword().isEmpty(),
+                                        userTransfer.getActivationHost()))
+                                .doOnSuccess(s -> userCache.evict(myUser.getId())));
+    }
+
+    /**
+     * @return outbox row of the user with the password encrypted
+     */
+    private SignupOutbox signupOutbox(MyUser myUser, UserTransfer userTransfer) {
+        return new SignupOutbox(myUser, outboxPasswordCipher.encrypt(userTransfer.getPassword()),
+                userTransfer.getPassword() != null && !userTransfer.getPassword().isEmpty(), userTransfer.getActivationHost());
+    }
+
+    /**
+     * Replaces rows left by an earlier unfinished signup and saves the user with a {@link SignupOutbox} row in one
+     * transaction.  The cleanup of remote records and the authentication and account calls are made later by the
+     * {@link me.sonam.user.outbox.SignupOutboxDispatcher}.
+     */
+    private Mono<String> signupWithOutbox(UserTransfer userTransfer) {
+        return userRepository.deleteByAuthenticationIdIgnoreCaseAndUserAuthAccountCreatedFalse(userTransfer.getAuthenticationId())
+                .then(userRepository.deleteByEmailIgnoreCaseAndUserAuthAccountCreatedFalse(userTransfer.getEmail()))
+                .then(Mono.defer(() -> userRepository.save(new MyUser(userTransfer.getFirstName(), userTransfer.getLastName(),
+                        userTransfer.getEmail(), userTransfer.getAuthenticationId(), userTransfer.isActive()))))
+                .flatMap(myUser -> signupOutboxRepository.save(signupOutbox(myUser, userTransfer)))
+                .as(transactionalOperator::transactional)
+                .onErrorMap(DuplicateKeyException.class, UserSignupService::signupConflict)
+                // drops the replaced user and a remembered miss of the authenticationId once committed
+                .doOnNext(signupOutbox -> {
+                    userCache.evictByAuthenticationId(signupOutbox.getAuthenticationId());
+                    availabilityFilter.add(signupOutbox.getAuthenticationId(), signupOutbox.getEmail());
+                })
+                .map(signupOutbox -> {
+                    LOG.info("saved user and signup outbox for authenticationId: {}", signupOutbox.getAuthenticationId());
+                    return signedUpMessage(signupOutbox.getActive());
+                });
+    }
+
+    // another pod saved a user with the same username or email between the signup checks and the insert
+    private static SignupException signupConflict(DuplicateKeyException e) {
+        LOG.warn("signup lost a race for the username or email: {}", e.getMessage());
+        return new SignupException("User account is being created for that username or email");
+    }
+
+    /**
+     * Signs up many users.  Each user is validated with {@link #validateOnSignup(UserTransfer)} and a user repeating
+     * the username or email of an earlier user in the request is rejected.  The users are then handled in batches of
+     * bulk-signup.batch-size, bulk-signup.batch-concurrency batches at a time:
+     * the signup checks of the whole batch are read in one query, the remote records of replaced signups are
+     * deleted, the unfinished signups are deleted and the users written with one multi-row insert in a transaction,
+     * and the authentication and account records are created.  The remote calls are made
+     * bulk-signup.remote-concurrency at a time.  When signup-outbox.enabled is true the outbox rows are written
+     * with the users and the remote calls left to the dispatcher.
+     * Bulk signups do not take the signup lock, which would hold up to two stripes a user for the whole batch.
+     * A concurrent signup of the same username or email, on this pod or another, is kept out by the unique
+     * lower-cased username and email indexes of V8, on H2 as well as Postgres.  A batch whose insert hits them
+     * saves its users one by one, and the users that still conflict fail.
+     * @return a result for every user as its batch finishes, not in request order
+     */
+    @Override
+    public Flux<BulkSignupResult> bulkSignup(Flux<UserTransfer> userTransfers) {
+        LOG.info("bulk signup users");
+
+        return Flux.defer(() -> {
+            // lower-cased names of the earlier users in the request
+            Set<String> names = new HashSet<>();
+
+            return userTransfers.index()
+                    .concatMap(indexed -> validateBulkRow(new BulkRow(indexed.getT1(), indexed.getT2()), names))
+                    .buffer(bulkBatchSize)
+                    .flatMap(rows -> Mono.just(rows)
+                            .flatMap(batch -> pending(batch, this::checkBulk))
+                            .flatMap(batch -> signupOutboxEnabled ? Mono.just(batch) : pending(batch, this::cleanupBulk))
+                            .flatMap(batch -> pending(batch, this::saveBulk))
+                            .flatMap(batch -> signupOutboxEnabled ? Mono.just(batch) : pending(batch, this::createBulk))
+                            .flatMapIterable(batch -> batch), bulkBatchConcurrency)
+                    .map(BulkRow::result);
+        });
+    }
+
+    private Mono<BulkRow> validateBulkRow(BulkRow row, Set<String> names) {
+        UserTransfer userTransfer = row.userTransfer();
+        if (userTransfer == null || userTransfer.getFirstName() == null || userTransfer.getLastName() == null
+                || userTransfer.getEmail() == null || userTransfer.getAuthenticationId() == null) {
+            return Mono.just(row.failed("firstName, lastName, email and authenticationId are required"));
+        }
+
+        return validateOnSignup(userTransfer)
+                .map(valid -> {
+                    if (!names.add("a:" + row.authenticationIdKey()) | !names.add("e:" + row.emailKey())) {
+                        return row.failed("username or email is repeated in this request");
+                    }
+                    return row;
+                })
+                .onErrorResume(throwable -> Mono.just(row.failed(throwable.getMessage())));
+    }
+
+    // runs the stage on the rows of the batch that have not failed or finished yet
+    private Mono<List<BulkRow>> pending(List<BulkRow> rows, Function<List<BulkRow>, Mono<List<BulkRow>>> stage) {
+        List<BulkRow> pending = rows.stream().filter(BulkRow::pending).toList();
+        if (pending.isEmpty()) {
+            return Mono.just(rows);
+        }
+
+        return stage.apply(pending).map(processed -> {
+            List<BulkRow> batch = new ArrayList<>(rows.size());
+            rows.stream().filter(row -> !row.pending()).forEach(batch::add);
+            batch.addAll(processed);
+            return batch;
+        });
+    }
+
+    private Mono<List<BulkRow>> checkBulk(List<BulkRow> rows) {
+        return userRepository.findSignupStates(keys(rows, BulkRow::authenticationIdKey), keys(rows, BulkRow::emailKey))
+                .collectList()
+                .map(states -> rows.stream().map(row -> {
+                    SignupStatus signupStatus = new SignupStatus(
+                            states.stream().anyMatch(state -> row.authenticationIdKey().equals(state.authenticationId())
+                                    && Boolean.TRUE.equals(state.active())),
+                            states.stream().anyMatch(state -> row.authenticationIdKey().equals(state.authenticationId())
+                                    && Boolean.TRUE.equals(state.userAuthAccountCreated())),
+                            states.stream().anyMatch(state -> row.emailKey().equals(state.email())
+                                    && Boolean.TRUE.equals(state.active())),
+                            states.stream().anyMatch(state -> row.emailKey().equals(state.email())
+                                    && Boolean.TRUE.equals(state.userAuthAccountCreated())));
+                    String rejection = signupRejection(signupStatus);
+                    return rejection == null ? row : row.failed(rejection);
+                }).toList());
+    }
+
+    private Mono<List<BulkRow>> cleanupBulk(List<BulkRow> rows) {
+        return Flux.fromIterable(rows)
+                .flatMap(row -> accountWebClient.deleteAccountByEmail(row.userTransfer().getEmail())
+                        .then(authenticationWebClient.deleteByAuthenticationId(row.userTransfer().getAuthenticationId()))
+                        .thenReturn(row)
+                        .onErrorResume(throwable -> Mono.just(row.failed(throwable.getMessage()))), bulkRemoteConcurrency)
+                .collectList();
+    }
+
+    private Mono<List<BulkRow>> saveBulk(List<BulkRow> rows) {
+        List<BulkRow> saved = rows.stream().map(row -> row.saved(newUser(row.userTransfer()))).toList();
+        List<MyUser> myUsers = saved.stream().map(BulkRow::myUser).toList();
+
+        return userRepository.deleteUnfinishedSignups(keys(rows, BulkRow::authenticationIdKey), keys(rows, BulkRow::emailKey))
+                .then(userBatchInsert.insert(myUsers))
+                .then(signupOutboxEnabled ? signupOutboxRepository.saveAll(saved.stream()
+                        .map(row -> signupOutbox(row.myUser(), row.userTransfer())).toList()).then()
+                        : Mono.empty())
+                .as(transactionalOperator::transactional)
+                .thenReturn(saved)
+                .onErrorResume(DuplicateKeyException.class, e -> {
+                    LOG.warn("bulk signup batch hit a concurrent signup, save the users one by one: {}", e.getMessage());
+                    return Flux.fromIterable(rows).concatMap(this::saveBulkRow).collectList();
+                })
+                .map(batch -> batch.stream().map(row -> {
+                    if (!row.pending()) {
+                        return row;
+                    }
+                    userCache.evictByAuthenticationId(row.myUser().getAuthenticationId());
+                    availabilityFilter.add(row.myUser().getAuthenticationId(), row.myUser().getEmail());
+                    return signupOutboxEnabled ? row.done(signedUpMessage(row.myUser().getActive())) : row;
+                }).toList());
+    }
+
+    private Mono<BulkRow> saveBulkRow(BulkRow row) {
+        UserTransfer userTransfer = row.userTransfer();
+        MyUser myUser = newUser(userTransfer);
+
+        return userRepository.deleteByAuthenticationIdIgnoreCaseAndUserAuthAccountCreatedFalse(userTransfer.getAuthenticationId())
+                .then(userRepository.deleteByEmailIgnoreCaseAndUserAuthAccountCreatedFalse(userTransfer.getEmail()))
+                .then(userRepository.save(myUser))
+                .flatMap(savedUser -> signupOutboxEnabled ? signupOutboxRepository.save(signupOutbox(savedUser, userTransfer))
+                        .thenReturn(savedUser) : Mono.just(savedUser))
+                .as(transactionalOperator::transactional)
+                .map(row::saved)
+                .onErrorResume(DuplicateKeyException.class, e -> Mono.just(row.failed(signupConflict(e).getMessage())));
+    }
+
+    private Mono<List<BulkRow>> createBulk(List<BulkRow> rows) {
+        return Flux.fromIterable(rows)
+                .flatMap(row -> {
+                    MyUser myUser = row.myUser();
+                    UserTransfer userTransfer = row.userTransfer();
+
+                    return authenticationWebClient.create(myUser.getAuthenticationId(), userTransfer.getPassword(),
+                                    myUser.getId(), myUser.getActive())
+                            .then(accountWebClient.createAccount(myUser.getFirstName() + " " + myUser.getLastName(),
+                                    myUser.getAuthenticationId(), myUser.getId(), myUser.getEmail(), myUser.getActive(),
+                                    userTransfer.getPassword() != null && !userTransfer.getPassword().isEmpty(),
+                                    userTransfer.getActivationHost()))
+                            .doOnSuccess(s -> userCache.evict(myUser.getId()))
+                            .map(row::done)
+                            .onErrorResume(throwable -> Mono.just(row.failed(throwable.getMessage())));
+                }, bulkRemoteConcurrency)
+                .collectList();
+    }
+
+    private static MyUser newUser(UserTransfer userTransfer) {
+        return new MyUser(userTransfer.getFirstName(), userTransfer.getLastName(), userTransfer.getEmail(),
+                userTransfer.getAuthenticationId(), userTransfer.isActive());
+    }
+
+    private static Set<String> keys(List<BulkRow> rows, Function<BulkRow, String> key) {
+        return rows.stream().map(key).collect(Collectors.toSet());
+    }
+
+    /**
+     * a user of a bulk signup as it moves through the stages, it is pending until it gets a message or an error
+     */
+    private record BulkRow(long index, UserTransfer userTransfer, MyUser myUser, String message, String error) {
+        BulkRow(long index, UserTransfer userTransfer) {
+            this(index, userTransfer, null, null, null);
+        }
+
+        boolean pending() {
+            return message == null && error == null;
+        }
+
+        String authenticationIdKey() {
+            return userTransfer.getAuthenticationId().toLowerCase(Locale.ROOT);
+        }
+
+        String emailKey() {
+            return userTransfer.getEmail().toLowerCase(Locale.ROOT);
+        }
+
+        BulkRow saved(MyUser savedUser) {
+            return new BulkRow(index, userTransfer, savedUser, null, null);
+        }
+
+        BulkRow done(String doneMessage) {
+            return new BulkRow(index, userTransfer, myUser, doneMessage == null ? "" : doneMessage, null);
+        }
+
+        BulkRow failed(String failure) {
+            return new BulkRow(index, userTransfer, myUser, null, failure == null ? "signup failed" : failure);
+        }
+
+        BulkSignupResult result() {
+            return new BulkSignupResult(index, userTransfer == null ? null : userTransfer.getAuthenticationId(),
+                    error == null && myUser != null ? myUser.getId() : null, message, error);
+        }
     }
 
     private Mono<UserTransfer> validateOnSignup(UserTransfer userTransfer) {
@@ -178,7 +603,10 @@ public class UserSignupService implements UserService {
                                     return Mono.error(new UserException("profilePhoto value is empty"));
                                 }
                                 return userRepository.updateProfilePhotoByAuthenticationId(
-                                        profilePhotoUpdate.getProfilePhoto(), authenticationId);
+                                        profilePhotoUpdate.getProfilePhoto(),
+                                                ProfilePhotoUrl.getProfileUrl(profilePhotoUpdate.getProfilePhoto()),
+                                                authenticationId)
+                                        .doOnSuccess(rows -> userCache.evict(myUser.getId()));
 
 
                             })
@@ -186,6 +614,27 @@ public class UserSignupService implements UserService {
         });
     }
 
+    /**
+     * tells whether a new signup can use the authenticationId and email.  Names no user has are answered by the
+     * {@link AvailabilityFilter}, the others with an indexed query.
+     * @param authenticationId null when not asked about
+     * @param email null when not asked about
+     */
+    @Override
+    public Mono<Availability> checkAvailability(String authenticationId, String email) {
+        LOG.debug("check availability of authenticationId: {}, email: {}", authenticationId, email);
+
+        Mono<Optional<Boolean>> authenticationIdAvailable = authenticationId == null ? Mono.just(Optional.empty())
+                : availabilityFilter.authenticationIdTaken(authenticationId, userRepository::existsTakenAuthenticationId)
+                .map(taken -> Optional.of(!taken));
+        Mono<Optional<Boolean>> emailAvailable = email == null ? Mono.just(Optional.empty())
+                : availabilityFilter.emailTaken(email, userRepository::existsTakenEmail)
+                .map(taken -> Optional.of(!taken));
+
+        return Mono.zip(authenticationIdAvailable, emailAvailable)
+                .map(objects -> new Availability(objects.getT1().orElse(null), objects.getT2().orElse(null)));
+    }
+
     /**
      * this will update the user firstname, lastname and searcable fields only.  It will not update the email or profilePhoto. For profilePhoto property there
      * is another endpoint to handle this.
@@ -203,6 +652,7 @@ public class UserSignupService implements UserService {
                              .flatMap(myUser ->
                                      userRepository.updateFirstNameAndLastNameAndSearchableByAuthenticationId(userUpdate.getFirstName(), userUpdate.getLastName(),
                                              userUpdate.isSearchable(), userUpdate.getAuthenticationId())
+                                             .doOnSuccess(rows -> userCache.evict(myUser.getId()))
                              )
                              .thenReturn("user firstname, lastname and email updated");
         });
@@ -215,20 +665,83 @@ public class UserSignupService implements UserService {
         return userRepository.findByAuthenticationId(authenticationId);
     }*/
 
+    /**
+     * find a page of users whose first and last names contain the given words, ignoring case.  Users whose names
+     * start with the words are returned first.  Users that turned off searchable are left out unless
+     * ignoreSearchable is set.
+     * @param cursor position after which this page starts, {@link NameSearchCursor#FIRST} for the first page
+     * @param limit page size
+     */
     @Override
-    public Flux<MyUser> findMatchingName(String firstName, String lastName) {
+    public Flux<UserNameMatch> findMatchingName(String firstName, String lastName, NameSearchCursor cursor, int limit,
+                                                boolean ignoreSearchable) {
         LOG.info("find user with firstName and lastName: '{}' '{}'", firstName, lastName);
-        return userRepository.findByFirstNameContainingIgnoreCaseAndLastNameContainingIgnoreCase(firstName, lastName);
+        final String firstNameLike = escapeLike(firstName.toLowerCase(Locale.ROOT));
+        final String lastNameLike = escapeLike(lastName.toLowerCase(Locale.ROOT));
+
+        return userRepository.findNameMatches("%" + firstNameLike + "%", "%" + lastNameLike + "%",
+                firstNameLike + "%", lastNameLike + "%", ignoreSearchable,
+                cursor.rank(), cursor.firstNameKey(), cursor.lastNameKey(), cursor.id(),
+                limit);
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
     @Override
     public Mono<String> activateUser(String authenticationId) {
         LOG.info("activate user");
 
-        return userRepository.updateUserActiveTrue(authenticationId)
+        return activationBatcher.submit(authenticationId.toLowerCase(Locale.ROOT))
                 .thenReturn("activated: "+authenticationId);
     }
 
+    /**
+     * Activates the users with the authenticationIds, ignoring case, with 'in' updates of at most
+     * user-activation.batch-size ids running up to user-activation.concurrency at a time.  Duplicate ids are
+     * activated once.
+     */
+    @Override
+    public Mono<ActivationBatch> activateUsers(Flux<String> authenticationIds) {
+        return authenticationIds.collect(LinkedHashMap<String, String>::new,
+                        (ids, authenticationId) -> ids.putIfAbsent(authenticationId.toLowerCase(Locale.ROOT), authenticationId))
+                .flatMap(ids -> {
+                    if (ids.size() > activationMaxIds) {
+                        return Mono.error(new UserException("batch has " + ids.size() +
+                                " authenticationIds, only " + activationMaxIds + " are allowed"));
+                    }
+                    LOG.info("activate users by batch of {} authenticationIds", ids.size());
+
+                    List<String> keys = new ArrayList<>(ids.keySet());
+                    return Flux.range(0, (keys.size() + activationBatchSize - 1) / activationBatchSize)
+                            .map(chunk -> new LinkedHashSet<>(keys.subList(chunk * activationBatchSize,
+                                    Math.min(keys.size(), (chunk + 1) * activationBatchSize))))
+                            .flatMap(this::activate, activationConcurrency)
+                            .collect(HashSet<String>::new, (activated, chunk) -> activated.addAll(chunk.keySet()))
+                            .map(activated -> {
+                                List<String> activatedIds = new ArrayList<>(activated.size());
+                                List<String> missingIds = new ArrayList<>();
+
+                                ids.forEach((key, authenticationId) ->
+                                        (activated.contains(key) ? activatedIds : missingIds).add(authenticationId));
+                                return new ActivationBatch(activatedIds, missingIds);
+                            });
+                });
+    }
+
+    /**
+     * sets active on the users of the lower-cased authenticationIds with one update
+     * @return the authenticationIds that have a user
+     */
+    private Mono<Map<String, Boolean>> activate(Set<String> lowerCaseAuthenticationIds) {
+        return userRepository.updateUsersActiveTrue(lowerCaseAuthenticationIds)
+                .thenMany(userRepository.findAuthenticationIds(lowerCaseAuthenticationIds))
+                .collectMap(authenticationId -> authenticationId, authenticationId -> true)
+                .as(transactionalOperator::transactional)
+                .doOnNext(activated -> activated.keySet().forEach(userCache::evictByAuthenticationId));
+    }
+
     @Override
     public Mono<String> deleteUser(String authenticationId) {
         LOG.info("delete user if it's active status is false");
@@ -236,12 +749,13 @@ public class UserSignupService implements UserService {
         return userRepository.findByAuthenticationIdIgnoreCase(authenticationId)
                 .filter(myUser -> !myUser.getActive())
                 .switchIfEmpty(Mono.error(new UserException("user is active, cannot delete")))
-                .flatMap(myUser ->   userRepository.deleteByAuthenticationIdIgnoreCaseAndActiveFalse(authenticationId))
+                .flatMap(myUser ->   userRepository.deleteByAuthenticationIdIgnoreCaseAndActiveFalse(authenticationId)
+                        .doOnSuccess(rows -> userCache.evict(myUser.getId())))
                 .thenReturn("deleted: " + authenticationId);
     }
 
     @Override
-    public Mono<String> deleteUserData(UUID organizationId) {
+    public Mono<UserDataDeletion> deleteUserData(UUID organizationId) {
         LOG.info("delete my account");
 
         return ReactiveSecurityContextHolder.getContext().flatMap(securityContext -> {
@@ -260,61 +774,97 @@ public class UserSignupService implements UserService {
                     .switchIfEmpty(Mono.error(new UserException("no user found with userId: " + userId)))
                     .flatMap(myUser -> {
                         LOG.info("delete user from repository {}", myUser.getId());
-                        return userRepository.deleteById(userId).thenReturn(Mono.just("user deleted by id"));
+                        return userRepository.deleteById(userId)
+                                .doOnSuccess(unused -> userCache.evict(userId))
+                                .thenReturn(Mono.just("user deleted by id"));
                     })
+                    .flatMap(unused -> deleteDownstreamUserData(organizationId, userId));
+        });
+    }
 
-                    .flatMap(unused -> {
-                        //LOG.info("delete account {}", unused);
-                        return accountWebClient.deleteUserData(userId);
-                    })
-                    .then(authenticationWebClient.deleteUserData(userId))
-                    .then(organizationWebClient.deleteUserData(organizationId, userId))
-                    .then(roleWebClient.deleteUserData(organizationId, userId))
-                    .thenReturn("delete my account success for user id: " + userId);
+    /**
+     * Deletes the user data in the account, authentication, organization and role services.  In 'parallel' mode
+     * the four calls are made at the same time, in 'sequential' mode one after the other.  All calls share one
+     * deadline of user-data-deletion.deadline-millis.  A failed call does not stop the others, it is saved as a
+     * {@link UserDataDeletionFailure}, which the {@link me.sonam.user.outbox.UserDataDeletionRetrier} retries.
+     */
+    private Mono<UserDataDeletion> deleteDownstreamUserData(UUID organizationId, UUID userId) {
+        Map<String, Mono<?>> deletions = new LinkedHashMap<>();
+        deletions.put("account", Mono.defer(() -> accountWebClient.deleteUserData(userId)));
+        deletions.put("authentication", Mono.defer(() -> authenticationWebClient.deleteUserData(userId)));
+        deletions.put("organization", Mono.defer(() -> organizationWebClient.deleteUserData(organizationId, userId)));
+        deletions.put("role", Mono.defer(() -> roleWebClient.deleteUserData(organizationId, userId)));
+
+        final int concurrency = "sequential".equals(userDataDeletionMode) ? 1 : deletions.size();
+
+        return Mono.defer(() -> {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(userDataDeletionDeadlineMillis);
+
+            return Flux.fromIterable(deletions.entrySet())
+                    .flatMapSequential(deletion -> deletion.getValue()
+                            .timeout(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())))
+                            .then(Mono.just(Map.entry(deletion.getKey(), "deleted")))
+                            .onErrorResume(throwable -> {
+                                LOG.error("delete user data in {} service failed for userId: {}, error: {}",
+                                        deletion.getKey(), userId, throwable.getMessage());
+
+                                return userDataDeletionFailureRepository.save(new UserDataDeletionFailure(userId,
+                                                organizationId, deletion.getKey(), throwable.toString()))
+                                        .onErrorResume(saveError -> {
+                                            LOG.error("failed to record user data deletion failure", saveError);
+                                            return Mono.empty();
+                                        })
+                                        .thenReturn(Map.entry(deletion.getKey(), "failed"));
+                            }), concurrency)
+                    .collect(LinkedHashMap<String, String>::new, (map, outcome) -> map.put(outcome.getKey(), outcome.getValue()))
+                    .map(services -> {
+                        List<String> failedServices = services.entrySet().stream()
+                                .filter(entry -> !entry.getValue().equals("deleted")).map(Map.Entry::getKey).toList();
+
+                        final String message = failedServices.isEmpty()
+                                ? "delete my account success for user id: " + userId
+                                : "delete my account incomplete for user id: " + userId + ", will retry " + failedServices;
+                        return new UserDataDeletion(message, userId, services, failedServices);
+                    });
         });
     }
 
     @Override
-    public Mono<Map<String, Object>> getUserByAuthenticationId(String authenticationId) {
+    public Mono<UserProfile> getUserByAuthenticationId(String authenticationId) {
         LOG.info("get user information for authenticationId: {}", authenticationId);
 
-        return userRepository.findByAuthenticationIdIgnoreCase(authenticationId)
-                .switchIfEmpty(Mono.error(new SignupException("user not found with authenticationId: "+
-                        authenticationId)))
-                .switchIfEmpty(Mono.error(new UserException("user searchable is turned off")))
+        return Mono.defer(() -> {
+            long loadStarted = userCache.loadStarted();
+            return findByAuthenticationId(authenticationId)
+                    .switchIfEmpty(Mono.error(UserNotFoundException.BY_AUTHENTICATION_ID))
+                    .switchIfEmpty(Mono.error(new UserException("user searchable is turned off")))
+                    // keeps the version of the user in the cache for conditional gets
+                    .doOnNext(myUser -> userCache.put(User.of(myUser), loadStarted));
+        })
                 .map(myUser -> {
-                    Map<String, Object> map = new HashMap<>();
-                    map.put("id", myUser.getId().toString());
-                    map.put("firstName", myUser.getFirstName());
-                    map.put("lastName", myUser.getLastName());
-                    map.put("email", myUser.getEmail());
-                    if (myUser.getProfilePhoto() != null && !myUser.getProfilePhoto().isEmpty()) {
+                    if (myUser.getThumbnailUrl() != null) {
+                        return UserProfile.of(myUser, myUser.getThumbnailUrl());
+                    }
+                    else if (myUser.getProfilePhoto() != null && !myUser.getProfilePhoto().isEmpty()) {
+                        // row not filled by the ThumbnailUrlBackfill yet
                         final String thumbnailUrl = ProfilePhotoUrl.getProfileUrl(myUser.getProfilePhoto());
-                        LOG.info("set profilePhoto url : '{}'", thumbnailUrl);
-                        map.put("profilePhoto", thumbnailUrl);
+                        LOG.debug("set profilePhoto url : '{}'", thumbnailUrl);
+                        return UserProfile.of(myUser, thumbnailUrl);
                     }
                     else {
-                        LOG.info("put empty string for profilePhoto as myUser.profilePhoto is null or empty: '{}'",
+                        LOG.debug("put empty string for profilePhoto as myUser.profilePhoto is null or empty: '{}'",
                                 myUser.getProfilePhoto());
-                        map.put("profilePhoto", "");
-                    }
-
-                    map.put("authenticationId", myUser.getAuthenticationId());
-                    DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
-                    if (myUser.getBirthDate() != null) {
-                        map.put("dateOfBirth", dateFormat.format(myUser.getBirthDate()));
+                        return UserProfile.of(myUser, "");
                     }
-                    return map;
                 });
     }
 
     @Override
-    public Mono<Map<String, Object>> getUserByAuthenticationIdForProfileSearch(String authenticationId, boolean ignoreSearchable) {
+    public Mono<UserProfile> getUserByAuthenticationIdForProfileSearch(String authenticationId, boolean ignoreSearchable) {
         LOG.info("profile search user information for authenticationId: {}", authenticationId);
 
-        return userRepository.findByAuthenticationIdIgnoreCase(authenticationId)
-                .switchIfEmpty(Mono.error(new SignupException("user not found with authenticationId: "+
-                        authenticationId)))
+        return findByAuthenticationId(authenticationId)
+                .switchIfEmpty(Mono.error(UserNotFoundException.BY_AUTHENTICATION_ID))
                 .filter(myUser -> {
                     LOG.debug("ignoreSearchable {}", ignoreSearchable);
                     if (!ignoreSearchable) { //honor user's request to searchable setting
@@ -331,42 +881,16 @@ public class UserSignupService implements UserService {
                 })
               //  .filter(myUser -> myUser.getSearchable() != null && myUser.getSearchable())
                 .switchIfEmpty(Mono.error(new UserException("user searchable is turned off")))
-                .map(myUser -> {
-                    Map<String, Object> map = new HashMap<>();
-                    map.put("id", myUser.getId().toString());
-                    map.put("firstName", myUser.getFirstName());
-                    map.put("lastName", myUser.getLastName());
-                    map.put("email", myUser.getEmail());
-                    map.put("profilePhoto", myUser.getProfilePhoto());
-                    map.put("authenticationId", myUser.getAuthenticationId());
-                    DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
-                    if (myUser.getBirthDate() != null) {
-                        map.put("dateOfBirth", dateFormat.format(myUser.getBirthDate()));
-                    }
-                    return map;
-                });
+                .map(myUser -> UserProfile.of(myUser, myUser.getProfilePhoto()));
     }
 
     @Override
-    public Mono<Map<String, Object>> getUserForOidcUserInfo(UUID userId) {
+    public Mono<UserProfile> getUserForOidcUserInfo(UUID userId) {
         LOG.info("get user information for userId: {}", userId);
 
-        return userRepository.findById(userId)
-                .switchIfEmpty(Mono.error(new SignupException("user not found with userId: "+
-                        userId))).map(myUser -> {
-                    Map<String, Object> map = new HashMap<>();
-                    map.put("id", myUser.getId().toString());
-                    map.put("firstName", myUser.getFirstName());
-                    map.put("lastName", myUser.getLastName());
-                    map.put("email", myUser.getEmail());
-                    map.put("profilePhoto", myUser.getProfilePhoto());
-                    map.put("authenticationId", myUser.getAuthenticationId());
-                    DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
-                    if (myUser.getBirthDate() != null) {
-                        map.put("dateOfBirth", dateFormat.format(myUser.getBirthDate()));
-                    }
-                    return map;
-                });
+        return findById(userId)
+                .switchIfEmpty(Mono.error(UserNotFoundException.BY_ID))
+                .map(myUser -> UserProfile.of(myUser, myUser.getProfilePhoto()));
     }
 
 
@@ -374,28 +898,64 @@ public class UserSignupService implements UserService {
     public Mono<User> getUserById(UUID id) {
         LOG.info("get user by id: {}", id);
 
-        return userRepository.findById(id).switchIfEmpty(Mono.error(new UserException("no user with id: "+ id)))
+        return userCache.getUserById(id, uuid -> findById(uuid)
                 .map(myUser -> {
                     LOG.info("found myUser: {}", myUser);
-                    User user = new User(myUser.getId(), myUser.getFirstName(),
-                            myUser.getLastName(), myUser.getEmail(), myUser.getAuthenticationId(), myUser.getActive(),
-                            myUser.getUserAuthAccountCreated(), myUser.getSearchable(), myUser.getProfilePhoto());
+                    User user = User.of(myUser);
 
                     LOG.info("user to return: {}", user);
                     return user;
-                });
-
+                }))
+                .switchIfEmpty(Mono.error(UserNotFoundException.BY_ID));
     }
 
     @Override
     public Mono<List<User>> getBatchOfUserById(List<UUID> uuids) {
         LOG.info("get user by batch of ids");
 
-        return userRepository.findByIdIn(uuids).map(myUser -> new User(myUser.getId(), myUser.getFirstName(), myUser.getLastName(),
-                myUser.getEmail(), myUser.getAuthenticationId(), myUser.getActive(),
-                myUser.getUserAuthAccountCreated(), myUser.getSearchable(), myUser.getProfilePhoto())).collectList();
+        return getUsersByIds(Flux.fromIterable(uuids)).map(UserBatch::users);
+    }
+
+    /**
+     * Reads the users for the ids with 'in' queries of at most user-batch.chunk-size ids, running up to
+     * user-batch.concurrency queries at a time.  Duplicate ids are read once and the users are returned in the
+     * order their ids first appear.
+     */
+    @Override
+    public Mono<UserBatch> getUsersByIds(Flux<UUID> ids) {
+        return ids.collect(LinkedHashSet<UUID>::new, Set::add)
+                .flatMap(uniqueIds -> {
+                    if (uniqueIds.size() > batchMaxIds) {
+                        return Mono.error(new UserException("batch has " + uniqueIds.size() +
+                                " ids, only " + batchMaxIds + " are allowed"));
+                    }
+                    LOG.info("get users by batch of {} ids", uniqueIds.size());
+
+                    List<UUID> idList = new ArrayList<>(uniqueIds);
+                    return Flux.range(0, (idList.size() + batchChunkSize - 1) / batchChunkSize)
+                            .map(chunk -> idList.subList(chunk * batchChunkSize,
+                                    Math.min(idList.size(), (chunk + 1) * batchChunkSize)))
+                            .flatMap(chunk -> userRepository.findByIdIn(chunk), batchConcurrency)
+                            .collectMap(MyUser::getId, myUser -> myUser)
+                            .map(usersById -> {
+                                List<User> users = new ArrayList<>(usersById.size());
+                                List<UUID> missingIds = new ArrayList<>();
+
+                                for (UUID id : idList) {
+                                    MyUser myUser = usersById.get(id);
+                                    if (myUser == null) {
+                                        missingIds.add(id);
+                                    }
+                                    else {
+                                        users.add(User.of(myUser));
+                                    }
+                                }
+                                return new UserBatch(users, missingIds);
+                            });
+                });
     }
 
 
 
+
 }
@@ -0,0 +1,9 @@
+package me.sonam.user.handler.carrier;
+
+import java.util.List;
+
+/**
+ * authenticationIds of a batch activation that were activated, and the ones with no user, in the order they were requested
+ */
+public record ActivationBatch(List<String> activated, List<String> missingAuthenticationIds) {
+}
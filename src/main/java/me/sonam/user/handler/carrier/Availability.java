@@ -0,0 +1,10 @@
+package me.sonam.user.handler.carrier;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * whether a new signup can use the authenticationId and email, null for the ones not asked about
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record Availability(Boolean authenticationIdAvailable, Boolean emailAvailable) {
+}
@@ -0,0 +1,13 @@
+package me.sonam.user.handler.carrier;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+/**
+ * outcome of one user of a bulk signup.  index is the position of the user in the request, userId and message
+ * are set when the user was signed up and error when it was not.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BulkSignupResult(long index, String authenticationId, UUID userId, String message, String error) {
+}
@@ -1,5 +1,8 @@
 package me.sonam.user.handler.carrier;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import me.sonam.user.repo.entity.MyUser;
+
 import java.util.Objects;
 import java.util.UUID;
 
@@ -13,6 +16,9 @@ public class User {
     private Boolean userAuthAccountCreated;
     private Boolean searchable;
     private String profilePhoto;
+    // version of the user row, sent as the ETag instead of in the body
+    @JsonIgnore
+    private long version;
 
     public User() {
     }
@@ -30,6 +36,14 @@ public class User {
         this.profilePhoto = profilePhoto;
     }
 
+    public static User of(MyUser myUser) {
+        User user = new User(myUser.getId(), myUser.getFirstName(), myUser.getLastName(),
+                myUser.getEmail(), myUser.getAuthenticationId(), myUser.getActive(),
+                myUser.getUserAuthAccountCreated(), myUser.getSearchable(), myUser.getProfilePhoto());
+        user.setVersion(myUser.getVersion());
+        return user;
+    }
+
     @Override
     public boolean equals(Object object) {
         if (this == object) return true;
@@ -115,6 +129,16 @@ public class User {
         this.profilePhoto = profilePhoto;
     }
 
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    @JsonIgnore
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "User{" +
@@ -127,6 +151,7 @@ public class User {
                 ", userAuthAccountCreated=" + userAuthAccountCreated +
                 ", searchable=" + searchable +
                 ", profilePhoto='" + profilePhoto + '\'' +
+                ", version=" + version +
                 '}';
     }
 }
@@ -0,0 +1,10 @@
+package me.sonam.user.handler.carrier;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * users found for a batch of ids in the order the ids were requested, and the requested ids with no user
+ */
+public record UserBatch(List<User> users, List<UUID> missingIds) {
+}
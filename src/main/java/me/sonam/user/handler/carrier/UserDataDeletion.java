@@ -0,0 +1,12 @@
+package me.sonam.user.handler.carrier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * outcome of deleting a user's data, with the result of each downstream service by service name
+ * and the services that failed to delete and are recorded for retry.
+ */
+public record UserDataDeletion(String message, UUID userId, Map<String, String> services, List<String> failedServices) {
+}
@@ -0,0 +1,25 @@
+package me.sonam.user.handler.carrier;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import me.sonam.user.repo.entity.MyUser;
+
+import java.time.format.DateTimeFormatter;
+
+/**
+ * user information returned by the authentication-id and oidc user info lookups.  dateOfBirth is left out
+ * of the json when the user has no birth date.  The row version is sent as the ETag, not in the json.
+ */
+public record UserProfile(String id, String firstName, String lastName, String email, String profilePhoto,
+                          String authenticationId,
+                          @JsonInclude(JsonInclude.Include.NON_NULL) String dateOfBirth,
+                          @JsonIgnore long version) {
+
+    private static final DateTimeFormatter DATE_OF_BIRTH = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+
+    public static UserProfile of(MyUser myUser, String profilePhoto) {
+        return new UserProfile(myUser.getId().toString(), myUser.getFirstName(), myUser.getLastName(),
+                myUser.getEmail(), profilePhoto, myUser.getAuthenticationId(),
+                myUser.getBirthDate() == null ? null : DATE_OF_BIRTH.format(myUser.getBirthDate()), myUser.getVersion());
+    }
+}
@@ -0,0 +1,258 @@
+package me.sonam.user.idempotency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import me.sonam.user.repo.IdempotencyKeyRepository;
+import me.sonam.user.repo.entity.IdempotencyKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Makes a request with an {@code Idempotency-Key} header run once.  The first request with a key claims it in the
+ * idempotency_key table with a SHA-256 fingerprint of its body, and a successful response is stored with the key.
+ * A repeated request with the same key and body gets the stored response with an {@code Idempotent-Replayed}
+ * header, without running again.  A repeat while the first request is still running gets 409, and a repeat with a
+ * different body gets 422.  Error responses are not stored, the key is released so the request can be retried.
+ * Keys are scoped to the endpoint and the caller and kept for idempotency.ttl-hours.  A key whose request did not
+ * finish within idempotency.pending-timeout-seconds, for example because the pod stopped, can be claimed again.
+ * Requests without the header run as before.
+ */
+@Component
+public class IdempotentRequests {
+    private static final Logger LOG = LoggerFactory.getLogger(IdempotentRequests.class);
+
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final JsonMapper jsonMapper;
+
+    @Value("${idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    @Value("${idempotency.pending-timeout-seconds:60}")
+    private long pendingTimeoutSeconds;
+
+    @Value("${idempotency.purge-interval-minutes:10}")
+    private long purgeIntervalMinutes;
+
+    private final AtomicLong storedKeys = new AtomicLong();
+    private final Counter executed;
+    private final Counter replayed;
+    private final Counter inProgress;
+    private final Counter mismatched;
+
+    private Disposable purging;
+
+    public IdempotentRequests(IdempotencyKeyRepository idempotencyKeyRepository, JsonMapper jsonMapper,
+                              MeterRegistry meterRegistry) {
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.jsonMapper = jsonMapper;
+
+        Gauge.builder("user.idempotency.keys", storedKeys, AtomicLong::get)
+                .description("idempotency keys stored, counted after each purge").register(meterRegistry);
+        executed = counter(meterRegistry, "executed");
+        replayed = counter(meterRegistry, "replayed");
+        inProgress = counter(meterRegistry, "in-progress");
+        mismatched = counter(meterRegistry, "mismatched");
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("user.idempotency.requests").tag("result", result)
+                .description("requests with an Idempotency-Key by how they were answered").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        purging = Flux.interval(Duration.ZERO, Duration.ofMinutes(purgeIntervalMinutes))
+                .onBackpressureDrop()
+                .concatMap(tick -> purge()
+                        .onErrorResume(throwable -> {
+                            LOG.error("idempotency key purge failed: {}", throwable.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (purging != null) {
+            purging.dispose();
+        }
+    }
+
+    /**
+     * deletes the expired keys and refreshes the stored key count
+     * @return number of keys deleted
+     */
+    public Mono<Integer> purge() {
+        return idempotencyKeyRepository.deleteExpired(LocalDateTime.now())
+                .flatMap(deleted -> idempotencyKeyRepository.count()
+                        .doOnNext(count -> {
+                            storedKeys.set(count);
+                            LOG.debug("purged {} expired idempotency keys, {} stored", deleted, count);
+                        })
+                        .thenReturn(deleted));
+    }
+
+    /**
+     * @param operation endpoint name that scopes the key
+     * @param request runs the request with its body and returns the status and json body of the response
+     * @param builder starts the response for a status
+     */
+    public <T> Mono<ServerResponse> handle(ServerRequest serverRequest, String operation, Class<T> bodyType,
+                                           Function<Mono<T>, Mono<Response>> request,
+                                           Function<Integer, ServerResponse.BodyBuilder> builder) {
+        String key = serverRequest.headers().firstHeader(IDEMPOTENCY_KEY);
+        if (key == null) {
+            return request.apply(serverRequest.bodyToMono(bodyType)).flatMap(response -> render(response, false, builder));
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            return render(error(HttpStatus.BAD_REQUEST, IDEMPOTENCY_KEY + " should have 1 to " + MAX_KEY_LENGTH + " characters"),
+                    false, builder);
+        }
+
+        return serverRequest.principal().map(Principal::getName).defaultIfEmpty("")
+                .zipWith(serverRequest.bodyToMono(byte[].class).defaultIfEmpty(new byte[0]))
+                .flatMap(objects -> {
+                    String id = operation + ":" + objects.getT1() + ":" + key;
+                    byte[] body = objects.getT2();
+                    return execute(id, fingerprint(body),
+                            () -> request.apply(Mono.fromCallable(() -> jsonMapper.readValue(body, bodyType))));
+                })
+                .flatMap(outcome -> render(outcome.response(), outcome.replayed(), builder));
+    }
+
+    private Mono<Outcome> execute(String id, String fingerprint, Supplier<Mono<Response>> request) {
+        return claim(id, fingerprint, true).flatMap(existing -> {
+            if (existing.getId() == null) {
+                executed.increment();
+                return run(id, request);
+            }
+            if (!existing.getFingerprint().equals(fingerprint)) {
+                mismatched.increment();
+                LOG.info("idempotency key {} was used for a different request", id);
+                return Mono.just(new Outcome(error(HttpStatus.UNPROCESSABLE_CONTENT,
+                        IDEMPOTENCY_KEY + " was used for a different request"), false));
+            }
+            if (existing.getStatus() == null) {
+                inProgress.increment();
+                return Mono.just(new Outcome(error(HttpStatus.CONFLICT,
+                        "a request with this " + IDEMPOTENCY_KEY + " is in progress"), false));
+            }
+            replayed.increment();
+            LOG.info("replay stored response for idempotency key {}", id);
+            return Mono.just(new Outcome(new Response(existing.getStatus(), existing.getResponseBody()), true));
+        });
+    }
+
+    /**
+     * inserts the key, or reads the row holding it.  An expired row, or one whose request stopped without
+     * finishing, is deleted and the key claimed again once.
+     * @return a key without id when this request claimed it
+     */
+    private Mono<IdempotencyKey> claim(String id, String fingerprint, boolean retakeStale) {
+        LocalDateTime now = LocalDateTime.now();
+
+        return idempotencyKeyRepository.save(new IdempotencyKey(id, fingerprint, now, now.plusHours(ttlHours)))
+                .thenReturn(new IdempotencyKey())
+                .onErrorResume(DuplicateKeyException.class, e -> idempotencyKeyRepository.findById(id)
+                        .flatMap(existing -> {
+                            boolean stale = existing.getExpiresAt().isBefore(now) || (existing.getStatus() == null
+                                    && existing.getCreated().isBefore(now.minusSeconds(pendingTimeoutSeconds)));
+                            if (stale && retakeStale) {
+                                LOG.info("claim stale idempotency key {}", id);
+                                return idempotencyKeyRepository.deleteByIdAndCreated(id, existing.getCreated())
+                                        .then(Mono.defer(() -> claim(id, fingerprint, false)));
+                            }
+                            return Mono.just(existing);
+                        })
+                        // deleted after the insert failed, the request holding it just gave it up
+                        .switchIfEmpty(Mono.fromSupplier(() -> new IdempotencyKey(id, fingerprint, now, now))));
+    }
+
+    private Mono<Outcome> run(String id, Supplier<Mono<Response>> request) {
+        return Mono.defer(request)
+                .flatMap(response -> {
+                    if (HttpStatus.valueOf(response.status()).is2xxSuccessful()) {
+                        return idempotencyKeyRepository.complete(id, response.status(), response.body())
+                                .thenReturn(new Outcome(response, false));
+                    }
+                    return release(id).thenReturn(new Outcome(response, false));
+                })
+                .onErrorResume(throwable -> release(id).then(Mono.error(throwable)))
+                .doOnCancel(() -> release(id).subscribe());
+    }
+
+    private Mono<Void> release(String id) {
+        return idempotencyKeyRepository.deleteById(id)
+                .doOnError(throwable -> LOG.error("failed to release idempotency key {}: {}", id, throwable.getMessage()))
+                .onErrorComplete();
+    }
+
+    private Mono<ServerResponse> render(Response response, boolean replayed,
+                                        Function<Integer, ServerResponse.BodyBuilder> builder) {
+        ServerResponse.BodyBuilder bodyBuilder = builder.apply(response.status()).contentType(MediaType.APPLICATION_JSON);
+        if (replayed) {
+            bodyBuilder.header(IDEMPOTENT_REPLAYED, "true");
+        }
+        return bodyBuilder.bodyValue(response.body().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return response with the value written as json
+     */
+    public Response json(HttpStatus status, Object value) {
+        return new Response(status.value(), jsonMapper.writeValueAsString(value));
+    }
+
+    private Response error(HttpStatus status, String message) {
+        return json(status, Map.of("error", message));
+    }
+
+    private static String fingerprint(byte[] body) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MessageDigest.getInstance("SHA-256").digest(body));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * status and json body of a response
+     */
+    public record Response(int status, String body) {
+    }
+
+    private record Outcome(Response response, boolean replayed) {
+    }
+}
@@ -0,0 +1,117 @@
+package me.sonam.user.metrics;
+
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpStatusCode;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Times reactive calls from subscription to completion.  Each call is recorded in the timer with its name tag, the
+ * given tags, an outcome and the simple class name of the error as exception (none when it did not fail).  The
+ * timer publishes p50, p95 and p99 and a percentile histogram between 1 ms and 30 s, so percentiles can also be
+ * aggregated over pods.  Calls still running are counted by a long task timer named timer.active.
+ * Tag values should come from a small fixed set, never from request data.
+ */
+public class CallMetrics {
+    public static final String SUCCESS = "success";
+    public static final String ERROR = "error";
+    public static final String CANCELLED = "cancelled";
+    private static final String NONE = "none";
+
+    private final String timerName;
+    private final String nameTag;
+    private final String description;
+    private final MeterRegistry meterRegistry;
+
+    public CallMetrics(String timerName, String nameTag, String description, MeterRegistry meterRegistry) {
+        this.timerName = timerName;
+        this.nameTag = nameTag;
+        this.description = description;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> Mono<T> record(String name, Mono<T> call) {
+        return record(name, Tags.empty(), call, value -> SUCCESS);
+    }
+
+    /**
+     * @param outcome outcome tag for the value the call completed with, null when it completed empty
+     */
+    public <T> Mono<T> record(String name, Tags tags, Mono<T> call, Function<T, String> outcome) {
+        return Mono.defer(() -> {
+            Call running = new Call(tags.and(nameTag, name));
+
+            return call
+                    .doOnSuccess(value -> running.stop(outcome.apply(value), NONE))
+                    .doOnError(throwable -> running.stop(ERROR, throwable.getClass().getSimpleName()))
+                    .doOnCancel(() -> running.stop(CANCELLED, NONE));
+        });
+    }
+
+    public <T> Flux<T> record(String name, Flux<T> call) {
+        return Flux.defer(() -> {
+            Call running = new Call(Tags.of(nameTag, name));
+
+            return call
+                    .doOnComplete(() -> running.stop(SUCCESS, NONE))
+                    .doOnError(throwable -> running.stop(ERROR, throwable.getClass().getSimpleName()))
+                    .doOnCancel(() -> running.stop(CANCELLED, NONE));
+        });
+    }
+
+    /**
+     * @return status class of a response as outcome tag
+     */
+    public static String outcome(HttpStatusCode statusCode) {
+        if (statusCode.is2xxSuccessful()) {
+            return SUCCESS;
+        }
+        if (statusCode.is4xxClientError()) {
+            return "client_error";
+        }
+        if (statusCode.is5xxServerError()) {
+            return "server_error";
+        }
+        if (statusCode.is3xxRedirection()) {
+            return "redirection";
+        }
+        return "informational";
+    }
+
+    // stopped before the terminal signal goes downstream, once, a cancel after the value is not recorded again
+    private final class Call {
+        private final Tags tags;
+        private final long start = System.nanoTime();
+        private final LongTaskTimer.Sample active;
+        private final AtomicBoolean stopped = new AtomicBoolean();
+
+        Call(Tags tags) {
+            this.tags = tags;
+            this.active = LongTaskTimer.builder(timerName + ".active").tags(tags)
+                    .description(description + " still running").register(meterRegistry).start();
+        }
+
+        void stop(String outcome, String exception) {
+            if (!stopped.compareAndSet(false, true)) {
+                return;
+            }
+            active.stop();
+            Timer.builder(timerName).tags(tags).tag("outcome", outcome).tag("exception", exception)
+                    .description(description)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(30))
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package me.sonam.user.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import me.sonam.user.handler.NameSearchCursor;
+import me.sonam.user.handler.ProfilePhotoUpdate;
+import me.sonam.user.handler.UserService;
+import me.sonam.user.handler.UserTransfer;
+import me.sonam.user.handler.UserUpdate;
+import me.sonam.user.handler.carrier.ActivationBatch;
+import me.sonam.user.handler.carrier.Availability;
+import me.sonam.user.handler.carrier.BulkSignupResult;
+import me.sonam.user.handler.carrier.User;
+import me.sonam.user.handler.carrier.UserBatch;
+import me.sonam.user.handler.carrier.UserDataDeletion;
+import me.sonam.user.handler.carrier.UserProfile;
+import me.sonam.user.repo.entity.UserNameMatch;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link UserService} that records every call of the service it wraps in user.service.calls, tagged with the
+ * method name.  A failed call is tagged with its exception, so SignupException, UserException and
+ * UserNotFoundException failures can be counted apart.
+ */
+public class MeteredUserService implements UserService {
+    private final UserService userService;
+    private final CallMetrics callMetrics;
+
+    public MeteredUserService(UserService userService, MeterRegistry meterRegistry) {
+        this.userService = userService;
+        this.callMetrics = new CallMetrics("user.service.calls", "method", "user service calls", meterRegistry);
+    }
+
+    @Override
+    public Mono<String> signupUser(Mono<UserTransfer> userMono) {
+        return callMetrics.record("signupUser", Mono.defer(() -> userService.signupUser(userMono)));
+    }
+
+    @Override
+    public Flux<BulkSignupResult> bulkSignup(Flux<UserTransfer> userTransfers) {
+        return callMetrics.record("bulkSignup", Flux.defer(() -> userService.bulkSignup(userTransfers)));
+    }
+
+    @Override
+    public Mono<String> updateProfilePhoto(String authenticationId, Mono<ProfilePhotoUpdate> profilePhotoUpdateMono) {
+        return callMetrics.record("updateProfilePhoto",
+                Mono.defer(() -> userService.updateProfilePhoto(authenticationId, profilePhotoUpdateMono)));
+    }
+
+    @Override
+    public Mono<String> updateUser(String authenticationId, Mono<UserUpdate> userMono) {
+        return callMetrics.record("updateUser", Mono.defer(() -> userService.updateUser(authenticationId, userMono)));
+    }
+
+    @Override
+    public Mono<Availability> checkAvailability(String authenticationId, String email) {
+        return callMetrics.record("checkAvailability",
+                Mono.defer(() -> userService.checkAvailability(authenticationId, email)));
+    }
+
+    @Override
+    public Flux<UserNameMatch> findMatchingName(String firstName, String lastName, NameSearchCursor cursor, int limit,
+                                                boolean ignoreSearchable) {
+        return callMetrics.record("findMatchingName", Flux.defer(() ->
+                userService.findMatchingName(firstName, lastName, cursor, limit, ignoreSearchable)));
+    }
+
+    @Override
+    public Mono<String> activateUser(String authenticationId) {
+        return callMetrics.record("activateUser", Mono.defer(() -> userService.activateUser(authenticationId)));
+    }
+
+    @Override
+    public Mono<ActivationBatch> activateUsers(Flux<String> authenticationIds) {
+        return callMetrics.record("activateUsers", Mono.defer(() -> userService.activateUsers(authenticationIds)));
+    }
+
+    @Override
+    public Mono<String> deleteUser(String authentiationId) {
+        return callMetrics.record("deleteUser", Mono.defer(() -> userService.deleteUser(authentiationId)));
+    }
+
+    @Override
+    public Mono<UserProfile> getUserByAuthenticationId(String authenticationId) {
+        return callMetrics.record("getUserByAuthenticationId",
+                Mono.defer(() -> userService.getUserByAuthenticationId(authenticationId)));
+    }
+
+    @Override
+    public Mono<UserProfile> getUserByAuthenticationIdForProfileSearch(String authenticationId, boolean ignoreSearchable) {
+        return callMetrics.record("getUserByAuthenticationIdForProfileSearch",
+                Mono.defer(() -> userService.getUserByAuthenticationIdForProfileSearch(authenticationId, ignoreSearchable)));
+    }
+
+    @Override
+    public Mono<UserProfile> getUserForOidcUserInfo(UUID userId) {
+        return callMetrics.record("getUserForOidcUserInfo", Mono.defer(() -> userService.getUserForOidcUserInfo(userId)));
+    }
+
+    @Override
+    public Mono<User> getUserById(UUID id) {
+        return callMetrics.record("getUserById", Mono.defer(() -> userService.getUserById(id)));
+    }
+
+    @Override
+    public Mono<List<User>> getBatchOfUserById(List<UUID> uuids) {
+        return callMetrics.record("getBatchOfUserById", Mono.defer(() -> userService.getBatchOfUserById(uuids)));
+    }
+
+    @Override
+    public Mono<UserBatch> getUsersByIds(Flux<UUID> ids) {
+        return callMetrics.record("getUsersByIds", Mono.defer(() -> userService.getUsersByIds(ids)));
+    }
+
+    @Override
+    public Mono<UserDataDeletion> deleteUserData(UUID organizationId) {
+        return callMetrics.record("deleteUserData", Mono.defer(() -> userService.deleteUserData(organizationId)));
+    }
+}
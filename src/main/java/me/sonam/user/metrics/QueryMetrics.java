@@ -0,0 +1,255 @@
+package me.sonam.user.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Times repository calls from subscription to completion, which includes waiting for a connection.  Each call is
+ * recorded in user.repository.queries and its rows in user.repository.rows, tagged with the repository and method.
+ * Rows are the elements returned, or the update count of a @Modifying query.  A call slower than
+ * repository-metrics.slow-query-millis is logged with its statement and the shape of its bind parameters, never
+ * their values.  The repository-metrics.top-slowest slowest calls since startup and the totals per method are kept
+ * for the slowqueries actuator endpoint.  Statements sent through DatabaseClient, such as the batch signup insert and
+ * the pg_notify of the user change bus, are not repository calls and are recorded with
+ * {@link #record(String, String, String, String, Mono)} by the class sending them.
+ */
+@Component
+public class QueryMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(QueryMetrics.class);
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${repository-metrics.slow-query-millis:500}")
+    private long slowQueryMillis;
+
+    @Value("${repository-metrics.top-slowest:20}")
+    private int topSlowest;
+
+    private final Map<String, MethodTotals> totals = new ConcurrentHashMap<>();
+    // fastest of the kept calls at the head, so it is the one dropped
+    private final PriorityQueue<SlowQuery> slowest = new PriorityQueue<>(Comparator.comparingDouble(SlowQuery::millis));
+
+    public QueryMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> Mono<T> record(String repository, Method method, Object[] arguments, Mono<T> call) {
+        return Mono.defer(() -> {
+            Execution execution = new Execution(repository, method, arguments);
+            return call
+                    .doOnSuccess(value -> execution.stop(CallMetrics.SUCCESS, value == null ? 0 : rows(method, value)))
+                    .doOnError(throwable -> execution.stop(CallMetrics.ERROR, 0))
+                    .doOnCancel(() -> execution.stop(CallMetrics.CANCELLED, 0));
+        });
+    }
+
+    /**
+     * times a statement sent through DatabaseClient.  Rows are the update count when the call returns a number.
+     * @param component class sending the statement, recorded as the repository
+     * @param parameters name and shape of the bind parameters, never their values
+     */
+    public <T> Mono<T> record(String component, String name, String statement, String parameters, Mono<T> call) {
+        return Mono.defer(() -> {
+            Execution execution = new Execution(component, name, () -> statement, () -> parameters);
+            return call
+                    .doOnSuccess(value -> execution.stop(CallMetrics.SUCCESS, value instanceof Number number
+                            ? number.longValue() : value == null ? 0 : 1))
+                    .doOnError(throwable -> execution.stop(CallMetrics.ERROR, 0))
+                    .doOnCancel(() -> execution.stop(CallMetrics.CANCELLED, 0));
+        });
+    }
+
+    public <T> Flux<T> record(String repository, Method method, Object[] arguments, Flux<T> call) {
+        return Flux.defer(() -> {
+            Execution execution = new Execution(repository, method, arguments);
+            AtomicLong rows = new AtomicLong();
+            return call
+                    .doOnNext(value -> rows.incrementAndGet())
+                    .doOnComplete(() -> execution.stop(CallMetrics.SUCCESS, rows.get()))
+                    .doOnError(throwable -> execution.stop(CallMetrics.ERROR, rows.get()))
+                    .doOnCancel(() -> execution.stop(CallMetrics.CANCELLED, rows.get()));
+        });
+    }
+
+    /**
+     * @return slowest calls since startup, slowest first
+     */
+    public List<SlowQuery> slowest() {
+        List<SlowQuery> queries;
+        synchronized (slowest) {
+            queries = new ArrayList<>(slowest);
+        }
+        queries.sort(Comparator.comparingDouble(SlowQuery::millis).reversed());
+        return queries;
+    }
+
+    /**
+     * @return calls, time and rows per repository method since startup, most total time first
+     */
+    public List<MethodTotal> totals() {
+        return totals.entrySet().stream()
+                .map(entry -> entry.getValue().toMethodTotal(entry.getKey()))
+                .sorted(Comparator.comparingDouble(MethodTotal::totalMillis).reversed())
+                .toList();
+    }
+
+    private static long rows(Method method, Object value) {
+        if (method.isAnnotationPresent(Modifying.class) && value instanceof Number number) {
+            return number.longValue();
+        }
+        return 1;
+    }
+
+    static String statement(Method method) {
+        Query query = method.getAnnotation(Query.class);
+        return query == null ? "derived: " + method.getName() : query.value();
+    }
+
+    // type and size of each argument, so a slow 'in' query shows how many values it had
+    static String parameterShapes(Method method, Object[] arguments) {
+        if (arguments == null) {
+            return "";
+        }
+        Parameter[] parameters = method.getParameters();
+        StringJoiner shapes = new StringJoiner(", ");
+        for (int i = 0; i < arguments.length; i++) {
+            Param param = parameters[i].getAnnotation(Param.class);
+            String name = param == null ? parameters[i].getName() : param.value();
+            shapes.add(name + ": " + shape(arguments[i]));
+        }
+        return shapes.toString();
+    }
+
+    public static String shape(Object argument) {
+        if (argument == null) {
+            return "null";
+        }
+        if (argument instanceof CharSequence value) {
+            return "String(" + value.length() + ")";
+        }
+        if (argument instanceof Collection<?> values) {
+            return argument.getClass().getSimpleName() + "(" + values.size() + ")";
+        }
+        return argument.getClass().getSimpleName();
+    }
+
+    private final class Execution {
+        private final String repository;
+        private final String methodName;
+        // only worked out for a slow call
+        private final Supplier<String> statement;
+        private final Supplier<String> parameters;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean stopped = new AtomicBoolean();
+
+        Execution(String repository, Method method, Object[] arguments) {
+            this(repository, method.getName(), () -> statement(method), () -> parameterShapes(method, arguments));
+        }
+
+        Execution(String repository, String methodName, Supplier<String> statement, Supplier<String> parameters) {
+            this.repository = repository;
+            this.methodName = methodName;
+            this.statement = statement;
+            this.parameters = parameters;
+        }
+
+        void stop(String outcome, long rows) {
+            if (!stopped.compareAndSet(false, true)) {
+                return;
+            }
+            long nanos = System.nanoTime() - start;
+
+            Timer.builder("user.repository.queries").tag("repository", repository).tag("method", methodName)
+                    .tag("outcome", outcome)
+                    .description("repository calls from subscription to completion")
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(30))
+                    .register(meterRegistry)
+                    .record(nanos, TimeUnit.NANOSECONDS);
+            DistributionSummary.builder("user.repository.rows").tag("repository", repository).tag("method", methodName)
+                    .description("rows returned or updated by a repository call")
+                    .register(meterRegistry)
+                    .record(rows);
+
+            totals.computeIfAbsent(repository + "." + methodName, key -> new MethodTotals()).add(nanos, rows);
+
+            double millis = nanos / 1_000_000.0;
+            if (millis >= slowQueryMillis) {
+                LOG.warn("slow query {}.{} took {} ms, rows: {}, outcome: {}, statement: {}, parameters: [{}]",
+                        repository, methodName, Math.round(millis), rows, outcome, statement.get(), parameters.get());
+            }
+            keepIfSlowest(millis, rows, outcome);
+        }
+
+        private void keepIfSlowest(double millis, long rows, String outcome) {
+            synchronized (slowest) {
+                if (slowest.size() >= topSlowest) {
+                    if (topSlowest <= 0 || slowest.peek().millis() >= millis) {
+                        return;
+                    }
+                    slowest.poll();
+                }
+                slowest.add(new SlowQuery(repository, methodName, statement.get(), parameters.get(), millis, rows,
+                        outcome, LocalDateTime.now()));
+            }
+        }
+    }
+
+    private static final class MethodTotals {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void add(long callNanos, long callRows) {
+            calls.increment();
+            nanos.add(callNanos);
+            rows.add(callRows);
+            maxNanos.accumulateAndGet(callNanos, Math::max);
+        }
+
+        MethodTotal toMethodTotal(String method) {
+            return new MethodTotal(method, calls.sum(), nanos.sum() / 1_000_000.0, maxNanos.get() / 1_000_000.0,
+                    rows.sum());
+        }
+    }
+
+    /**
+     * one slow repository call or DatabaseClient statement, parameters has the name and shape of each bind parameter
+     */
+    public record SlowQuery(String repository, String method, String statement, String parameters, double millis,
+                            long rows, String outcome, LocalDateTime at) {
+    }
+
+    public record MethodTotal(String method, long calls, double totalMillis, double maxMillis, long rows) {
+    }
+}
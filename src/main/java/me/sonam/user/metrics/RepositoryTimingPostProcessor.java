@@ -0,0 +1,53 @@
+package me.sonam.user.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Adds an interceptor to every repository proxy that hands the Mono or Flux of each call to {@link QueryMetrics}.
+ * QueryMetrics is looked up on the first call, so the post processor does not create the meter registry early.
+ */
+public class RepositoryTimingPostProcessor implements BeanPostProcessor {
+    private final ObjectProvider<QueryMetrics> queryMetrics;
+
+    public RepositoryTimingPostProcessor(ObjectProvider<QueryMetrics> queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> repositoryFactoryBean) {
+            repositoryFactoryBean.addRepositoryFactoryCustomizer(repositoryFactory ->
+                    repositoryFactory.addRepositoryProxyPostProcessor((proxyFactory, repositoryInformation) ->
+                            proxyFactory.addAdvice(new TimingInterceptor(
+                                    repositoryInformation.getRepositoryInterface().getSimpleName()))));
+        }
+        return bean;
+    }
+
+    private final class TimingInterceptor implements MethodInterceptor {
+        private final String repository;
+
+        TimingInterceptor(String repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            Object result = invocation.proceed();
+
+            if (result instanceof Mono<?> mono) {
+                return queryMetrics.getObject().record(repository, invocation.getMethod(), invocation.getArguments(), mono);
+            }
+            if (result instanceof Flux<?> flux) {
+                return queryMetrics.getObject().record(repository, invocation.getMethod(), invocation.getArguments(), flux);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package me.sonam.user.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.util.pattern.PathPattern;
+import reactor.core.publisher.Mono;
+
+/**
+ * Records every {@link me.sonam.user.Router} route in user.route.requests, tagged with the route pattern and http
+ * method.  The outcome is the status class of the response (success, client_error, server_error ...), or error
+ * when the handler failed.  Handlers turn most failures into a 400, so client_error includes them.  The time ends
+ * when the handler returns its response, a streamed body is written after that.
+ */
+@Component
+public class RouteMetricsFilter implements HandlerFilterFunction<ServerResponse, ServerResponse> {
+    private final CallMetrics callMetrics;
+
+    public RouteMetricsFilter(MeterRegistry meterRegistry) {
+        this.callMetrics = new CallMetrics("user.route.requests", "route", "requests handled by a route", meterRegistry);
+    }
+
+    @Override
+    public Mono<ServerResponse> filter(ServerRequest request, HandlerFunction<ServerResponse> next) {
+        String route = request.attribute(RouterFunctions.MATCHING_PATTERN_ATTRIBUTE)
+                .map(pattern -> ((PathPattern) pattern).getPatternString())
+                .orElse("unknown");
+
+        return callMetrics.record(route, Tags.of("method", request.method().name()), Mono.defer(() -> next.handle(request)),
+                response -> response == null ? CallMetrics.SUCCESS : CallMetrics.outcome(response.statusCode()));
+    }
+}
@@ -0,0 +1,28 @@
+package me.sonam.user.metrics;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * /actuator/slowqueries lists the slowest repository calls since startup and the time spent per repository method
+ */
+@Component
+@Endpoint(id = "slowqueries")
+public class SlowQueryEndpoint {
+    private final QueryMetrics queryMetrics;
+
+    public SlowQueryEndpoint(QueryMetrics queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    @ReadOperation
+    public SlowQueries slowQueries() {
+        return new SlowQueries(queryMetrics.slowest(), queryMetrics.totals());
+    }
+
+    public record SlowQueries(List<QueryMetrics.SlowQuery> slowest, List<QueryMetrics.MethodTotal> methods) {
+    }
+}
@@ -0,0 +1,94 @@
+package me.sonam.user.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records the calls of a WebClient to one downstream service, tagged with the service, the operation and the http
+ * method.  The operation is the {@link #OPERATION} request attribute set by the client wrapper.
+ * user.client.first.byte times the request until the response status and headers arrive, user.client.requests
+ * until the response body is read or released and is also tagged with the status code, outcome and exception.
+ * A call that gets no response, such as a refused connection or a timeout, has status none.
+ * The connect time is recorded by reactor netty in reactor.netty.http.client.connect.time.
+ */
+public class WebClientMetricsFilter implements ExchangeFilterFunction {
+    public static final String OPERATION = WebClientMetricsFilter.class.getName() + ".operation";
+    private static final String NONE = "none";
+
+    private final String service;
+    private final MeterRegistry meterRegistry;
+
+    public WebClientMetricsFilter(String service, MeterRegistry meterRegistry) {
+        this.service = service;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        Tags tags = Tags.of("service", service,
+                "operation", request.attribute(OPERATION).map(Object::toString).orElse("unknown"),
+                "method", request.method().name());
+
+        return Mono.defer(() -> {
+            Call call = new Call(tags);
+
+            return next.exchange(request)
+                    .map(response -> {
+                        call.firstByte();
+                        String status = String.valueOf(response.statusCode().value());
+                        String outcome = CallMetrics.outcome(response.statusCode());
+
+                        return response.mutate().body(body -> body
+                                        .doOnComplete(() -> call.stop(status, outcome, NONE))
+                                        .doOnError(throwable -> call.stop(status, CallMetrics.ERROR, throwable.getClass().getSimpleName()))
+                                        .doOnCancel(() -> call.stop(status, CallMetrics.CANCELLED, NONE)))
+                                .build();
+                    })
+                    .doOnError(throwable -> call.stop(NONE, CallMetrics.ERROR, throwable.getClass().getSimpleName()))
+                    .doOnCancel(() -> call.stop(NONE, CallMetrics.CANCELLED, NONE));
+        });
+    }
+
+    private final class Call {
+        private final Tags tags;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean stopped = new AtomicBoolean();
+
+        Call(Tags tags) {
+            this.tags = tags;
+        }
+
+        void firstByte() {
+            timer("user.client.first.byte", tags, "time until the response headers of a downstream call arrive")
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        void stop(String status, String outcome, String exception) {
+            if (!stopped.compareAndSet(false, true)) {
+                return;
+            }
+            timer("user.client.requests", tags.and("status", status, "outcome", outcome, "exception", exception),
+                    "downstream calls until the response body is read")
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        private Timer timer(String name, Tags timerTags, String description) {
+            return Timer.builder(name).tags(timerTags).description(description)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(30))
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package me.sonam.user.outbox;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Encrypts the password a signup_outbox row carries until the authentication record is created, so the database,
+ * its WAL and backups never hold it in clear text.  AES-GCM with a random nonce per value, the key comes from
+ * signup-outbox.password-key, a base64 encoded 16, 24 or 32 byte key held outside the database.
+ * The key is required when signup-outbox.enabled is true.
+ */
+@Component
+public class OutboxPasswordCipher {
+    private static final String PREFIX = "v1:";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    @Value("${signup-outbox.enabled:false}")
+    private boolean enabled;
+
+    @Value("${signup-outbox.password-key:}")
+    private String passwordKey;
+
+    private SecretKeySpec key;
+
+    @PostConstruct
+    public void setKey() {
+        if (passwordKey == null || passwordKey.isBlank()) {
+            if (enabled) {
+                throw new IllegalStateException("signup-outbox.password-key is required when signup-outbox.enabled is true");
+            }
+            return;
+        }
+        byte[] bytes = Base64.getDecoder().decode(passwordKey.trim());
+        if (bytes.length != 16 && bytes.length != 24 && bytes.length != 32) {
+            throw new IllegalStateException("signup-outbox.password-key should be a base64 encoded 16, 24 or 32 byte key");
+        }
+        key = new SecretKeySpec(bytes, "AES");
+    }
+
+    /**
+     * @return null for a null password
+     */
+    public String encrypt(String password) {
+        if (password == null) {
+            return null;
+        }
+        try {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            secureRandom.nextBytes(nonce);
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, requireKey(), new GCMParameterSpec(TAG_BITS, nonce));
+            byte[] encrypted = cipher.doFinal(password.getBytes(StandardCharsets.UTF_8));
+
+            return PREFIX + Base64.getEncoder().encodeToString(ByteBuffer.allocate(nonce.length + encrypted.length)
+                    .put(nonce).put(encrypted).array());
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("failed to encrypt signup outbox password", e);
+        }
+    }
+
+    /**
+     * @return null for a null value
+     * @throws IllegalStateException for a value that was not encrypted by {@link #encrypt(String)}
+     */
+    public String decrypt(String value) {
+        if (value == null) {
+            return null;
+        }
+        if (!value.startsWith(PREFIX)) {
+            throw new IllegalStateException("signup outbox password is not encrypted");
+        }
+        try {
+            byte[] bytes = Base64.getDecoder().decode(value.substring(PREFIX.length()));
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, requireKey(), new GCMParameterSpec(TAG_BITS, bytes, 0, NONCE_LENGTH));
+            return new String(cipher.doFinal(bytes, NONCE_LENGTH, bytes.length - NONCE_LENGTH), StandardCharsets.UTF_8);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("failed to decrypt signup outbox password", e);
+        }
+    }
+
+    private SecretKeySpec requireKey() {
+        if (key == null) {
+            throw new IllegalStateException("signup-outbox.password-key is not set");
+        }
+        return key;
+    }
+}
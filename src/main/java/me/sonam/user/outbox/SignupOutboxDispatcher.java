@@ -0,0 +1,249 @@
+package me.sonam.user.outbox;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import me.sonam.user.cache.UserCache;
+import me.sonam.user.repo.SignupOutboxRepository;
+import me.sonam.user.repo.UserRepository;
+import me.sonam.user.repo.entity.SignupOutbox;
+import me.sonam.user.webclient.AccountWebClient;
+import me.sonam.user.webclient.AuthenticationWebClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the remote calls of signups saved in the signup_outbox table.  Every poll interval it leases a batch of
+ * due rows and moves each one through cleanup, authentication and account creation, saving the state after each
+ * step.  When the account is created the user is marked userAuthAccountCreated and the row is deleted.
+ * A failed step is retried with exponential backoff until signup-outbox.max-attempts, after which the row is
+ * left in the FAILED state.  Rows whose user was deleted, for example by a new signup with the same username,
+ * are dropped.
+ * The dispatcher only runs when signup-outbox.enabled is true.
+ */
+@Component
+public class SignupOutboxDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(SignupOutboxDispatcher.class);
+
+    private final SignupOutboxRepository signupOutboxRepository;
+    private final UserRepository userRepository;
+    private final AuthenticationWebClient authenticationWebClient;
+    private final AccountWebClient accountWebClient;
+    private final UserCache userCache;
+    private final OutboxPasswordCipher outboxPasswordCipher;
+
+    @Value("${signup-outbox.enabled:false}")
+    private boolean enabled;
+
+    @Value("${signup-outbox.poll-interval-millis:1000}")
+    private long pollIntervalMillis;
+
+    @Value("${signup-outbox.batch-size:50}")
+    private int batchSize;
+
+    @Value("${signup-outbox.concurrency:8}")
+    private int concurrency;
+
+    @Value("${signup-outbox.lease-seconds:60}")
+    private long leaseSeconds;
+
+    @Value("${signup-outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${signup-outbox.initial-backoff-millis:1000}")
+    private long initialBackoffMillis;
+
+    @Value("${signup-outbox.max-backoff-seconds:300}")
+    private long maxBackoffSeconds;
+
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicLong lagSeconds = new AtomicLong();
+    private final Counter completed;
+    // retries by the step that failed, which tells the downstream service that failed
+    private final Map<SignupOutbox.State, Counter> retried = new EnumMap<>(SignupOutbox.State.class);
+    private final Counter failed;
+    private final Timer completion;
+
+    private Disposable polling;
+
+    public SignupOutboxDispatcher(SignupOutboxRepository signupOutboxRepository, UserRepository userRepository,
+                                  AuthenticationWebClient authenticationWebClient, AccountWebClient accountWebClient,
+                                  UserCache userCache, OutboxPasswordCipher outboxPasswordCipher, MeterRegistry meterRegistry) {
+        this.signupOutboxRepository = signupOutboxRepository;
+        this.userRepository = userRepository;
+        this.authenticationWebClient = authenticationWebClient;
+        this.accountWebClient = accountWebClient;
+        this.userCache = userCache;
+        this.outboxPasswordCipher = outboxPasswordCipher;
+
+        Gauge.builder("user.signup.outbox.backlog", backlog, AtomicLong::get)
+                .description("signups with remote calls still to be made").register(meterRegistry);
+        Gauge.builder("user.signup.outbox.lag", lagSeconds, AtomicLong::get).baseUnit("seconds")
+                .description("age of the oldest signup with remote calls still to be made").register(meterRegistry);
+        completed = Counter.builder("user.signup.outbox.completed")
+                .description("signups whose remote calls all succeeded").register(meterRegistry);
+        for (SignupOutbox.State state : SignupOutbox.State.values()) {
+            retried.put(state, Counter.builder("user.signup.outbox.retried").tag("step", state.name().toLowerCase())
+                    .description("failed signup steps scheduled for retry").register(meterRegistry));
+        }
+        failed = Counter.builder("user.signup.outbox.failed")
+                .description("signups given up after the maximum attempts").register(meterRegistry);
+        completion = Timer.builder("user.signup.outbox.completion")
+                .description("time from signup to the account being created").register(meterRegistry);
+    }
+
+    // starts once the application is ready so the schema migrations have run
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            LOG.info("signup outbox dispatcher is disabled");
+            return;
+        }
+        LOG.info("starting signup outbox dispatcher with pollIntervalMillis: {}, batchSize: {}", pollIntervalMillis, batchSize);
+
+        polling = Flux.interval(Duration.ofMillis(pollIntervalMillis))
+                .onBackpressureDrop()
+                .concatMap(tick -> refreshMetrics().then(dispatch())
+                        .onErrorResume(throwable -> {
+                            LOG.error("signup outbox dispatch failed: {}", throwable.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (polling != null) {
+            polling.dispose();
+        }
+    }
+
+    /**
+     * leases one batch of due rows and processes them
+     * @return number of rows processed
+     */
+    public Mono<Long> dispatch() {
+        final UUID owner = UUID.randomUUID();
+        final LocalDateTime now = LocalDateTime.now();
+
+        return signupOutboxRepository.lease(owner, now.plusSeconds(leaseSeconds), now, batchSize)
+                .filter(leased -> leased > 0)
+                .flatMapMany(leased -> {
+                    LOG.debug("leased {} signup outbox rows", leased);
+                    return signupOutboxRepository.findByLeaseOwner(owner);
+                })
+                .flatMap(this::process, concurrency)
+                .count();
+    }
+
+    private Mono<SignupOutbox> process(SignupOutbox signupOutbox) {
+        return userRepository.existsById(signupOutbox.getUserId())
+                .flatMap(exists -> {
+                    if (!exists) {
+                        LOG.info("user {} no longer exists, drop signup outbox row", signupOutbox.getUserId());
+                        return signupOutboxRepository.delete(signupOutbox).thenReturn(signupOutbox);
+                    }
+                    return advance(signupOutbox);
+                })
+                .onErrorResume(throwable -> retryLater(signupOutbox, throwable));
+    }
+
+    private Mono<SignupOutbox> advance(SignupOutbox signupOutbox) {
+        LOG.debug("signup outbox step {} for authenticationId: {}", signupOutbox.getState(), signupOutbox.getAuthenticationId());
+
+        return switch (signupOutbox.getState()) {
+            case PENDING_CLEANUP -> accountWebClient.deleteAccountByEmail(signupOutbox.getEmail())
+                    .then(authenticationWebClient.deleteByAuthenticationId(signupOutbox.getAuthenticationId()))
+                    .then(Mono.defer(() -> moveTo(signupOutbox, SignupOutbox.State.PENDING_AUTHENTICATION)))
+                    .flatMap(this::advance);
+            case PENDING_AUTHENTICATION -> Mono.defer(() -> authenticationWebClient.createAuthentication(
+                            signupOutbox.getAuthenticationId(), outboxPasswordCipher.decrypt(signupOutbox.getPassword()),
+                            signupOutbox.getUserId(), signupOutbox.getActive()))
+                    .then(Mono.defer(() -> {
+                        signupOutbox.setPassword(null);
+                        return moveTo(signupOutbox, SignupOutbox.State.PENDING_ACCOUNT);
+                    }))
+                    .flatMap(this::advance);
+            case PENDING_ACCOUNT -> accountWebClient.postAccount(signupOutbox.getFullName(), signupOutbox.getAuthenticationId(),
+                            signupOutbox.getUserId(), signupOutbox.getEmail(), signupOutbox.getActive(),
+                            signupOutbox.getPasswordSet(), signupOutbox.getActivationHost())
+                    .then(userRepository.updatedUserAuthAccountCreatedTrue(signupOutbox.getAuthenticationId()))
+                    .then(Mono.defer(() -> {
+                        userCache.evict(signupOutbox.getUserId());
+                        completed.increment();
+                        completion.record(Duration.between(signupOutbox.getCreated(), LocalDateTime.now()));
+                        LOG.info("signup remote calls done for authenticationId: {}", signupOutbox.getAuthenticationId());
+                        return signupOutboxRepository.delete(signupOutbox);
+                    }))
+                    .thenReturn(signupOutbox);
+            case FAILED -> Mono.just(signupOutbox);
+        };
+    }
+
+    private Mono<SignupOutbox> moveTo(SignupOutbox signupOutbox, SignupOutbox.State state) {
+        signupOutbox.setState(state);
+        return signupOutboxRepository.save(signupOutbox);
+    }
+
+    private Mono<SignupOutbox> retryLater(SignupOutbox signupOutbox, Throwable throwable) {
+        LOG.error("signup outbox step {} failed for authenticationId: {}, attempt: {}, error: {}", signupOutbox.getState(),
+                signupOutbox.getAuthenticationId(), signupOutbox.getAttempts(), throwable.getMessage());
+
+        signupOutbox.setLastError(throwable.toString());
+        signupOutbox.releaseLease();
+
+        if (signupOutbox.getAttempts() >= maxAttempts) {
+            failed.increment();
+            signupOutbox.setPassword(null);
+            signupOutbox.setState(SignupOutbox.State.FAILED);
+        }
+        else {
+            retried.get(signupOutbox.getState()).increment();
+            // the authentication may have been created before the failure, so clean up before creating it again
+            if (signupOutbox.getState() == SignupOutbox.State.PENDING_AUTHENTICATION) {
+                signupOutbox.setState(SignupOutbox.State.PENDING_CLEANUP);
+            }
+            signupOutbox.setNextAttemptAt(LocalDateTime.now().plus(backoff(signupOutbox.getAttempts())));
+        }
+
+        return signupOutboxRepository.save(signupOutbox)
+                .onErrorResume(saveError -> {
+                    // the lease expires and the row is picked up again
+                    LOG.error("failed to save signup outbox retry", saveError);
+                    return Mono.just(signupOutbox);
+                });
+    }
+
+    // exponential backoff with up to 20% jitter so rows that failed together are not retried together
+    private Duration backoff(int attempts) {
+        long millis = initialBackoffMillis << Math.min(attempts - 1, 20);
+        millis = Math.min(millis, maxBackoffSeconds * 1000);
+        return Duration.ofMillis(millis + ThreadLocalRandom.current().nextLong(millis / 5 + 1));
+    }
+
+    private Mono<Void> refreshMetrics() {
+        return signupOutboxRepository.countPending().doOnNext(backlog::set)
+                .then(signupOutboxRepository.findOldestPendingCreated()
+                        .map(created -> Duration.between(created, LocalDateTime.now()).toSeconds())
+                        .defaultIfEmpty(0L)
+                        .doOnNext(lagSeconds::set))
+                .then();
+    }
+}
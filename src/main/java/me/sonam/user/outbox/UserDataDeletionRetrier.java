@@ -0,0 +1,200 @@
+package me.sonam.user.outbox;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import me.sonam.user.repo.UserDataDeletionFailureRepository;
+import me.sonam.user.repo.entity.UserDataDeletionFailure;
+import me.sonam.user.webclient.AccountWebClient;
+import me.sonam.user.webclient.AuthenticationWebClient;
+import me.sonam.user.webclient.OrganizationWebClient;
+import me.sonam.user.webclient.RoleWebClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries the downstream deletions of user data saved in the user_data_deletion_failure table when
+ * DELETE /users/{organizationId} could not delete the data in a service.  Every poll interval it leases a batch of
+ * due rows and calls deleteUserData of the service again.  A row is deleted once the call succeeds.  A failed call
+ * is retried with exponential backoff until user-data-deletion.retry.max-attempts, after which the row is kept
+ * for an operator to look at.
+ */
+@Component
+public class UserDataDeletionRetrier {
+    private static final Logger LOG = LoggerFactory.getLogger(UserDataDeletionRetrier.class);
+
+    private final UserDataDeletionFailureRepository userDataDeletionFailureRepository;
+    private final AccountWebClient accountWebClient;
+    private final AuthenticationWebClient authenticationWebClient;
+    private final OrganizationWebClient organizationWebClient;
+    private final RoleWebClient roleWebClient;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${user-data-deletion.retry.enabled:true}")
+    private boolean enabled;
+
+    @Value("${user-data-deletion.retry.poll-interval-millis:30000}")
+    private long pollIntervalMillis;
+
+    @Value("${user-data-deletion.retry.batch-size:50}")
+    private int batchSize;
+
+    @Value("${user-data-deletion.retry.lease-seconds:60}")
+    private long leaseSeconds;
+
+    @Value("${user-data-deletion.retry.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${user-data-deletion.retry.initial-backoff-millis:10000}")
+    private long initialBackoffMillis;
+
+    @Value("${user-data-deletion.retry.max-backoff-seconds:3600}")
+    private long maxBackoffSeconds;
+
+    @Value("${user-data-deletion.deadline-millis:10000}")
+    private long deadlineMillis;
+
+    private final AtomicLong backlog = new AtomicLong();
+    // by service, registered on first use
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private Disposable polling;
+
+    public UserDataDeletionRetrier(UserDataDeletionFailureRepository userDataDeletionFailureRepository,
+                                   AccountWebClient accountWebClient, AuthenticationWebClient authenticationWebClient,
+                                   OrganizationWebClient organizationWebClient, RoleWebClient roleWebClient,
+                                   MeterRegistry meterRegistry) {
+        this.userDataDeletionFailureRepository = userDataDeletionFailureRepository;
+        this.accountWebClient = accountWebClient;
+        this.authenticationWebClient = authenticationWebClient;
+        this.organizationWebClient = organizationWebClient;
+        this.roleWebClient = roleWebClient;
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("user.data.deletion.retry.backlog", backlog, AtomicLong::get)
+                .description("downstream user data deletions still to be retried").register(meterRegistry);
+    }
+
+    // starts once the application is ready so the schema migrations have run
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            LOG.info("user data deletion retrier is disabled");
+            return;
+        }
+        LOG.info("starting user data deletion retrier with pollIntervalMillis: {}, batchSize: {}", pollIntervalMillis, batchSize);
+
+        polling = Flux.interval(Duration.ofMillis(pollIntervalMillis))
+                .onBackpressureDrop()
+                .concatMap(tick -> refreshMetrics().then(retry())
+                        .onErrorResume(throwable -> {
+                            LOG.error("user data deletion retry failed: {}", throwable.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (polling != null) {
+            polling.dispose();
+        }
+    }
+
+    /**
+     * leases one batch of due rows and retries their deletions
+     * @return number of rows retried
+     */
+    public Mono<Long> retry() {
+        final UUID owner = UUID.randomUUID();
+        final LocalDateTime now = LocalDateTime.now();
+
+        return userDataDeletionFailureRepository.lease(owner, now.plusSeconds(leaseSeconds), now, maxAttempts, batchSize)
+                .filter(leased -> leased > 0)
+                .flatMapMany(leased -> {
+                    LOG.debug("leased {} user data deletion failures", leased);
+                    return userDataDeletionFailureRepository.findByLeaseOwner(owner);
+                })
+                .concatMap(this::retry)
+                .count();
+    }
+
+    private Mono<UserDataDeletionFailure> retry(UserDataDeletionFailure failure) {
+        return Mono.defer(() -> deleteUserData(failure))
+                .timeout(Duration.ofMillis(deadlineMillis))
+                .then(Mono.defer(() -> {
+                    LOG.info("deleted user data in {} service for userId: {} on attempt: {}", failure.getService(),
+                            failure.getUserId(), failure.getAttempts());
+                    counter("deleted", failure.getService()).increment();
+                    return userDataDeletionFailureRepository.delete(failure);
+                }))
+                .thenReturn(failure)
+                .onErrorResume(throwable -> retryLater(failure, throwable));
+    }
+
+    private Mono<?> deleteUserData(UserDataDeletionFailure failure) {
+        return switch (failure.getService()) {
+            case "account" -> accountWebClient.deleteUserData(failure.getUserId());
+            case "authentication" -> authenticationWebClient.deleteUserData(failure.getUserId());
+            case "organization" -> organizationWebClient.deleteUserData(failure.getOrganizationId(), failure.getUserId());
+            case "role" -> roleWebClient.deleteUserData(failure.getOrganizationId(), failure.getUserId());
+            default -> Mono.error(new IllegalStateException("unknown service: " + failure.getService()));
+        };
+    }
+
+    private Mono<UserDataDeletionFailure> retryLater(UserDataDeletionFailure failure, Throwable throwable) {
+        LOG.error("retry of user data deletion in {} service failed for userId: {}, attempt: {}, error: {}",
+                failure.getService(), failure.getUserId(), failure.getAttempts(), throwable.getMessage());
+
+        failure.setError(throwable.toString());
+        failure.releaseLease();
+
+        if (failure.getAttempts() >= maxAttempts) {
+            counter("failed", failure.getService()).increment();
+        }
+        else {
+            counter("retried", failure.getService()).increment();
+            failure.setNextAttemptAt(LocalDateTime.now().plus(backoff(failure.getAttempts())));
+        }
+
+        return userDataDeletionFailureRepository.save(failure)
+                .onErrorResume(saveError -> {
+                    // the lease expires and the row is picked up again
+                    LOG.error("failed to save user data deletion retry", saveError);
+                    return Mono.just(failure);
+                });
+    }
+
+    // exponential backoff with up to 20% jitter so rows that failed together are not retried together
+    private Duration backoff(int attempts) {
+        long millis = initialBackoffMillis << Math.min(attempts - 1, 20);
+        millis = Math.min(millis, maxBackoffSeconds * 1000);
+        return Duration.ofMillis(millis + ThreadLocalRandom.current().nextLong(millis / 5 + 1));
+    }
+
+    private Counter counter(String outcome, String service) {
+        return counters.computeIfAbsent(outcome + ":" + service, key -> Counter.builder("user.data.deletion.retry")
+                .tag("outcome", outcome).tag("service", service)
+                .description("retries of downstream user data deletions").register(meterRegistry));
+    }
+
+    private Mono<Void> refreshMetrics() {
+        return userDataDeletionFailureRepository.countRetrying(maxAttempts).doOnNext(backlog::set).then();
+    }
+}
@@ -0,0 +1,26 @@
+package me.sonam.user.repo;
+
+import me.sonam.user.repo.entity.IdempotencyKey;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+
+public interface IdempotencyKeyRepository extends ReactiveCrudRepository<IdempotencyKey, String> {
+
+    @Modifying
+    @Query("update idempotency_key set status = :status, response_body = :responseBody where id = :id")
+    Mono<Integer> complete(@Param("id") String id, @Param("status") int status, @Param("responseBody") String responseBody);
+
+    // removes the row only if it is still the one that was read, so two takeovers of a stale key cannot both win
+    @Modifying
+    @Query("delete from idempotency_key where id = :id and created = :created")
+    Mono<Integer> deleteByIdAndCreated(@Param("id") String id, @Param("created") LocalDateTime created);
+
+    @Modifying
+    @Query("delete from idempotency_key where expires_at < :now")
+    Mono<Integer> deleteExpired(@Param("now") LocalDateTime now);
+}
@@ -0,0 +1,172 @@
+package me.sonam.user.repo;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.r2dbc.connection.init.ScriptUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies the versioned sql scripts under {@code db/migration/<vendor>/} in version order and records
+ * each applied version in the {@code schema_version} table, so a script runs only once per database.
+ * Script names follow {@code V<version>__<description>.sql}.  The vendor folder is picked from the
+ * connection factory metadata (postgresql or h2) because the indexes differ between the two.
+ * On PostgreSQL an advisory lock keeps pods that start together from migrating at the same time.
+ * Statements are separated by {@code ;} unless the first line of a script is {@code -- separator: <token>}, for
+ * scripts with statements that contain semicolons themselves, such as PostgreSQL {@code do} blocks.
+ */
+public class SchemaMigration implements InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaMigration.class);
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+    private static final Pattern SEPARATOR = Pattern.compile("--\\s*separator:\\s*(\\S+)\\s*");
+    private static final long ADVISORY_LOCK_KEY = 7_400_112L;
+
+    private final ConnectionFactory connectionFactory;
+    private final String location;
+
+    public SchemaMigration(ConnectionFactory connectionFactory) {
+        this(connectionFactory, "classpath*:db/migration");
+    }
+
+    public SchemaMigration(ConnectionFactory connectionFactory, String location) {
+        this.connectionFactory = connectionFactory;
+        this.location = location;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        migrate().block();
+    }
+
+    public Mono<Void> migrate() {
+        final String vendor = vendor();
+        final List<Migration> migrations = findMigrations(vendor);
+        LOG.info("found {} schema migrations for vendor {}", migrations.size(), vendor);
+
+        return Mono.usingWhen(connectionFactory.create(),
+                connection -> lock(connection, vendor)
+                        .then(execute(connection, "create table if not exists schema_version (version integer primary key, " +
+                                "description varchar(200), installed_on timestamp)"))
+                        .then(appliedVersions(connection))
+                        .flatMapMany(applied -> Flux.fromIterable(migrations)
+                                .filter(migration -> !applied.contains(migration.version())))
+                        .concatMap(migration -> apply(connection, migration))
+                        .then(unlock(connection, vendor)),
+                Connection::close);
+    }
+
+    private Mono<Void> apply(Connection connection, Migration migration) {
+        LOG.info("applying schema migration V{} {}", migration.version(), migration.description());
+
+        return ScriptUtils.executeSqlScript(connection, new EncodedResource(migration.resource()),
+                        DefaultDataBufferFactory.sharedInstance, false, false, ScriptUtils.DEFAULT_COMMENT_PREFIXES,
+                        migration.separator(), ScriptUtils.DEFAULT_BLOCK_COMMENT_START_DELIMITER,
+                        ScriptUtils.DEFAULT_BLOCK_COMMENT_END_DELIMITER)
+                .then(Mono.from(connection.createStatement("insert into schema_version (version, description, installed_on) " +
+                                "values ($1, $2, $3)")
+                        .bind(0, migration.version())
+                        .bind(1, migration.description())
+                        .bind(2, LocalDateTime.now())
+                        .execute()))
+                .flatMap(result -> Mono.from(result.getRowsUpdated()))
+                .then();
+    }
+
+    private Mono<Set<Integer>> appliedVersions(Connection connection) {
+        return Flux.from(connection.createStatement("select version from schema_version").execute())
+                .flatMap(result -> result.map((row, rowMetadata) -> row.get("version", Integer.class)))
+                .collect(HashSet<Integer>::new, Set::add)
+                .map(versions -> (Set<Integer>) versions);
+    }
+
+    private Mono<Void> lock(Connection connection, String vendor) {
+        if (!vendor.equals("postgresql")) {
+            return Mono.empty();
+        }
+        return execute(connection, "select pg_advisory_lock(" + ADVISORY_LOCK_KEY + ")");
+    }
+
+    private Mono<Void> unlock(Connection connection, String vendor) {
+        if (!vendor.equals("postgresql")) {
+            return Mono.empty();
+        }
+        return execute(connection, "select pg_advisory_unlock(" + ADVISORY_LOCK_KEY + ")");
+    }
+
+    private static Mono<Void> execute(Connection connection, String sql) {
+        return Flux.from(connection.createStatement(sql).execute())
+                .flatMap(result -> result.map((row, rowMetadata) -> 1))
+                .then();
+    }
+
+    private String vendor() {
+        String name = connectionFactory.getMetadata().getName().toLowerCase(Locale.ROOT);
+        if (name.contains("postgres")) {
+            return "postgresql";
+        }
+        return name;
+    }
+
+    private List<Migration> findMigrations(String vendor) {
+        try {
+            Resource[] resources = new PathMatchingResourcePatternResolver()
+                    .getResources(location + "/" + vendor + "/V*__*.sql");
+
+            return Arrays.stream(resources).map(resource -> {
+                Matcher matcher = SCRIPT_NAME.matcher(resource.getFilename());
+                if (!matcher.matches()) {
+                    throw new IllegalStateException("schema migration script name is not V<version>__<description>.sql: "
+                            + resource.getFilename());
+                }
+                return new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2).replace('_', ' '), resource,
+                        separator(resource));
+            }).sorted(Comparator.comparingInt(Migration::version)).toList();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("failed to read schema migration scripts", e);
+        }
+    }
+
+    private static String separator(Resource resource) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String firstLine = reader.readLine();
+            if (firstLine != null) {
+                Matcher matcher = SEPARATOR.matcher(firstLine.trim());
+                if (matcher.matches()) {
+                    return matcher.group(1);
+                }
+            }
+            return ScriptUtils.DEFAULT_STATEMENT_SEPARATOR;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("failed to read schema migration script " + resource.getFilename(), e);
+        }
+    }
+
+    private record Migration(int version, String description, Resource resource, String separator) {
+    }
+}
@@ -0,0 +1,36 @@
+package me.sonam.user.repo;
+
+import me.sonam.user.repo.entity.SignupOutbox;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+public interface SignupOutboxRepository extends ReactiveCrudRepository<SignupOutbox, UUID> {
+
+    /**
+     * leases up to limit rows that are due, oldest first, to the owner until leaseUntil.  The lease check is
+     * repeated on the outer update so two dispatchers cannot lease the same row.
+     */
+    @Modifying
+    @Query("update signup_outbox set lease_owner = :owner, lease_until = :leaseUntil, attempts = attempts + 1 " +
+            "where id in (select id from signup_outbox where state <> 'FAILED' and next_attempt_at <= :now " +
+            "and (lease_until is null or lease_until < :now) order by created limit :limit) " +
+            "and (lease_until is null or lease_until < :now)")
+    Mono<Integer> lease(@Param("owner") UUID owner, @Param("leaseUntil") LocalDateTime leaseUntil,
+                        @Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    Flux<SignupOutbox> findByLeaseOwner(UUID leaseOwner);
+    Flux<SignupOutbox> findByUserId(UUID userId);
+
+    @Query("select count(*) from signup_outbox where state <> 'FAILED'")
+    Mono<Long> countPending();
+
+    @Query("select created from signup_outbox where state <> 'FAILED' order by created limit 1")
+    Mono<LocalDateTime> findOldestPendingCreated();
+}
@@ -0,0 +1,34 @@
+package me.sonam.user.repo;
+
+import me.sonam.user.repo.entity.UserDataDeletionFailure;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+public interface UserDataDeletionFailureRepository extends ReactiveCrudRepository<UserDataDeletionFailure, UUID> {
+    Flux<UserDataDeletionFailure> findByUserId(UUID userId);
+
+    /**
+     * leases up to limit due rows with fewer than maxAttempts attempts, oldest first, to the owner until
+     * leaseUntil.  The lease check is repeated on the outer update so two pods cannot lease the same row.
+     */
+    @Modifying
+    @Query("update user_data_deletion_failure set lease_owner = :owner, lease_until = :leaseUntil, attempts = attempts + 1 " +
+            "where id in (select id from user_data_deletion_failure where attempts < :maxAttempts " +
+            "and next_attempt_at <= :now and (lease_until is null or lease_until < :now) order by failed_on limit :limit) " +
+            "and (lease_until is null or lease_until < :now)")
+    Mono<Integer> lease(@Param("owner") UUID owner, @Param("leaseUntil") LocalDateTime leaseUntil,
+                        @Param("now") LocalDateTime now, @Param("maxAttempts") int maxAttempts,
+                        @Param("limit") int limit);
+
+    Flux<UserDataDeletionFailure> findByLeaseOwner(UUID leaseOwner);
+
+    @Query("select count(*) from user_data_deletion_failure where attempts < :maxAttempts")
+    Mono<Long> countRetrying(@Param("maxAttempts") int maxAttempts);
+}
@@ -2,37 +2,84 @@ package me.sonam.user.repo;
 
 
 import me.sonam.user.repo.entity.MyUser;
+import me.sonam.user.repo.entity.SignupStatus;
+import me.sonam.user.repo.entity.UserLookupKeys;
+import me.sonam.user.repo.entity.UserNameMatch;
+import me.sonam.user.repo.entity.UserSignupState;
+import org.springframework.data.r2dbc.repository.Modifying;
 import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
 public interface UserRepository extends ReactiveCrudRepository<MyUser, UUID> {
     Flux<MyUser> findByIdIn(List<UUID> ids);
     Mono<MyUser> findByEmail(String email);
-    Mono<Boolean> existsByEmailIgnoreCaseAndIdNot(String email, UUID id);
+
+    // the IgnoreCase lookups are written out with lower() so they can use the lower(column) indexes,
+    // derived IgnoreCase queries compare with upper() instead
+    @Query("select exists(select 1 from My_User where lower(email) = lower(:email) and id <> :id)")
+    Mono<Boolean> existsByEmailIgnoreCaseAndIdNot(@Param("email") String email, @Param("id") UUID id);
     //Mono<Boolean> existsByEmail(String email);
-    Mono<Boolean> existsByAuthenticationIdIgnoreCase(String authenticationId);
-    Mono<Boolean> existsByAuthenticationIdIgnoreCaseAndActiveTrue(String authenticationId);
+    @Query("select exists(select 1 from My_User where lower(authentication_Id) = lower(:authenticationId))")
+    Mono<Boolean> existsByAuthenticationIdIgnoreCase(@Param("authenticationId") String authenticationId);
+    @Query("select exists(select 1 from My_User where lower(authentication_Id) = lower(:authenticationId) and active = true)")
+    Mono<Boolean> existsByAuthenticationIdIgnoreCaseAndActiveTrue(@Param("authenticationId") String authenticationId);
     //Mono<Integer> deleteByAuthenticationIdAndEmailAndActiveFalse(String authenticationId, String email);
     //Mono<Integer> deleteByEmailAndActiveFalse(String email);
-    Mono<Boolean> existsByEmailIgnoreCaseAndActiveTrue(String email);
-    Mono<Integer> deleteByAuthenticationIdIgnoreCaseAndActiveFalse(String authenticationId);
+    @Query("select exists(select 1 from My_User where lower(email) = lower(:email) and active = true)")
+    Mono<Boolean> existsByEmailIgnoreCaseAndActiveTrue(@Param("email") String email);
+    @Modifying
+    @Query("delete from My_User where lower(authentication_Id) = lower(:authenticationId) and active = false")
+    Mono<Integer> deleteByAuthenticationIdIgnoreCaseAndActiveFalse(@Param("authenticationId") String authenticationId);
     //Mono<Boolean> existsByAuthenticationIdOrEmail(String authenticationId, String email);
-    Mono<Void> deleteByAuthenticationIdIgnoreCase(String authenticationId);
+    @Modifying
+    @Query("delete from My_User where lower(authentication_Id) = lower(:authenticationId)")
+    Mono<Void> deleteByAuthenticationIdIgnoreCase(@Param("authenticationId") String authenticationId);
     Flux<MyUser> findByFirstNameContainingIgnoreCaseAndLastNameContainingIgnoreCase(String firstName, String lastName);
-    Mono<MyUser> findByAuthenticationIdIgnoreCase(String authenticationId);
-    @Query("update My_User mu set mu.first_Name= :firstName, mu.last_Name= :lastName where lower(mu.authentication_Id) = lower(:authenticationId")
+
+    /**
+     * one page of users whose first and last name contain the given lower-cased patterns.  Rows whose names start
+     * with the search words rank first.  The page starts after the keyset position
+     * (afterRank, afterFirstName, afterLastName, afterId) of the last row of the previous page.
+     * The like patterns are expected to be escaped with a backslash.
+     */
+    @Query("select * from (select id, first_name, last_name, email, authentication_Id, profile_photo, searchable, " +
+            "lower(first_name) as first_name_key, lower(last_name) as last_name_key, " +
+            "(case when lower(first_name) like :firstNamePrefix then 0 else 1 end) + " +
+            "(case when lower(last_name) like :lastNamePrefix then 0 else 1 end) as match_rank " +
+            "from My_User where lower(first_name) like :firstNameContains and lower(last_name) like :lastNameContains " +
+            "and (:ignoreSearchable = true or searchable = true)) matches " +
+            "where match_rank > :afterRank or (match_rank = :afterRank and (first_name_key > :afterFirstName " +
+            "or (first_name_key = :afterFirstName and (last_name_key > :afterLastName " +
+            "or (last_name_key = :afterLastName and id > :afterId))))) " +
+            "order by match_rank, first_name_key, last_name_key, id limit :limit")
+    Flux<UserNameMatch> findNameMatches(@Param("firstNameContains") String firstNameContains,
+                                        @Param("lastNameContains") String lastNameContains,
+                                        @Param("firstNamePrefix") String firstNamePrefix,
+                                        @Param("lastNamePrefix") String lastNamePrefix,
+                                        @Param("ignoreSearchable") boolean ignoreSearchable,
+                                        @Param("afterRank") int afterRank,
+                                        @Param("afterFirstName") String afterFirstName,
+                                        @Param("afterLastName") String afterLastName,
+                                        @Param("afterId") UUID afterId,
+                                        @Param("limit") int limit);
+    @Query("select * from My_User where lower(authentication_Id) = lower(:authenticationId)")
+    Mono<MyUser> findByAuthenticationIdIgnoreCase(@Param("authenticationId") String authenticationId);
+    @Modifying
+    @Query("update My_User set first_Name= :firstName, last_Name= :lastName, version = version + 1 " +
+            "where lower(authentication_Id) = lower(:authenticationId)")
     Mono<Integer> updateFirstNameAndLastNameByAuthenticationId(@Param("firstName")String firstName,
                                                               @Param("lastName") String lastName,
                                                               @Param("authenticationId") String authenticationId);
 
     @Query("update My_User set first_Name= :firstName, last_Name= :lastName, email= lower(:email), " +
-            "searchable = :searchable where lower(authentication_Id) = lower(:authenticationId)")
+            "searchable = :searchable, version = version + 1 where lower(authentication_Id) = lower(:authenticationId)")
     Mono<Integer> updateFirstNameAndLastNameAndEmailAndSearchableByAuthenticationId(
             @Param("firstName")String firstName,
             @Param("lastName") String lastName,
@@ -41,15 +88,15 @@ public interface UserRepository extends ReactiveCrudRepository<MyUser, UUID> {
             @Param("authenticationId") String authenticationId);
 
     @Query("update My_User set first_Name= :firstName, last_Name= :lastName, " +
-            " searchable = :searchable where lower(authentication_Id) = lower(:authenticationId)")
+            " searchable = :searchable, version = version + 1 where lower(authentication_Id) = lower(:authenticationId)")
     Mono<Integer> updateFirstNameAndLastNameAndSearchableByAuthenticationId(
             @Param("firstName")String firstName,
             @Param("lastName") String lastName,
             @Param("searchable")boolean searchable,
             @Param("authenticationId") String authenticationId);
 
-    @Query("update My_User set first_Name= :firstName, last_Name= :lastName, email= lower(:email), searchable = :searchable " +
-            " where lower(authentication_Id) = lower(:authenticationId)")
+    @Query("update My_User set first_Name= :firstName, last_Name= :lastName, email= lower(:email), searchable = :searchable, " +
+            " version = version + 1 where lower(authentication_Id) = lower(:authenticationId)")
     Mono<Integer> updateByAuthenticationId(
             @Param("firstName")String firstName,
             @Param("lastName") String lastName,
@@ -57,24 +104,75 @@ public interface UserRepository extends ReactiveCrudRepository<MyUser, UUID> {
             @Param("searchable")boolean searchable,
             @Param("authenticationId") String authenticationId);
 
-    @Query("update My_User set profile_photo= CAST(:profilePhoto AS json) where authentication_Id= :authenticationId")
-    Mono<Integer> updateProfilePhotoByAuthenticationId(@Param("profilePhoto") String profilePhoto, @Param("authenticationId") String authenticationId);
+    @Query("update My_User set profile_photo= CAST(:profilePhoto AS json), thumbnail_url = :thumbnailUrl, " +
+            "version = version + 1 where lower(authentication_Id) = lower(:authenticationId)")
+    Mono<Integer> updateProfilePhotoByAuthenticationId(@Param("profilePhoto") String profilePhoto,
+                                                       @Param("thumbnailUrl") String thumbnailUrl,
+                                                       @Param("authenticationId") String authenticationId);
+
+    // rows saved before the thumbnail_url column, filled by the ThumbnailUrlBackfill
+    @Query("select * from My_User where profile_photo is not null and thumbnail_url is null limit :limit")
+    Flux<MyUser> findWithoutThumbnailUrl(@Param("limit") int limit);
+
+    @Modifying
+    @Query("update My_User set thumbnail_url = :thumbnailUrl, version = version + 1 where id = :id")
+    Mono<Integer> updateThumbnailUrl(@Param("id") UUID id, @Param("thumbnailUrl") String thumbnailUrl);
 
 
-    @Query("update My_User mu set mu.profile_photo_file_key= :profilePhotoFileKey, mu.thumbnail_file_key= :thumbnailFileKey " +
+    @Query("update My_User mu set mu.profile_photo_file_key= :profilePhotoFileKey, mu.thumbnail_file_key= :thumbnailFileKey, mu.version = mu.version + 1 " +
             "where lower(mu.authentication_id) = lower(:authenticationId)")
     Mono<Integer> updateProfilePhoto( @Param("profilePhotoFileKey") String profilePhotoFileKey,
                                       @Param("thumbnailFileKey") String thumbnailFileKey
                                 , @Param("authenticationId")
                                     String authenticationId);
 
-    @Query("update My_user set active=true where lower(authentication_Id) = lower(:authenticationId)")
-    Mono<Integer> updateUserActiveTrue(@Param("authenticationId") String authenticationId);
-    Mono<Boolean> existsByAuthenticationIdIgnoreCaseAndUserAuthAccountCreatedTrue(String authenticationId);
-    Mono<Integer> deleteByAuthenticationIdIgnoreCaseAndUserAuthAccountCreatedFalse(String authenticationId);
-    Mono<Integer> deleteByEmailIgnoreCaseAndUserAuthAccountCreatedFalse(String email);
-    Mono<Boolean> existsByEmailIgnoreCaseAndUserAuthAccountCreatedTrue(String email);
+    // batched activation, the values are already lower-cased
+    @Modifying
+    @Query("update My_User set active = true, version = version + 1 where lower(authentication_id) in (:authenticationIds)")
+    Mono<Integer> updateUsersActiveTrue(@Param("authenticationIds") Collection<String> lowerCaseAuthenticationIds);
+    @Query("select lower(authentication_id) from My_User where lower(authentication_id) in (:authenticationIds)")
+    Flux<String> findAuthenticationIds(@Param("authenticationIds") Collection<String> lowerCaseAuthenticationIds);
+    @Query("select exists(select 1 from My_User where lower(authentication_Id) = lower(:authenticationId) and user_auth_account_created = true)")
+    Mono<Boolean> existsByAuthenticationIdIgnoreCaseAndUserAuthAccountCreatedTrue(@Param("authenticationId") String authenticationId);
+    @Modifying
+    @Query("delete from My_User where lower(authentication_Id) = lower(:authenticationId) and user_auth_account_created = false")
+    Mono<Integer> deleteByAuthenticationIdIgnoreCaseAndUserAuthAccountCreatedFalse(@Param("authenticationId") String authenticationId);
+    @Modifying
+    @Query("delete from My_User where lower(email) = lower(:email) and user_auth_account_created = false")
+    Mono<Integer> deleteByEmailIgnoreCaseAndUserAuthAccountCreatedFalse(@Param("email") String email);
+    @Query("select exists(select 1 from My_User where lower(email) = lower(:email) and user_auth_account_created = true)")
+    Mono<Boolean> existsByEmailIgnoreCaseAndUserAuthAccountCreatedTrue(@Param("email") String email);
 
-    @Query("update My_user set user_auth_account_created=true where lower(authentication_Id) = lower(:authenticationId)")
+    @Query("update My_user set user_auth_account_created=true, version = version + 1 where lower(authentication_Id) = lower(:authenticationId)")
     Mono<Integer> updatedUserAuthAccountCreatedTrue(String authenticationId);
+
+    /**
+     * reads the four signup existence checks for authenticationId and email in one round trip
+     */
+    @Query("select exists(select 1 from My_User where lower(authentication_Id) = lower(:authenticationId) and active = true) as authentication_id_active, " +
+            "exists(select 1 from My_User where lower(authentication_Id) = lower(:authenticationId) and user_auth_account_created = true) as authentication_id_account_created, " +
+            "exists(select 1 from My_User where lower(email) = lower(:email) and active = true) as email_active, " +
+            "exists(select 1 from My_User where lower(email) = lower(:email) and user_auth_account_created = true) as email_account_created")
+    Mono<SignupStatus> findSignupStatus(@Param("authenticationId") String authenticationId, @Param("email") String email);
+
+    // a name is taken when a signup with it would fail, an inactive user without an account can be replaced
+    @Query("select exists(select 1 from My_User where lower(authentication_Id) = :authenticationId " +
+            "and (active = true or user_auth_account_created = true))")
+    Mono<Boolean> existsTakenAuthenticationId(@Param("authenticationId") String lowerCaseAuthenticationId);
+    @Query("select exists(select 1 from My_User where lower(email) = :email " +
+            "and (active = true or user_auth_account_created = true))")
+    Mono<Boolean> existsTakenEmail(@Param("email") String lowerCaseEmail);
+    @Query("select lower(authentication_id) as authentication_id, lower(email) as email from My_User")
+    Flux<UserLookupKeys> findLookupKeys();
+
+    // bulk signup checks and cleanup of a batch, the values are already lower-cased
+    @Query("select lower(authentication_id) as authentication_id, lower(email) as email, active, user_auth_account_created " +
+            "from My_User where lower(authentication_id) in (:authenticationIds) or lower(email) in (:emails)")
+    Flux<UserSignupState> findSignupStates(@Param("authenticationIds") Collection<String> lowerCaseAuthenticationIds,
+                                           @Param("emails") Collection<String> lowerCaseEmails);
+    @Modifying
+    @Query("delete from My_User where user_auth_account_created = false " +
+            "and (lower(authentication_id) in (:authenticationIds) or lower(email) in (:emails))")
+    Mono<Integer> deleteUnfinishedSignups(@Param("authenticationIds") Collection<String> lowerCaseAuthenticationIds,
+                                          @Param("emails") Collection<String> lowerCaseEmails);
 }
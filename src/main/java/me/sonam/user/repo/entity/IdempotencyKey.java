@@ -0,0 +1,65 @@
+package me.sonam.user.repo.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+
+/**
+ * an Idempotency-Key sent with a request, scoped to the endpoint and caller, with a fingerprint of the request
+ * body.  The status and response body are set once the first request with the key succeeded.
+ */
+public class IdempotencyKey implements Persistable<String> {
+    @Id
+    private String id;
+    private String fingerprint;
+    private Integer status;
+    private String responseBody;
+    private LocalDateTime created;
+    private LocalDateTime expiresAt;
+
+    @Transient
+    private boolean newKey;
+
+    public IdempotencyKey() {
+    }
+
+    public IdempotencyKey(String id, String fingerprint, LocalDateTime created, LocalDateTime expiresAt) {
+        this.id = id;
+        this.fingerprint = fingerprint;
+        this.created = created;
+        this.expiresAt = expiresAt;
+        this.newKey = true;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isNew() {
+        return newKey;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+    public LocalDateTime getCreated() {
+        return created;
+    }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -24,12 +24,17 @@ public class MyUser implements Persistable<UUID> {
     private Boolean active;
     private Boolean userAuthAccountCreated;
     private String profilePhoto;
+    // thumbnailUrl of the profilePhoto json, set when the profilePhoto is updated
+    private String thumbnailUrl;
     private Boolean searchable;
 
     // these can be populated after login
     private LocalDate birthDate;
     private UUID genderId;
 
+    // incremented by the update queries of UserRepository
+    private long version;
+
     @Transient
     private boolean newAccount;
 
@@ -93,6 +98,10 @@ public class MyUser implements Persistable<UUID> {
         return genderId;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public boolean isNewAccount() {
         return newAccount;
     }
@@ -117,6 +126,14 @@ public class MyUser implements Persistable<UUID> {
         return profilePhoto;
     }
 
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public void setThumbnailUrl(String thumbnailUrl) {
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
     public Boolean getSearchable() {
         return searchable;
     }
@@ -142,6 +159,7 @@ public class MyUser implements Persistable<UUID> {
                 ", genderId=" + genderId +
                 ", newAccount=" + newAccount +
                 ", profilePhoto=" + profilePhoto +
+                ", thumbnailUrl=" + thumbnailUrl +
                 '}';
     }
 
@@ -0,0 +1,184 @@
+package me.sonam.user.repo.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * remote calls still to be made for a signup.  A row is written in the same transaction as the user row and
+ * moves through the states in {@link State} as the dispatcher calls the downstream services.
+ * The password is stored encrypted, see {@link me.sonam.user.outbox.OutboxPasswordCipher}, and only until the
+ * authentication record is created.
+ */
+public class SignupOutbox implements Persistable<UUID> {
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    public enum State {
+        // delete authentication and account records left by an earlier signup with the same username or email
+        PENDING_CLEANUP,
+        PENDING_AUTHENTICATION,
+        PENDING_ACCOUNT,
+        // gave up after signup-outbox.max-attempts, kept for an operator to look at
+        FAILED
+    }
+
+    @Id
+    private UUID id;
+    private UUID userId;
+    private String authenticationId;
+    private String email;
+    private String fullName;
+    // encrypted
+    private String password;
+    private Boolean active;
+    private Boolean passwordSet;
+    private String activationHost;
+    private String state;
+    private Integer attempts;
+    private LocalDateTime nextAttemptAt;
+    private UUID leaseOwner;
+    private LocalDateTime leaseUntil;
+    private String lastError;
+    private LocalDateTime created;
+    private LocalDateTime updated;
+
+    @Transient
+    private boolean newOutbox;
+
+    public SignupOutbox() {
+    }
+
+    public SignupOutbox(MyUser myUser, String encryptedPassword, boolean passwordSet, String activationHost) {
+        this.id = UUID.randomUUID();
+        this.userId = myUser.getId();
+        this.authenticationId = myUser.getAuthenticationId();
+        this.email = myUser.getEmail();
+        this.fullName = myUser.getFirstName() + " " + myUser.getLastName();
+        this.password = encryptedPassword;
+        this.active = myUser.getActive();
+        this.passwordSet = passwordSet;
+        this.activationHost = activationHost;
+        this.state = State.PENDING_CLEANUP.name();
+        this.attempts = 0;
+        this.created = LocalDateTime.now();
+        this.updated = created;
+        this.nextAttemptAt = created;
+        this.newOutbox = true;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isNew() {
+        return newOutbox;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+    public String getAuthenticationId() {
+        return authenticationId;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public Boolean getActive() {
+        return active;
+    }
+
+    public Boolean getPasswordSet() {
+        return passwordSet;
+    }
+
+    public String getActivationHost() {
+        return activationHost;
+    }
+
+    public State getState() {
+        return State.valueOf(state);
+    }
+
+    public void setState(State state) {
+        this.state = state.name();
+        this.updated = LocalDateTime.now();
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public LocalDateTime getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(LocalDateTime nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public UUID getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public LocalDateTime getLeaseUntil() {
+        return leaseUntil;
+    }
+
+    public void releaseLease() {
+        this.leaseOwner = null;
+        this.leaseUntil = null;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError != null && lastError.length() > MAX_ERROR_LENGTH ?
+                lastError.substring(0, MAX_ERROR_LENGTH) : lastError;
+    }
+
+    public LocalDateTime getCreated() {
+        return created;
+    }
+
+    public LocalDateTime getUpdated() {
+        return updated;
+    }
+
+    @Override
+    public String toString() {
+        return "SignupOutbox{" +
+                "id=" + id +
+                ", userId=" + userId +
+                ", authenticationId='" + authenticationId + '\'' +
+                ", state='" + state + '\'' +
+                ", attempts=" + attempts +
+                ", nextAttemptAt=" + nextAttemptAt +
+                ", leaseOwner=" + leaseOwner +
+                ", leaseUntil=" + leaseUntil +
+                ", lastError='" + lastError + '\'' +
+                ", created=" + created +
+                '}';
+    }
+}
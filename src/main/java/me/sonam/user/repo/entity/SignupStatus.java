@@ -0,0 +1,9 @@
+package me.sonam.user.repo.entity;
+
+/**
+ * projection of the existing user rows that block a signup for an authenticationId and email.
+ * This is read in a single query by {@link me.sonam.user.repo.UserRepository#findSignupStatus(String, String)}.
+ */
+public record SignupStatus(boolean authenticationIdActive, boolean authenticationIdAccountCreated,
+                           boolean emailActive, boolean emailAccountCreated) {
+}
@@ -0,0 +1,120 @@
+package me.sonam.user.repo.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * a downstream service that failed to delete the data of a user, kept so the
+ * {@link me.sonam.user.outbox.UserDataDeletionRetrier} retries the deletion.  The row is deleted once the service
+ * deleted the data, or kept for an operator after user-data-deletion.retry.max-attempts.
+ */
+public class UserDataDeletionFailure implements Persistable<UUID> {
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    @Id
+    private UUID id;
+    private UUID userId;
+    private UUID organizationId;
+    private String service;
+    private String error;
+    private LocalDateTime failedOn;
+    private Integer attempts;
+    private LocalDateTime nextAttemptAt;
+    private UUID leaseOwner;
+    private LocalDateTime leaseUntil;
+
+    @Transient
+    private boolean newFailure;
+
+    public UserDataDeletionFailure() {
+    }
+
+    public UserDataDeletionFailure(UUID userId, UUID organizationId, String service, String error) {
+        this.id = UUID.randomUUID();
+        this.userId = userId;
+        this.organizationId = organizationId;
+        this.service = service;
+        setError(error);
+        this.failedOn = LocalDateTime.now();
+        this.attempts = 0;
+        this.nextAttemptAt = failedOn;
+        this.newFailure = true;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isNew() {
+        return newFailure;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+    public UUID getOrganizationId() {
+        return organizationId;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error != null && error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+
+    public LocalDateTime getFailedOn() {
+        return failedOn;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public LocalDateTime getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(LocalDateTime nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public UUID getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public LocalDateTime getLeaseUntil() {
+        return leaseUntil;
+    }
+
+    public void releaseLease() {
+        this.leaseOwner = null;
+        this.leaseUntil = null;
+    }
+
+    @Override
+    public String toString() {
+        return "UserDataDeletionFailure{" +
+                "id=" + id +
+                ", userId=" + userId +
+                ", organizationId=" + organizationId +
+                ", service='" + service + '\'' +
+                ", error='" + error + '\'' +
+                ", failedOn=" + failedOn +
+                ", attempts=" + attempts +
+                ", nextAttemptAt=" + nextAttemptAt +
+                '}';
+    }
+}
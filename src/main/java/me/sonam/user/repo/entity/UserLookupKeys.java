@@ -0,0 +1,7 @@
+package me.sonam.user.repo.entity;
+
+/**
+ * lower-cased authenticationId and email of a user row, streamed to build the availability filter
+ */
+public record UserLookupKeys(String authenticationId, String email) {
+}
@@ -0,0 +1,14 @@
+package me.sonam.user.repo.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.UUID;
+
+/**
+ * projection of a user row returned by the name search.  The match rank and lower-cased name keys
+ * are the keyset position of the row and are only used to build the next page cursor.
+ */
+public record UserNameMatch(UUID id, String firstName, String lastName, String email, String authenticationId,
+                            String profilePhoto, Boolean searchable,
+                            @JsonIgnore int matchRank, @JsonIgnore String firstNameKey, @JsonIgnore String lastNameKey) {
+}
@@ -0,0 +1,8 @@
+package me.sonam.user.repo.entity;
+
+/**
+ * lower-cased authenticationId and email of an existing user with the flags that decide whether a signup with the
+ * same names is allowed, read for a whole bulk signup batch at once
+ */
+public record UserSignupState(String authenticationId, String email, Boolean active, Boolean userAuthAccountCreated) {
+}
@@ -0,0 +1,18 @@
+package me.sonam.user.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * parses the comma separated ids of GET /users/ids/{ids}
+ */
+public class IdList {
+
+    /**
+     * @throws IllegalArgumentException when an id is not a UUID
+     */
+    public static List<UUID> parse(String commaSeparatedIds) {
+        return Arrays.stream(commaSeparatedIds.split(",")).map(UUID::fromString).toList();
+    }
+}
@@ -7,20 +7,24 @@ import com.google.gson.JsonPrimitive;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * reads the thumbnailUrl out of the profilePhoto json.  It is called when the profilePhoto is updated and by the
+ * {@link ThumbnailUrlBackfill}, the result is stored in the thumbnail_url column so reads do not parse the json.
+ */
 public class ProfilePhotoUrl {
     private static final Logger LOG = LoggerFactory.getLogger(ProfilePhotoUrl.class);
 
     public static String getProfileUrl(String profilePhotoJson) {
-        LOG.info("got profilePhoto json: {}", profilePhotoJson);
+        LOG.debug("got profilePhoto json: {}", profilePhotoJson);
 
         if (profilePhotoJson == null || profilePhotoJson.isEmpty()) {
-            LOG.info("profilePhoto json is empty or null, return empty string");
+            LOG.debug("profilePhoto json is empty or null, return empty string");
             return "";
         }
         try {
             JsonElement jsonElement = JsonParser.parseString(profilePhotoJson);
-            LOG.info("jsonElement: {}", jsonElement.toString());
-            LOG.info("json.instance of {}", jsonElement.getClass());
+            LOG.debug("jsonElement: {}", jsonElement.toString());
+            LOG.debug("json.instance of {}", jsonElement.getClass());
 
             JsonObject jsonObject2 = null;
             if (jsonElement.isJsonPrimitive()) {
@@ -29,16 +33,16 @@ public class ProfilePhotoUrl {
                 LOG.debug("json primitive: {}", jsonPrimitive);
                 LOG.debug("jsonPrimitive.string: {}", jsonPrimitive.getAsString());
                 JsonElement jsonElement2 = JsonParser.parseString(jsonPrimitive.getAsString());
-                LOG.info("jsonPrimitive to jsonElement.isJsonObject ?: {}", jsonElement2.isJsonObject());
+                LOG.debug("jsonPrimitive to jsonElement.isJsonObject ?: {}", jsonElement2.isJsonObject());
 
                 jsonObject2 = jsonElement2.getAsJsonObject();
                 final String thumbnailUrl = jsonObject2.get("thumbnailUrl").getAsString();
-                LOG.info("jsonPrimitive thumbnailUrl: {}", thumbnailUrl);
+                LOG.debug("jsonPrimitive thumbnailUrl: {}", thumbnailUrl);
                 return thumbnailUrl;
             } else if (jsonElement.isJsonObject()) {
                 JsonObject jsonObject = jsonElement.getAsJsonObject();
                 final String thumbnailUrl = jsonObject.get("thumbnailUrl").getAsString();
-                LOG.info("thumbnailUrl: {}", thumbnailUrl);
+                LOG.debug("thumbnailUrl: {}", thumbnailUrl);
                 return thumbnailUrl;
             } else {
                 return "empty";
@@ -46,7 +50,7 @@ public class ProfilePhotoUrl {
         }
         catch (Exception e) {
             LOG.error("profilePhoto json is not in valid format: {}", e.getMessage());
-            LOG.info("exception stack trace is", e);
+            LOG.debug("exception stack trace is", e);
             return "";
         }
     }
@@ -0,0 +1,65 @@
+package me.sonam.user.util;
+
+import me.sonam.user.cache.UserCache;
+import me.sonam.user.repo.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Fills the thumbnail_url column of users whose profilePhoto was saved before the column existed.  It runs once
+ * when the application is ready, in batches of thumbnail-url-backfill.batch-size, until no such rows are left.
+ * A profilePhoto json without a thumbnailUrl gets an empty thumbnail_url so the row is not read again.
+ * Running it on several pods at once is safe as each pod writes the same value.
+ */
+@Component
+public class ThumbnailUrlBackfill {
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailUrlBackfill.class);
+
+    private final UserRepository userRepository;
+    private final UserCache userCache;
+
+    @Value("${thumbnail-url-backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${thumbnail-url-backfill.batch-size:500}")
+    private int batchSize;
+
+    public ThumbnailUrlBackfill(UserRepository userRepository, UserCache userCache) {
+        this.userRepository = userRepository;
+        this.userCache = userCache;
+    }
+
+    // starts once the application is ready so the schema migrations have run
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            LOG.info("thumbnail url backfill is disabled");
+            return;
+        }
+
+        backfill().subscribe(count -> LOG.info("backfilled thumbnail url of {} users", count),
+                throwable -> LOG.error("thumbnail url backfill failed: {}", throwable.getMessage()));
+    }
+
+    /**
+     * @return number of users updated
+     */
+    public Mono<Long> backfill() {
+        return backfillBatch()
+                .expand(updated -> updated == batchSize ? backfillBatch() : Mono.empty())
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Long> backfillBatch() {
+        return userRepository.findWithoutThumbnailUrl(batchSize)
+                .concatMap(myUser -> userRepository.updateThumbnailUrl(myUser.getId(),
+                        ProfilePhotoUrl.getProfileUrl(myUser.getProfilePhoto()))
+                        .doOnSuccess(rows -> userCache.evict(myUser.getId())))
+                .count();
+    }
+}
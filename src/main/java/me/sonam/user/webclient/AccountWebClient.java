@@ -13,10 +13,12 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 
+import static me.sonam.user.metrics.WebClientMetricsFilter.OPERATION;
+
 public class AccountWebClient {
     private static final Logger LOG = LoggerFactory.getLogger(AccountWebClient.class);
 
-    private final WebClient.Builder webClientBuilder;
+    private final WebClient webClient;
 
     private final String accountEndpoint;
 
@@ -24,7 +26,7 @@ public class AccountWebClient {
 
     public AccountWebClient(WebClient.Builder webClientBuilder,
                             String accountEndpoint, UserRepository userRepository) {
-        this.webClientBuilder = webClientBuilder;
+        this.webClient = webClientBuilder.build();
         this.accountEndpoint = accountEndpoint;
         this.userRepository = userRepository;
     }
@@ -32,6 +34,31 @@ public class AccountWebClient {
     public Mono<String>
     createAccount(String fullName, String authenticationId, UUID userId, String email, boolean active,
                                       Boolean passwordSet, String activationHost) {
+        return postAccount(fullName, authenticationId, userId, email, active, passwordSet, activationHost)
+                .flatMap(s -> userRepository.updatedUserAuthAccountCreatedTrue(authenticationId).thenReturn(s))
+                .onErrorResume(throwable -> {
+                    LOG.debug("exception occurred when calling create account endpoint", throwable);
+                    LOG.error("create account rest call failed: {}", throwable.getMessage());
+                    if (throwable instanceof WebClientResponseException webClientResponseException) {
+                    LOG.error("error body contains: {}", webClientResponseException.getResponseBodyAsString());
+
+                    return userRepository.deleteByAuthenticationIdIgnoreCase(authenticationId)
+                            .then(
+                                    Mono.error(new SignupException("Account api call failed with error: " +
+                                            webClientResponseException.getResponseBodyAsString())));
+                }
+                else {
+                    return Mono.error(new SignupException("Account api call failed with error: " +throwable.getMessage()));
+                }
+        });
+    }
+
+    /**
+     * creates the Account record and returns the account service message.  It does not update or delete the
+     * user row, for callers that retry.
+     */
+    public Mono<String> postAccount(String fullName, String authenticationId, UUID userId, String email, boolean active,
+                                    Boolean passwordSet, String activationHost) {
         LOG.info("create Account record with http call on endpoint: {}", accountEndpoint);
 
         LOG.debug("active for createAccount is {}", active);
@@ -46,30 +73,14 @@ public class AccountWebClient {
             body.put("activationHost", activationHost);
         }
 
-        WebClient.ResponseSpec spec = webClientBuilder.build().post().uri(accountEndpoint)
+        WebClient.ResponseSpec spec = webClient.post().uri(accountEndpoint).attribute(OPERATION, "createAccount")
                 .bodyValue(body).retrieve();
 
         return spec.bodyToMono(new ParameterizedTypeReference<Map<String, String>>() {})
                 .doOnNext(map -> {
                     LOG.info("account has been created with response: {}", map.get("message"));
                 })
-                .map(map -> map.get("message"))
-                .flatMap(s -> userRepository.updatedUserAuthAccountCreatedTrue(authenticationId).thenReturn(s))
-                .onErrorResume(throwable -> {
-                    LOG.debug("exception occurred when calling create account endpoint", throwable);
-                    LOG.error("create account rest call failed: {}", throwable.getMessage());
-                    if (throwable instanceof WebClientResponseException webClientResponseException) {
-                    LOG.error("error body contains: {}", webClientResponseException.getResponseBodyAsString());
-
-                    return userRepository.deleteByAuthenticationIdIgnoreCase(authenticationId)
-                            .then(
-                                    Mono.error(new SignupException("Account api call failed with error: " +
-                                            webClientResponseException.getResponseBodyAsString())));
-                }
-                else {
-                    return Mono.error(new SignupException("Account api call failed with error: " +throwable.getMessage()));
-                }
-        });
+                .map(map -> map.get("message"));
     }
 
     public Mono<? extends String> deleteAccountByEmail(String email) {
@@ -79,7 +90,7 @@ public class AccountWebClient {
 
         LOG.info("accountEp: {}", endpoint);
 
-        WebClient.ResponseSpec responseSpec = webClientBuilder.build().put().uri(endpoint)
+        WebClient.ResponseSpec responseSpec = webClient.put().uri(endpoint).attribute(OPERATION, "deleteAccountByEmail")
                 .bodyValue(Map.of("email", email)).retrieve();
 
         return responseSpec.bodyToMono(String.class).map(string -> {//Map.class).map(map -> {
@@ -95,7 +106,7 @@ public class AccountWebClient {
     public Mono<String> deleteUserData(UUID userId) {
         final String endpoint = accountEndpoint + "/users/" + userId;
         LOG.info("delete my account endpoint: {}", endpoint);
-        WebClient.ResponseSpec responseSpec = webClientBuilder.build().delete().uri(endpoint)
+        WebClient.ResponseSpec responseSpec = webClient.delete().uri(endpoint).attribute(OPERATION, "deleteUserData")
                 .retrieve();
         return responseSpec.bodyToMono(String.class);
     }
@@ -12,22 +12,37 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
+import static me.sonam.user.metrics.WebClientMetricsFilter.OPERATION;
+
 public class AuthenticationWebClient {
     private static final Logger LOG = LoggerFactory.getLogger(AuthenticationWebClient.class);
 
-    private final WebClient.Builder webClientBuilder;
+    private final WebClient webClient;
 
     private final String authenticationEndpoint;
     private UserRepository userRepository;
 
     public AuthenticationWebClient(WebClient.Builder webClientBuilder,
                                    String authenticationEndpoint, UserRepository userRepository) {
-        this.webClientBuilder = webClientBuilder;
+        this.webClient = webClientBuilder.build();
         this.authenticationEndpoint = authenticationEndpoint;
         this.userRepository = userRepository;
     }
 
     public Mono<String> create(String authenticationId, String password, UUID userId, boolean active) {
+        return createAuthentication(authenticationId, password, userId, active).onErrorResume(throwable -> {
+            LOG.error("authentication rest call failed: {}", throwable.getMessage());
+
+            LOG.info("rollback userRepository by deleting authenticationId");
+            return userRepository.deleteByAuthenticationIdIgnoreCase(authenticationId).then(
+                    Mono.error(new SignupException("Authentication api call failed with error: " + throwable.getMessage())));
+        });
+    }
+
+    /**
+     * creates the Authentication record without deleting the user on failure, for callers that retry
+     */
+    public Mono<String> createAuthentication(String authenticationId, String password, UUID userId, boolean active) {
         LOG.info("call authentication endpoint to create Authentication record {}", authenticationEndpoint);
 
         Map<String, String> payloadMap = new HashMap<>();
@@ -37,24 +52,18 @@ public class AuthenticationWebClient {
         payloadMap.put("active", String.valueOf(active));
 
         LOG.debug("map.active {} vs active {}", payloadMap.get("active"), active);
-        WebClient.ResponseSpec responseSpec = webClientBuilder.build().post().uri(authenticationEndpoint).bodyValue(payloadMap).retrieve();
+        WebClient.ResponseSpec responseSpec = webClient.post().uri(authenticationEndpoint).attribute(OPERATION, "createAuthentication").bodyValue(payloadMap).retrieve();
 
         return responseSpec.bodyToMono(new ParameterizedTypeReference<Map<String, String>>() {}).map(map -> {
             LOG.info("got back authenticationId from service call: {}", map.get("message"));
             return map.get("message");
-        }).onErrorResume(throwable -> {
-            LOG.error("authentication rest call failed: {}", throwable.getMessage());
-
-            LOG.info("rollback userRepository by deleting authenticationId");
-            return userRepository.deleteByAuthenticationIdIgnoreCase(authenticationId).then(
-                    Mono.error(new SignupException("Authentication api call failed with error: " + throwable.getMessage())));
         });
     }
 
     public Mono<Map<String, String>> deleteByAuthenticationId(String authenticationId) {
         String deleteByAuthenticationIdEndpoint = authenticationEndpoint+"/"+authenticationId;
         LOG.info("delete authentication by authenticationId endpoint: {}", deleteByAuthenticationIdEndpoint);
-        WebClient.ResponseSpec responseSpec = webClientBuilder.build().delete().uri(deleteByAuthenticationIdEndpoint)
+        WebClient.ResponseSpec responseSpec = webClient.delete().uri(deleteByAuthenticationIdEndpoint).attribute(OPERATION, "deleteByAuthenticationId")
                 .retrieve();
         return responseSpec.bodyToMono(new ParameterizedTypeReference<Map<String, String>>() {}).doOnNext(map -> {
             LOG.debug("got response back: {}", map);
@@ -67,7 +76,7 @@ public class AuthenticationWebClient {
     public Mono<String> deleteUserData(UUID userId) {
         final String endpoint = authenticationEndpoint + "/users/" + userId;
         LOG.info("delete my authentication account endpoint: {}", endpoint);
-        WebClient.ResponseSpec responseSpec = webClientBuilder.build().delete().uri(endpoint)
+        WebClient.ResponseSpec responseSpec = webClient.delete().uri(endpoint).attribute(OPERATION, "deleteUserData")
                 .retrieve();
         return responseSpec.bodyToMono(String.class).doOnNext(s -> {
             LOG.debug("got response for deleteUserData call to endpoint{} {}", endpoint, s);
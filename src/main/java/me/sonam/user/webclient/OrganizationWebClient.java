@@ -7,23 +7,25 @@ import reactor.core.publisher.Mono;
 
 import java.util.UUID;
 
+import static me.sonam.user.metrics.WebClientMetricsFilter.OPERATION;
+
 public class OrganizationWebClient {
     private static final Logger LOG = LoggerFactory.getLogger(OrganizationWebClient.class);
 
-    private final WebClient.Builder webClientBuilder;
+    private final WebClient webClient;
 
     private final String deleteMyOrganization;
 
     public OrganizationWebClient(WebClient.Builder webClientBuilder,
                                  String deleteMyOrganization) {
-        this.webClientBuilder = webClientBuilder;
+        this.webClient = webClientBuilder.build();
         this.deleteMyOrganization = deleteMyOrganization;
     }
 
     public Mono<String> deleteUserData(UUID organizationId, UUID userId) {
         final String endpoint = deleteMyOrganization + "/" + organizationId + "/users/" + userId + "/data";
         LOG.info("delete my organization account endpoint: {}", endpoint);
-        WebClient.ResponseSpec responseSpec = webClientBuilder.build().delete().uri(endpoint)
+        WebClient.ResponseSpec responseSpec = webClient.delete().uri(endpoint).attribute(OPERATION, "deleteUserData")
                 .retrieve();
         return responseSpec.bodyToMono(String.class);
     }
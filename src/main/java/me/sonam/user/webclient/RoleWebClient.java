@@ -7,16 +7,18 @@ import reactor.core.publisher.Mono;
 
 import java.util.UUID;
 
+import static me.sonam.user.metrics.WebClientMetricsFilter.OPERATION;
+
 public class RoleWebClient {
     private static final Logger LOG = LoggerFactory.getLogger(RoleWebClient.class);
 
-    private final WebClient.Builder webClientBuilder;
+    private final WebClient webClient;
 
     private final String deleteMyRole;
 
     public RoleWebClient(WebClient.Builder webClientBuilder,
                          String deleteMyRole) {
-        this.webClientBuilder = webClientBuilder;
+        this.webClient = webClientBuilder.build();
         this.deleteMyRole = deleteMyRole;
     }
 
@@ -24,7 +26,7 @@ public class RoleWebClient {
         final String endpoint = deleteMyRole + "/organizations/" + organizationId + "/users/" + userId;
         LOG.info("delete my role endpoint: {}", endpoint);
 
-        WebClient.ResponseSpec responseSpec = webClientBuilder.build().delete().uri(endpoint)
+        WebClient.ResponseSpec responseSpec = webClient.delete().uri(endpoint).attribute(OPERATION, "deleteUserData")
                 .retrieve();
         return responseSpec.bodyToMono(String.class);
     }
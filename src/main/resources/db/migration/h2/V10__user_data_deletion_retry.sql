@@ -0,0 +1,8 @@
+-- failed downstream deletions are retried by the UserDataDeletionRetrier, leased like the signup outbox rows
+alter table user_data_deletion_failure add column if not exists attempts integer default 0;
+alter table user_data_deletion_failure add column if not exists next_attempt_at timestamp;
+alter table user_data_deletion_failure add column if not exists lease_owner UUID;
+alter table user_data_deletion_failure add column if not exists lease_until timestamp;
+update user_data_deletion_failure set attempts = 0, next_attempt_at = failed_on where next_attempt_at is null;
+create index if not exists user_data_deletion_failure_next_attempt_at_idx on user_data_deletion_failure (next_attempt_at);
+create index if not exists user_data_deletion_failure_lease_owner_idx on user_data_deletion_failure (lease_owner);
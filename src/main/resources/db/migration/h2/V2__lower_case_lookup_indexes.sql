@@ -0,0 +1,3 @@
+-- H2 has no expression or partial indexes, so the test database gets plain column indexes
+create index if not exists my_user_authentication_id_idx on My_User (authentication_id);
+create index if not exists my_user_email_idx on My_User (email);
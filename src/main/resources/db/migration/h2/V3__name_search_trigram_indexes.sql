@@ -0,0 +1,2 @@
+-- H2 has no trigram index, the test database keeps a plain index on the name columns
+create index if not exists my_user_first_name_last_name_idx on My_User (first_name, last_name);
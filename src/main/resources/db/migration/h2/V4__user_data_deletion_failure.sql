@@ -0,0 +1,4 @@
+-- downstream deletions of user data that failed and are to be retried
+create table if not exists user_data_deletion_failure (id UUID PRIMARY KEY, user_id UUID, organization_id UUID,
+ service varchar(50), error varchar(500), failed_on timestamp);
+create index if not exists user_data_deletion_failure_user_id_idx on user_data_deletion_failure (user_id);
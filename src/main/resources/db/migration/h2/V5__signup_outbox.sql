@@ -0,0 +1,7 @@
+-- remote calls of a signup, written with the user row and sent by the signup outbox dispatcher
+create table if not exists signup_outbox (id UUID PRIMARY KEY, user_id UUID, authentication_id varchar, email varchar,
+ full_name varchar, password varchar, active boolean, password_set boolean, activation_host varchar,
+ state varchar(30), attempts integer, next_attempt_at timestamp, lease_owner UUID, lease_until timestamp,
+ last_error varchar(500), created timestamp, updated timestamp);
+create index if not exists signup_outbox_state_next_attempt_at_idx on signup_outbox (state, next_attempt_at);
+create index if not exists signup_outbox_lease_owner_idx on signup_outbox (lease_owner);
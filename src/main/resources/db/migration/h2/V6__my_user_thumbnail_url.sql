@@ -0,0 +1,2 @@
+-- thumbnail url taken from profile_photo when the photo is updated, so reads do not parse the json
+alter table My_User add column if not exists thumbnail_url varchar;
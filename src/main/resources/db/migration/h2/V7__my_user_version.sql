@@ -0,0 +1,2 @@
+-- incremented by every update of a user row, the user read endpoints use it for their ETag
+alter table My_User add column if not exists version bigint default 0 not null;
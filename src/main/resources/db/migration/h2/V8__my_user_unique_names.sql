@@ -0,0 +1,6 @@
+-- H2 has no expression indexes, so the lower-cased username and email are kept in generated columns that carry the
+-- unique indexes, matching the lower() unique indexes on Postgres
+alter table My_User add column if not exists authentication_id_lower varchar generated always as (lower(authentication_id));
+alter table My_User add column if not exists email_lower varchar generated always as (lower(email));
+create unique index if not exists my_user_lower_authentication_id_uidx on My_User (authentication_id_lower);
+create unique index if not exists my_user_lower_email_uidx on My_User (email_lower);
@@ -0,0 +1,5 @@
+-- responses of POST /users and PUT /users kept for their Idempotency-Key header, status is null while the first
+-- request with the key is running
+create table if not exists idempotency_key (id varchar(400) PRIMARY KEY, fingerprint varchar(64), status integer,
+ response_body varchar, created timestamp, expires_at timestamp);
+create index if not exists idempotency_key_expires_at_idx on idempotency_key (expires_at);
@@ -0,0 +1,27 @@
+-- separator: @@
+-- case-insensitive lookups in UserRepository compare lower(column) = lower(:value)
+create index if not exists my_user_lower_authentication_id_idx on My_User (lower(authentication_id))@@
+create index if not exists my_user_lower_email_idx on My_User (lower(email))@@
+
+-- only one active user per username and per email.  Active users that share a lower-cased username or email fail
+-- the migration with the list of them, to be resolved by hand as described in the README before starting again.
+do $$
+declare
+    duplicates text;
+begin
+    select string_agg(duplicate, ', ') into duplicates from (
+        select 'username ' || lower(authentication_id) || ' (' || count(*) || ' users)' as duplicate from My_User
+            where active = true group by lower(authentication_id) having count(*) > 1
+        union all
+        select 'email ' || lower(email) || ' (' || count(*) || ' users)' from My_User
+            where active = true group by lower(email) having count(*) > 1) active_duplicates;
+
+    if duplicates is not null then
+        raise exception 'V2: active users share a lower-cased username or email: %', duplicates
+            using hint = 'deactivate or rename all but one of them, see Database schema migrations in the README';
+    end if;
+end
+$$@@
+
+create unique index if not exists my_user_active_authentication_id_uidx on My_User (lower(authentication_id)) where active = true@@
+create unique index if not exists my_user_active_email_uidx on My_User (lower(email)) where active = true@@
@@ -0,0 +1,4 @@
+-- trigram indexes let lower(name) like '%word%' in the name search use an index instead of a table scan
+create extension if not exists pg_trgm;
+create index if not exists my_user_lower_first_name_trgm_idx on My_User using gin (lower(first_name) gin_trgm_ops);
+create index if not exists my_user_lower_last_name_trgm_idx on My_User using gin (lower(last_name) gin_trgm_ops);
@@ -0,0 +1,37 @@
+-- separator: @@
+-- a signup replaces the unfinished signup of the same username or email, so each lower-cased username and email
+-- belongs to one user.  Unfinished signups left next to another row by concurrent signups are dropped first,
+-- keeping the finished user or else one of the unfinished ones.
+delete from My_User u where u.active = false and u.user_auth_account_created = false and exists (
+    select 1 from My_User o where o.id <> u.id
+        and (lower(o.authentication_id) = lower(u.authentication_id) or lower(o.email) = lower(u.email))
+        and (o.active = true or o.user_auth_account_created = true or o.id > u.id))@@
+
+-- what is left shares a name between finished users, active or with an authentication account, which only an
+-- operator can resolve.  These fail the migration with the list of them before the indexes are built, see the README.
+do $$
+declare
+    duplicates text;
+begin
+    select string_agg(duplicate, ', ') into duplicates from (
+        select 'username ' || lower(authentication_id) || ' (' || count(*) || ' users)' as duplicate from My_User
+            group by lower(authentication_id) having count(*) > 1
+        union all
+        select 'email ' || lower(email) || ' (' || count(*) || ' users)' from My_User
+            group by lower(email) having count(*) > 1) finished_duplicates;
+
+    if duplicates is not null then
+        raise exception 'V8: users share a lower-cased username or email: %', duplicates
+            using hint = 'delete or rename all but one of them, see Database schema migrations in the README';
+    end if;
+end
+$$@@
+
+create unique index if not exists my_user_lower_authentication_id_uidx on My_User (lower(authentication_id))@@
+create unique index if not exists my_user_lower_email_uidx on My_User (lower(email))@@
+
+-- covered by the unique indexes
+drop index if exists my_user_lower_authentication_id_idx@@
+drop index if exists my_user_lower_email_idx@@
+drop index if exists my_user_active_authentication_id_uidx@@
+drop index if exists my_user_active_email_uidx@@
@@ -0,0 +1,59 @@
+package me.sonam.user;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.sonam.user.cache.AvailabilityFilter;
+import me.sonam.user.repo.UserRepository;
+import me.sonam.user.repo.entity.UserLookupKeys;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that {@link AvailabilityFilter} runs one rebuild at a time and keeps the users added during a rebuild
+ */
+public class AvailabilityFilterTest {
+    private static final Logger LOG = LoggerFactory.getLogger(AvailabilityFilterTest.class);
+
+    @Test
+    public void oneRebuildAtATime() {
+        UserRepository userRepository = mock(UserRepository.class);
+        Sinks.Many<UserLookupKeys> slowKeys = Sinks.many().unicast().onBackpressureBuffer();
+        when(userRepository.count()).thenReturn(Mono.just(0L));
+        when(userRepository.findLookupKeys()).thenReturn(Flux.empty(), slowKeys.asFlux(), Flux.never());
+
+        AvailabilityFilter availabilityFilter = new AvailabilityFilter(userRepository, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(availabilityFilter, "expectedInsertions", 1000L);
+        ReflectionTestUtils.setField(availabilityFilter, "falsePositiveRate", 0.01);
+        assertThat(availabilityFilter.rebuild().block()).isEqualTo(0L);
+
+        LOG.info("a rebuild is streaming the users table");
+        availabilityFilter.rebuild().subscribe();
+        assertThat(availabilityFilter.rebuild().block()).isNull();
+
+        LOG.info("a rebuild asked for after missed additions waits, a user saved meanwhile goes into the new filter");
+        availabilityFilter.rebuildAfterMissedAdditions();
+        availabilityFilter.addLocal("Dommy", "dommy@cat.email");
+        slowKeys.tryEmitNext(new UserLookupKeys("apple", "apple@cat.email"));
+        slowKeys.tryEmitComplete();
+
+        Function<String, Mono<Boolean>> user = name -> Mono.just(true);
+        assertThat(availabilityFilter.authenticationIdTaken("dommy", user).block()).isTrue();
+        assertThat(availabilityFilter.emailTaken("apple@cat.email", user).block()).isTrue();
+
+        LOG.info("the rebuild asked for runs once the streaming one finished");
+        verify(userRepository, times(3)).findLookupKeys();
+        assertThat(availabilityFilter.rebuild().block()).isNull();
+    }
+}
@@ -0,0 +1,37 @@
+package me.sonam.user;
+
+import me.sonam.user.cache.BloomFilter;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the false negative and false positive behavior of {@link BloomFilter}
+ */
+public class BloomFilterTest {
+    private static final Logger LOG = LoggerFactory.getLogger(BloomFilterTest.class);
+
+    @Test
+    public void noFalseNegativesAndBoundedFalsePositives() {
+        BloomFilter bloomFilter = BloomFilter.create(10_000, 0.01);
+
+        for (int i = 0; i < 10_000; i++) {
+            bloomFilter.put("user" + i + "@cat.email");
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(bloomFilter.mightContain("user" + i + "@cat.email")).isTrue();
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (bloomFilter.mightContain("other" + i + "@cat.email")) {
+                falsePositives++;
+            }
+        }
+        LOG.info("false positives: {}, expected rate: {}", falsePositives, bloomFilter.expectedFalsePositiveRate());
+        assertThat(falsePositives).isLessThan(2_000);
+        assertThat(bloomFilter.expectedFalsePositiveRate()).isBetween(0.005, 0.02);
+    }
+}
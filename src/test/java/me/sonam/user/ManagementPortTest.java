@@ -0,0 +1,47 @@
+package me.sonam.user;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that the prometheus scrape is served without a token on the management port and not on the api port
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = {Application.class}, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"management.server.port=0", "management.endpoints.web.exposure.include=health,prometheus"})
+public class ManagementPortTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ManagementPortTest.class);
+
+    @Value("${local.management.port}")
+    private int managementPort;
+
+    @Value("${local.server.port}")
+    private int serverPort;
+
+    @MockitoBean
+    ReactiveJwtDecoder jwtDecoder;
+
+    @Test
+    public void prometheusOnManagementPortOnly() {
+        LOG.info("scrape on management port {}", managementPort);
+        String scrape = WebTestClient.bindToServer().baseUrl("http://localhost:" + managementPort).build()
+                .get().uri("/actuator/prometheus")
+                .exchange().expectStatus().isOk().expectBody(String.class).returnResult().getResponseBody();
+        assertThat(scrape).contains("jvm_");
+
+        LOG.info("no scrape on api port {}", serverPort);
+        WebTestClient.bindToServer().baseUrl("http://localhost:" + serverPort).build()
+                .get().uri("/actuator/prometheus")
+                .exchange().expectStatus().is4xxClientError();
+    }
+}
@@ -0,0 +1,66 @@
+package me.sonam.user;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.sonam.user.cache.MicroBatcher;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that {@link MicroBatcher} coalesces single calls into batches and hands each call its own result
+ */
+public class MicroBatcherTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MicroBatcherTest.class);
+
+    @Test
+    public void callsWithinTheWindowShareABatch() {
+        List<Set<Integer>> batches = new CopyOnWriteArrayList<>();
+        MicroBatcher<Integer, String> microBatcher = new MicroBatcher<>("test", 10, Duration.ofMillis(50), 2,
+                keys -> {
+                    batches.add(keys);
+                    // odd keys have no result
+                    return Mono.just(keys.stream().filter(key -> key % 2 == 0)
+                            .collect(Collectors.toMap(Function.identity(), key -> "value-" + key)));
+                }, new SimpleMeterRegistry());
+
+        StepVerifier.create(Flux.range(0, 25)
+                        .flatMap(i -> microBatcher.submit(i % 20).defaultIfEmpty("none").map(value -> i + "=" + value))
+                        .collectList())
+                .assertNext(results -> {
+                    assertThat(results).hasSize(25).contains("0=value-0", "20=value-0", "1=none", "24=value-4");
+                })
+                .verifyComplete();
+
+        LOG.info("batches: {}", batches);
+        assertThat(batches).hasSizeBetween(3, 5);
+        assertThat(batches).allSatisfy(keys -> assertThat(keys).hasSizeLessThanOrEqualTo(10));
+        microBatcher.dispose();
+    }
+
+    @Test
+    public void failedBatchFailsItsCalls() {
+        MicroBatcher<String, String> microBatcher = new MicroBatcher<>("test", 10, Duration.ofMillis(5), 1,
+                keys -> keys.contains("bad") ? Mono.error(new IllegalStateException("batch failed"))
+                        : Mono.just(Map.of("good", "ok")), new SimpleMeterRegistry());
+
+        StepVerifier.create(Flux.merge(microBatcher.submit("bad"), microBatcher.submit("good")))
+                .expectErrorMessage("batch failed").verify();
+
+        // the batcher keeps running after a failed batch
+        StepVerifier.create(microBatcher.submit("good")).expectNext("ok").verifyComplete();
+        microBatcher.dispose();
+    }
+}
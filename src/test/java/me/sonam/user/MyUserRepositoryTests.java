@@ -9,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.data.r2dbc.test.autoconfigure.DataR2dbcTest;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import reactor.core.publisher.Flux;
@@ -124,6 +125,25 @@ public class MyUserRepositoryTests {
         userRepository.deleteAll().subscribe();
     }
 
+    @Test
+    public void updateFirstNameAndLastName() {
+        LOG.info("update the names of a user by authenticationId ignoring case");
+        MyUser myUser = userRepository.save(new MyUser("Dommy", "thecat", "dommy@cat.email", "dommy", false)).block();
+
+        userRepository.updateFirstNameAndLastNameByAuthenticationId("John", "InTibet", "DOMMY")
+                .as(StepVerifier::create).expectNext(1).verifyComplete();
+
+        userRepository.findByAuthenticationIdIgnoreCase("dommy").as(StepVerifier::create)
+                .assertNext(actual -> {
+                    assertThat(actual.getFirstName()).isEqualTo("John");
+                    assertThat(actual.getLastName()).isEqualTo("InTibet");
+                    assertThat(actual.getVersion()).isEqualTo(myUser.getVersion() + 1);
+                })
+                .verifyComplete();
+
+        userRepository.deleteAll().block();
+    }
+
     @Test
     public void findByFirstNameAndLastNameMatching() {
         LOG.info("test find by firstName and lastName matching");
@@ -150,6 +170,34 @@ public class MyUserRepositoryTests {
         userRepository.deleteAll().subscribe();
     }
 
+    @Test
+    public void findSignupStatus() {
+        LOG.info("read all signup checks in one query");
+        MyUser myUser = new MyUser("Dommy", "thecat", "dommy@cat.email", "dommy", true);
+        myUser.setUserAuthAccountCreated(true);
+        userRepository.save(myUser).block();
+
+        userRepository.findSignupStatus("DOMMY", "someone@cat.email").as(StepVerifier::create)
+                .assertNext(signupStatus -> {
+                    assertThat(signupStatus.authenticationIdActive()).isTrue();
+                    assertThat(signupStatus.authenticationIdAccountCreated()).isTrue();
+                    assertThat(signupStatus.emailActive()).isFalse();
+                    assertThat(signupStatus.emailAccountCreated()).isFalse();
+                })
+                .verifyComplete();
+
+        userRepository.findSignupStatus("someone", "Dommy@Cat.email").as(StepVerifier::create)
+                .assertNext(signupStatus -> {
+                    assertThat(signupStatus.authenticationIdActive()).isFalse();
+                    assertThat(signupStatus.authenticationIdAccountCreated()).isFalse();
+                    assertThat(signupStatus.emailActive()).isTrue();
+                    assertThat(signupStatus.emailAccountCreated()).isTrue();
+                })
+                .verifyComplete();
+
+        userRepository.deleteAll().block();
+    }
+
     @Test
     public void findByUserId() {
         LOG.info("find by user id");
@@ -161,5 +209,21 @@ public class MyUserRepositoryTests {
 
         myUserMono.as(StepVerifier::create).expectNext(myUser).expectComplete().verify();
         LOG.info("verify done");
+        userRepository.deleteAll().block();
+    }
+
+    @Test
+    public void uniqueNamesIgnoreCase() {
+        LOG.info("a username or email differing only in case is rejected like on Postgres");
+        userRepository.save(new MyUser("Dommy", "thecat", "dommy@cat.email", "dommy", false)).block();
+
+        userRepository.save(new MyUser("Dommy", "thecat", "other@cat.email", "DOMMY", false)).as(StepVerifier::create)
+                .expectError(DuplicateKeyException.class)
+                .verify();
+        userRepository.save(new MyUser("Dommy", "thecat", "Dommy@Cat.email", "other", false)).as(StepVerifier::create)
+                .expectError(DuplicateKeyException.class)
+                .verify();
+
+        userRepository.deleteAll().block();
     }
 }
@@ -0,0 +1,64 @@
+package me.sonam.user;
+
+import me.sonam.user.outbox.OutboxPasswordCipher;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests that {@link OutboxPasswordCipher} stores no clear text password and reads back what it wrote
+ */
+public class OutboxPasswordCipherTest {
+
+    @Test
+    public void encryptAndDecrypt() {
+        OutboxPasswordCipher cipher = cipher(true, Base64.getEncoder().encodeToString(new byte[32]));
+
+        String first = cipher.encrypt("pass");
+        String second = cipher.encrypt("pass");
+
+        assertThat(first).doesNotContain("pass").startsWith("v1:");
+        assertThat(first).isNotEqualTo(second);
+        assertThat(cipher.decrypt(first)).isEqualTo("pass");
+        assertThat(cipher.decrypt(second)).isEqualTo("pass");
+        assertThat(cipher.encrypt(null)).isNull();
+        assertThat(cipher.decrypt(null)).isNull();
+    }
+
+    @Test
+    public void otherKeyCannotDecrypt() {
+        String encrypted = cipher(true, Base64.getEncoder().encodeToString(new byte[32])).encrypt("pass");
+        byte[] otherKey = new byte[32];
+        otherKey[0] = 1;
+
+        assertThatThrownBy(() -> cipher(true, Base64.getEncoder().encodeToString(otherKey)).decrypt(encrypted))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void plaintextIsRejected() {
+        OutboxPasswordCipher cipher = cipher(true, Base64.getEncoder().encodeToString(new byte[32]));
+
+        assertThatThrownBy(() -> cipher.decrypt("pass"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("signup outbox password is not encrypted");
+    }
+
+    @Test
+    public void keyRequiredWhenEnabled() {
+        assertThatThrownBy(() -> cipher(true, "")).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> cipher(false, "").encrypt("pass")).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static OutboxPasswordCipher cipher(boolean enabled, String key) {
+        OutboxPasswordCipher cipher = new OutboxPasswordCipher();
+        ReflectionTestUtils.setField(cipher, "enabled", enabled);
+        ReflectionTestUtils.setField(cipher, "passwordKey", key);
+        cipher.setKey();
+        return cipher;
+    }
+}
@@ -10,6 +10,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.r2dbc.config.AbstractR2dbcConfiguration;
 import org.springframework.data.r2dbc.repository.config.EnableR2dbcRepositories;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.transaction.ReactiveTransactionManager;
 
 @Configuration
 @EnableR2dbcRepositories
@@ -35,4 +37,10 @@ class R2DBCConfiguration extends AbstractR2dbcConfiguration {
         return ConnectionFactories.get("r2dbc:h2:mem:///testdb?options=DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE");
 
     }
+
+    // not auto-configured with two connection factories, the repositories use connectionFactory()
+    @Bean
+    public ReactiveTransactionManager transactionManager() {
+        return new R2dbcTransactionManager(connectionFactory());
+    }
 }
\ No newline at end of file
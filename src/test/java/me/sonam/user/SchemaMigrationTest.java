@@ -0,0 +1,37 @@
+package me.sonam.user;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import me.sonam.user.repo.SchemaMigration;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ * Tests that {@link SchemaMigration} applies a script once and splits it on the separator the script declares
+ */
+public class SchemaMigrationTest {
+
+    @Test
+    public void declaredSeparator() {
+        ConnectionFactory connectionFactory = ConnectionFactories.get(
+                "r2dbc:h2:mem:///schemamigrationtest?options=DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE");
+        SchemaMigration schemaMigration = new SchemaMigration(connectionFactory, "classpath*:db/test-migration");
+
+        StepVerifier.create(schemaMigration.migrate().then(schemaMigration.migrate())).verifyComplete();
+
+        StepVerifier.create(Mono.usingWhen(connectionFactory.create(),
+                        connection -> query(connection, "select count(*) from separator_test"),
+                        Connection::close))
+                .expectNext(2L)
+                .verifyComplete();
+    }
+
+    private static Mono<Long> query(Connection connection, String sql) {
+        return Flux.from(connection.createStatement(sql).execute())
+                .flatMap(result -> result.map((row, rowMetadata) -> row.get(0, Long.class)))
+                .single();
+    }
+}
@@ -0,0 +1,203 @@
+package me.sonam.user;
+
+import me.sonam.security.util.TokenRequestFilter;
+import me.sonam.user.handler.UserTransfer;
+import me.sonam.user.repo.SignupOutboxRepository;
+import me.sonam.user.repo.UserRepository;
+import me.sonam.user.repo.entity.MyUser;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webtestclient.autoconfigure.AutoConfigureWebTestClient;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests signup with the signup outbox turned on.  The signup request only saves the user and the outbox row,
+ * the {@link me.sonam.user.outbox.SignupOutboxDispatcher} makes the calls to the MockWebServer.
+ */
+@AutoConfigureWebTestClient
+@EnableAutoConfiguration
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = {Application.class}, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"signup-outbox.enabled=true", "signup-outbox.poll-interval-millis=100",
+                "signup-outbox.initial-backoff-millis=100"})
+// closes the context after the class so the dispatcher does not keep polling while other tests run
+@DirtiesContext
+public class SignupOutboxTest {
+    private static final Logger LOG = LoggerFactory.getLogger(SignupOutboxTest.class);
+
+    private static MockWebServer mockWebServer;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private SignupOutboxRepository signupOutboxRepository;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private TokenRequestFilter tokenRequestFilter;
+
+    @MockitoBean
+    ReactiveJwtDecoder jwtDecoder;
+
+    @BeforeAll
+    static void setupMockWebServer() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+    }
+
+    @AfterAll
+    public static void shutdownMockWebServer() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry r) {
+        r.add("authentication-rest-service.root", () -> "http://localhost:" + mockWebServer.getPort());
+        r.add("account-rest-service.root", () -> "http://localhost:" + mockWebServer.getPort());
+        r.add("organization-rest-service.root", () -> "http://localhost:" + mockWebServer.getPort());
+        r.add("role-rest-service.root", () -> "http://localhost:" + mockWebServer.getPort());
+        r.add("auth-server.root", () -> "http://localhost:" + mockWebServer.getPort());
+    }
+
+    @BeforeEach
+    public void setup() {
+        tokenRequestFilter.getRequestFilters().forEach(requestFilter ->
+                requestFilter.getAccessToken().setAccessToken("test-service-token"));
+    }
+
+    @AfterEach
+    public void deleteUserRepo() {
+        userRepository.deleteAll().block();
+        signupOutboxRepository.deleteAll().block();
+    }
+
+    @Test
+    public void signupUser() throws InterruptedException {
+        final String authenticationId = "outboxsignupuser";
+        final String email = "outboxsignupuser@some1.company";
+        Jwt jwt = jwt(authenticationId);
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        enqueue(200, "{\"message\": \"account deleted\"}");
+        enqueue(200, "{\"message\": \"deleted Authentication with authenticationId: " + authenticationId + "\"}");
+        enqueue(201, "{\"message\": \"Authentication created successfully\"}");
+        enqueue(201, "{\"message\": \"Account created successfully.  Check email for activating account\"}");
+
+        UserTransfer userTransfer = new UserTransfer("firstname", "lastname", email,
+                authenticationId, "pass", false);
+
+        EntityExchangeResult<Map> result = webTestClient.post().uri("/users")
+                .headers(headers -> headers.setBearerAuth(jwt.getTokenValue())).bodyValue(userTransfer)
+                .exchange().expectStatus().isCreated().expectBody(Map.class).returnResult();
+
+        LOG.info("signup returns once the user and outbox rows are saved: {}", result.getResponseBody());
+        assertThat(result.getResponseBody().get("message")).isEqualTo("Account is being created.  Check email for activating account");
+
+        MyUser myUser = awaitUserAuthAccountCreated(authenticationId);
+        assertThat(myUser.getEmail()).isEqualTo(email);
+
+        assertRequest("PUT", "/accounts/email");
+        assertRequest("DELETE", "/authentications/" + authenticationId);
+        RecordedRequest request = assertRequest("POST", "/authentications");
+        assertThat(request.getBody().readUtf8()).contains("\"password\":\"pass\"");
+        assertRequest("POST", "/accounts");
+
+        LOG.info("assert the outbox row is removed when done");
+        StepVerifier.create(signupOutboxRepository.findByUserId(myUser.getId())).verifyComplete();
+    }
+
+    @Test
+    public void signupUserRetriesFailedAuthentication() throws InterruptedException {
+        final String authenticationId = "outboxretryuser";
+        final String email = "outboxretryuser@some1.company";
+        Jwt jwt = jwt(authenticationId);
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        enqueue(200, "{\"message\": \"account deleted\"}");
+        enqueue(200, "{\"message\": \"authentication deleted\"}");
+        enqueue(500, "{\"error\": \"authentication service unavailable\"}");
+        // the retry starts again from the cleanup step
+        enqueue(200, "{\"message\": \"account deleted\"}");
+        enqueue(200, "{\"message\": \"authentication deleted\"}");
+        enqueue(201, "{\"message\": \"Authentication created successfully\"}");
+        enqueue(201, "{\"message\": \"Account created successfully.  Check email for activating account\"}");
+
+        UserTransfer userTransfer = new UserTransfer("firstname", "lastname", email,
+                authenticationId, "pass", false);
+
+        webTestClient.post().uri("/users")
+                .headers(headers -> headers.setBearerAuth(jwt.getTokenValue())).bodyValue(userTransfer)
+                .exchange().expectStatus().isCreated();
+
+        awaitUserAuthAccountCreated(authenticationId);
+
+        assertRequest("PUT", "/accounts/email");
+        assertRequest("DELETE", "/authentications/" + authenticationId);
+        assertRequest("POST", "/authentications");
+        assertRequest("PUT", "/accounts/email");
+        assertRequest("DELETE", "/authentications/" + authenticationId);
+        assertRequest("POST", "/authentications");
+        assertRequest("POST", "/accounts");
+    }
+
+    private MyUser awaitUserAuthAccountCreated(String authenticationId) {
+        return Flux.interval(Duration.ofMillis(100))
+                .concatMap(tick -> userRepository.findByAuthenticationIdIgnoreCase(authenticationId))
+                .filter(MyUser::getUserAuthAccountCreated)
+                .next()
+                .block(Duration.ofSeconds(10));
+    }
+
+    private void enqueue(int responseCode, String body) {
+        mockWebServer.enqueue(new MockResponse().setHeader("Content-Type", "application/json")
+                .setResponseCode(responseCode).setBody(body));
+    }
+
+    private RecordedRequest assertRequest(String method, String path) throws InterruptedException {
+        RecordedRequest request = mockWebServer.takeRequest(5, TimeUnit.SECONDS);
+        assertThat(request).isNotNull();
+        assertThat(request.getMethod()).isEqualTo(method);
+        assertThat(request.getPath()).startsWith(path);
+        return request;
+    }
+
+    private Jwt jwt(String subjectName) {
+        return new Jwt("token", null, null,
+                Map.of("alg", "none"), Map.of("sub", subjectName));
+    }
+}
@@ -0,0 +1,85 @@
+package me.sonam.user;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.sonam.user.cache.SingleFlight;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that {@link SingleFlight} shares one source subscription between concurrent callers
+ */
+public class SingleFlightTest {
+    private static final Logger LOG = LoggerFactory.getLogger(SingleFlightTest.class);
+
+    @Test
+    public void concurrentCallsShareOneSubscription() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test", meterRegistry);
+        AtomicInteger subscriptions = new AtomicInteger();
+
+        Mono<String> source = Mono.fromCallable(() -> {
+            subscriptions.incrementAndGet();
+            return "dommy";
+        }).delayElement(Duration.ofMillis(200));
+
+        StepVerifier.create(Flux.range(0, 20)
+                        .flatMap(i -> singleFlight.execute("dommy", () -> source)
+                                .subscribeOn(Schedulers.parallel())))
+                .expectNextCount(20)
+                .verifyComplete();
+
+        LOG.info("assert the source was subscribed once and the in-flight entry was removed");
+        assertThat(subscriptions.get()).isEqualTo(1);
+        assertThat(singleFlight.inFlightCount()).isZero();
+        assertThat(meterRegistry.counter("user.singleflight.collapsed", "name", "test").count()).isEqualTo(19);
+
+        StepVerifier.create(singleFlight.execute("dommy", () -> source)).expectNext("dommy").verifyComplete();
+        assertThat(subscriptions.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void lookupOfOlderGenerationIsNotJoined() {
+        AtomicLong generation = new AtomicLong();
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test", generation::get, new SimpleMeterRegistry());
+        Sinks.One<String> first = Sinks.one();
+        Sinks.One<String> second = Sinks.one();
+
+        Mono<String> before = singleFlight.execute("dommy", first::asMono);
+        StepVerifier.create(before)
+                .then(() -> {
+                    LOG.info("the row changes while the first lookup is in flight");
+                    generation.incrementAndGet();
+                    StepVerifier.create(singleFlight.execute("dommy", second::asMono))
+                            .then(() -> {
+                                first.tryEmitValue("old");
+                                second.tryEmitValue("new");
+                            })
+                            .expectNext("new").verifyComplete();
+                })
+                .expectNext("old").verifyComplete();
+        assertThat(singleFlight.inFlightCount()).isZero();
+    }
+
+    @Test
+    public void errorIsNotKept() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test", new SimpleMeterRegistry());
+
+        StepVerifier.create(singleFlight.execute("dommy", () -> Mono.error(new IllegalStateException("db down"))))
+                .expectError(IllegalStateException.class).verify();
+
+        StepVerifier.create(singleFlight.execute("dommy", () -> Mono.just("dommy")))
+                .expectNext("dommy").verifyComplete();
+    }
+}
@@ -0,0 +1,65 @@
+package me.sonam.user;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.sonam.user.cache.StripedLock;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that {@link StripedLock} runs actions on the same key one at a time
+ */
+public class StripedLockTest {
+    private static final Logger LOG = LoggerFactory.getLogger(StripedLockTest.class);
+
+    @Test
+    public void sameKeyRunsOneAtATime() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        StripedLock stripedLock = new StripedLock("test", 16, meterRegistry);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        StepVerifier.create(Flux.range(0, 50)
+                        .flatMap(i -> stripedLock.withLock(() -> Mono.fromRunnable(() ->
+                                                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max))
+                                        .then(Mono.delay(Duration.ofMillis(2)))
+                                        .then(Mono.fromRunnable(running::decrementAndGet))
+                                        .thenReturn(i),
+                                // the same username with either casing of a shared email
+                                "dommy", i % 2 == 0 ? "dommy@cat.email" : null)))
+                .expectNextCount(50).verifyComplete();
+
+        LOG.info("assert no two actions overlapped and the waits were counted");
+        assertThat(maxRunning.get()).isEqualTo(1);
+        assertThat(meterRegistry.get("user.lock.contended").counter().count()).isGreaterThan(0);
+    }
+
+    @Test
+    public void cancelledWaiterIsSkipped() {
+        StripedLock stripedLock = new StripedLock("test", 16, new SimpleMeterRegistry());
+        Sinks.Empty<Void> holder = Sinks.empty();
+        AtomicInteger ran = new AtomicInteger();
+
+        Disposable first = stripedLock.withLock(holder::asMono, "dommy").subscribe();
+        Disposable waiter = stripedLock.withLock(() -> Mono.fromRunnable(ran::incrementAndGet), "dommy").subscribe();
+        waiter.dispose();
+
+        StepVerifier.create(Mono.when(stripedLock.withLock(() -> Mono.fromRunnable(ran::incrementAndGet), "dommy"),
+                        Mono.fromRunnable(holder::tryEmitEmpty)))
+                .verifyComplete();
+
+        LOG.info("assert the cancelled waiter never ran and the lock was passed on");
+        assertThat(ran.get()).isEqualTo(1);
+        assertThat(first.isDisposed()).isTrue();
+    }
+}
@@ -0,0 +1,173 @@
+package me.sonam.user;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.sonam.user.cache.UserCache;
+import me.sonam.user.handler.carrier.User;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the read-through and eviction behavior of {@link UserCache}
+ */
+public class UserCacheTest {
+    private static final Logger LOG = LoggerFactory.getLogger(UserCacheTest.class);
+
+    @Test
+    public void readThroughAndEvict() {
+        UserCache userCache = new UserCache(true, 1_000_000, 60, 30, 1000, new SimpleMeterRegistry());
+        UUID id = UUID.randomUUID();
+        User user = new User(id, "Dommy", "thecat", "dommy@cat.email", "Dommy", false, true, true, null);
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(userCache.getUserById(id, uuid -> {
+                        loads.incrementAndGet();
+                        return Mono.just(user);
+                    }))
+                    .expectNext(user).verifyComplete();
+        }
+        LOG.info("assert loader was called once and the rest were cache hits");
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(userCache.stats().hitCount()).isEqualTo(2);
+
+        userCache.evictByAuthenticationId("dommy");
+        StepVerifier.create(userCache.getUserById(id, uuid -> {
+            loads.incrementAndGet();
+            return Mono.just(user);
+        })).expectNext(user).verifyComplete();
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void emptyResultIsNotCachedWithoutNegativeTtl() {
+        UserCache userCache = new UserCache(true, 1_000_000, 60, 0, 1000, new SimpleMeterRegistry());
+        UUID id = UUID.randomUUID();
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(userCache.getUserById(id, uuid -> {
+                loads.incrementAndGet();
+                return Mono.empty();
+            })).verifyComplete();
+        }
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void missingUserIsRememberedUntilEvicted() {
+        UserCache userCache = new UserCache(true, 1_000_000, 60, 30, 1000, new SimpleMeterRegistry());
+        UUID id = UUID.randomUUID();
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(userCache.getUserById(id, uuid -> {
+                loads.incrementAndGet();
+                return Mono.empty();
+            })).verifyComplete();
+        }
+        LOG.info("assert the miss was loaded once and then answered from the negative cache");
+        assertThat(loads.get()).isEqualTo(1);
+
+        userCache.evict(id);
+        StepVerifier.create(userCache.getUserById(id, uuid -> {
+            loads.incrementAndGet();
+            return Mono.empty();
+        })).verifyComplete();
+        assertThat(loads.get()).isEqualTo(2);
+
+        assertThat(userCache.isMissingAuthenticationId("Dommy")).isFalse();
+        userCache.putMissingAuthenticationId("Dommy", userCache.loadStarted());
+        assertThat(userCache.isMissingAuthenticationId("dommy")).isTrue();
+        userCache.evictByAuthenticationId("DOMMY");
+        assertThat(userCache.isMissingAuthenticationId("dommy")).isFalse();
+    }
+
+    @Test
+    public void loadFinishingAfterEvictIsNotCached() {
+        UserCache userCache = new UserCache(true, 1_000_000, 60, 30, 1000, new SimpleMeterRegistry());
+        UUID id = UUID.randomUUID();
+        User oldUser = new User(id, "Dommy", "thecat", "dommy@cat.email", "Dommy", false, true, true, null);
+        Sinks.One<User> slowLoad = Sinks.one();
+        AtomicInteger loads = new AtomicInteger();
+
+        LOG.info("a load reads the old row, the writer evicts before the load finishes");
+        StepVerifier.create(userCache.getUserById(id, uuid -> {
+                    loads.incrementAndGet();
+                    return slowLoad.asMono();
+                }))
+                .then(() -> {
+                    userCache.evictByAuthenticationId("dommy");
+                    slowLoad.tryEmitValue(oldUser);
+                })
+                .expectNext(oldUser).verifyComplete();
+
+        assertThat(userCache.getIfPresent("dommy")).isNull();
+        StepVerifier.create(userCache.getUserById(id, uuid -> {
+            loads.incrementAndGet();
+            return Mono.just(oldUser);
+        })).expectNext(oldUser).verifyComplete();
+        assertThat(loads.get()).isEqualTo(2);
+
+        LOG.info("a load that started after the evict is cached");
+        assertThat(userCache.getIfPresent("dommy")).isEqualTo(oldUser);
+
+        LOG.info("a miss found before the user was saved is not remembered");
+        long loadStarted = userCache.loadStarted();
+        userCache.evictByAuthenticationId("apple");
+        userCache.putMissingAuthenticationId("apple", loadStarted);
+        assertThat(userCache.isMissingAuthenticationId("apple")).isFalse();
+    }
+
+    @Test
+    public void loadFinishingAfterInvalidateAllIsNotCached() {
+        UserCache userCache = new UserCache(true, 1_000_000, 60, 30, 1000, new SimpleMeterRegistry());
+        UUID id = UUID.randomUUID();
+        User oldUser = new User(id, "Dommy", "thecat", "dommy@cat.email", "Dommy", false, true, true, null);
+        Sinks.One<User> slowLoad = Sinks.one();
+
+        LOG.info("a load reads the old row, the cache is flushed after missed changes before the load finishes");
+        StepVerifier.create(userCache.getUserById(id, uuid -> slowLoad.asMono()))
+                .then(() -> {
+                    userCache.invalidateAll();
+                    slowLoad.tryEmitValue(oldUser);
+                })
+                .expectNext(oldUser).verifyComplete();
+
+        assertThat(userCache.getIfPresent("dommy")).isNull();
+
+        LOG.info("a miss found before the flush is not remembered");
+        long loadStarted = userCache.loadStarted();
+        userCache.invalidateAll();
+        userCache.putMissingAuthenticationId("apple", loadStarted);
+        assertThat(userCache.isMissingAuthenticationId("apple")).isFalse();
+
+        LOG.info("a load that started after the flush is cached");
+        userCache.put(oldUser, userCache.loadStarted());
+        assertThat(userCache.getIfPresent("dommy")).isEqualTo(oldUser);
+    }
+
+    @Test
+    public void disabledCacheAlwaysLoads() {
+        UserCache userCache = new UserCache(false, 1_000_000, 60, 30, 1000, new SimpleMeterRegistry());
+        UUID id = UUID.randomUUID();
+        User user = new User(id, "Dommy", "thecat", "dommy@cat.email", "dommy", false, true, true, null);
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(userCache.getUserById(id, uuid -> {
+                loads.incrementAndGet();
+                return Mono.just(user);
+            })).expectNext(user).verifyComplete();
+        }
+        assertThat(loads.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,137 @@
+package me.sonam.user;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.sonam.user.cache.AvailabilityFilter;
+import me.sonam.user.cache.LocalUserChangeBus;
+import me.sonam.user.cache.PostgresUserChangeBus;
+import me.sonam.user.cache.UserAddedEvent;
+import me.sonam.user.cache.UserCache;
+import me.sonam.user.cache.UserChangedEvent;
+import me.sonam.user.handler.carrier.User;
+import me.sonam.user.repo.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that a user evicted on one pod is evicted on the other pods, and a user saved on one pod is added to the
+ * availability filter of the other pods, with {@link LocalUserChangeBus} standing in for Postgres LISTEN/NOTIFY.
+ * The batching of messages into Postgres notifications is tested on its own.
+ */
+public class UserChangeBusTest {
+    private static final Logger LOG = LoggerFactory.getLogger(UserChangeBusTest.class);
+
+    @Test
+    public void evictOnOtherPod() {
+        UserCache pod1Cache = new UserCache(true, 1_000_000, 60, 30, 1000, new SimpleMeterRegistry());
+        UserCache pod2Cache = new UserCache(true, 1_000_000, 60, 30, 1000, new SimpleMeterRegistry());
+        LocalUserChangeBus pod1Bus = new LocalUserChangeBus(pod1Cache, availabilityFilter(), new SimpleMeterRegistry());
+        LocalUserChangeBus pod2Bus = new LocalUserChangeBus(pod2Cache, availabilityFilter(), new SimpleMeterRegistry());
+        pod1Cache.setApplicationEventPublisher(event -> pod1Bus.onUserChanged((UserChangedEvent) event));
+        pod2Cache.setApplicationEventPublisher(event -> pod2Bus.onUserChanged((UserChangedEvent) event));
+
+        try {
+            User dommy = user("Dommy");
+            User apple = user("Apple");
+            for (UserCache userCache : new UserCache[]{pod1Cache, pod2Cache}) {
+                userCache.put(dommy, userCache.loadStarted());
+                userCache.put(apple, userCache.loadStarted());
+            }
+
+            LOG.info("evict by id on pod1");
+            pod1Cache.evict(dommy.getId());
+            assertThat(pod2Cache.getIfPresent("dommy")).isNull();
+            assertThat(pod2Cache.getIfPresent("apple")).isEqualTo(apple);
+
+            LOG.info("evict by authenticationId on pod2");
+            pod2Cache.evictByAuthenticationId("Apple");
+            assertThat(pod1Cache.getIfPresent("apple")).isNull();
+            assertThat(pod1Cache.getUserById(apple.getId(), id -> Mono.empty()).block()).isNull();
+        }
+        finally {
+            pod1Bus.stop();
+            pod2Bus.stop();
+        }
+    }
+
+    @Test
+    public void addOnOtherPod() {
+        AvailabilityFilter pod1Filter = availabilityFilter();
+        AvailabilityFilter pod2Filter = availabilityFilter();
+        LocalUserChangeBus pod1Bus = new LocalUserChangeBus(userCache(), pod1Filter, new SimpleMeterRegistry());
+        LocalUserChangeBus pod2Bus = new LocalUserChangeBus(userCache(), pod2Filter, new SimpleMeterRegistry());
+        pod1Filter.setApplicationEventPublisher(event -> pod1Bus.onUserAdded((UserAddedEvent) event));
+        pod2Filter.setApplicationEventPublisher(event -> pod2Bus.onUserAdded((UserAddedEvent) event));
+
+        try {
+            Function<String, Mono<Boolean>> noUser = name -> Mono.just(false);
+            Function<String, Mono<Boolean>> user = name -> Mono.just(true);
+            assertThat(pod2Filter.authenticationIdTaken("Dommy", user).block()).isFalse();
+
+            LOG.info("a user saved on pod1 makes pod2 confirm its names with the query");
+            pod1Filter.add("Dommy", "dommy;cat@cat.email");
+            assertThat(pod2Filter.authenticationIdTaken("dommy", user).block()).isTrue();
+            assertThat(pod2Filter.emailTaken("Dommy;Cat@cat.email", user).block()).isTrue();
+            assertThat(pod2Filter.authenticationIdTaken("apple", user).block()).isFalse();
+            assertThat(pod1Filter.authenticationIdTaken("dommy", noUser).block()).isFalse();
+        }
+        finally {
+            pod1Bus.stop();
+            pod2Bus.stop();
+        }
+    }
+
+    @Test
+    public void notificationPayloads() {
+        String pod = UUID.randomUUID().toString();
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            messages.add(pod + ";" + System.currentTimeMillis() + ";" + UUID.randomUUID() + ";user" + i);
+        }
+        messages.add(pod + ";" + System.currentTimeMillis() + ";;new\nline");
+
+        List<String> payloads = PostgresUserChangeBus.payloads(messages);
+        LOG.info("{} messages in {} payloads", messages.size(), payloads.size());
+
+        assertThat(payloads).hasSizeGreaterThan(1).hasSizeLessThan(messages.size())
+                .allSatisfy(payload -> assertThat(payload.getBytes(StandardCharsets.UTF_8).length).isLessThan(8000));
+        assertThat(payloads.stream().flatMap(payload -> PostgresUserChangeBus.messages(payload).stream()))
+                .containsExactlyElementsOf(messages);
+        assertThat(PostgresUserChangeBus.payloads(List.of())).isEmpty();
+    }
+
+    private static UserCache userCache() {
+        return new UserCache(true, 1_000_000, 60, 30, 1000, new SimpleMeterRegistry());
+    }
+
+    // built from a users table with no users
+    private static AvailabilityFilter availabilityFilter() {
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.count()).thenReturn(Mono.just(0L));
+        when(userRepository.findLookupKeys()).thenReturn(Flux.empty());
+
+        AvailabilityFilter availabilityFilter = new AvailabilityFilter(userRepository, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(availabilityFilter, "expectedInsertions", 1000L);
+        ReflectionTestUtils.setField(availabilityFilter, "falsePositiveRate", 0.01);
+        availabilityFilter.rebuild().block();
+        return availabilityFilter;
+    }
+
+    private static User user(String name) {
+        return new User(UUID.randomUUID(), name, "thecat", name.toLowerCase() + "@cat.email", name.toLowerCase(),
+                true, true, true, null);
+    }
+}
@@ -1,12 +1,20 @@
 package me.sonam.user;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import me.sonam.user.handler.UserHandler;
 import me.sonam.user.handler.UserTransfer;
+import me.sonam.user.handler.carrier.ActivationBatch;
+import me.sonam.user.repo.UserDataDeletionFailureRepository;
 import me.sonam.user.repo.UserRepository;
+import me.sonam.user.outbox.UserDataDeletionRetrier;
 import me.sonam.user.repo.entity.MyUser;
+import me.sonam.user.repo.entity.UserDataDeletionFailure;
 import me.sonam.security.util.TokenRequestFilter;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.QueueDispatcher;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.Before;
 import org.junit.jupiter.api.*;
@@ -21,6 +29,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.webtestclient.autoconfigure.AutoConfigureWebTestClient;
 import org.springframework.context.ApplicationContext;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
 import org.springframework.test.context.DynamicPropertyRegistry;
@@ -33,6 +42,10 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.function.Consumer;
@@ -70,6 +83,15 @@ public class UserEndpointMockWebServerTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private UserDataDeletionFailureRepository userDataDeletionFailureRepository;
+
+    @Autowired
+    private UserDataDeletionRetrier userDataDeletionRetrier;
+
     @Autowired
     private WebTestClient webTestClient;
 
@@ -344,6 +366,16 @@ public class UserEndpointMockWebServerTest {
                     assertThat(aBoolean).isFalse();
                 })
                 .verifyComplete();
+
+        // each downstream call is timed by service, operation and status
+        Timer createAuthentication = meterRegistry.find("user.client.requests").tags("service", "authentication-rest-service",
+                "operation", "createAuthentication", "method", "POST", "status", "400", "outcome", "client_error").timer();
+        assertThat(createAuthentication).isNotNull();
+        assertThat(createAuthentication.count()).isGreaterThanOrEqualTo(1);
+        assertThat(meterRegistry.find("user.client.requests").tags("service", "account-rest-service",
+                "operation", "deleteAccountByEmail", "status", "500", "outcome", "server_error").timer()).isNotNull();
+        assertThat(meterRegistry.find("user.client.first.byte").tags("service", "authentication-rest-service",
+                "operation", "deleteByAuthenticationId").timer()).isNotNull();
     }
 
     @Test
@@ -877,6 +909,32 @@ public class UserEndpointMockWebServerTest {
 
     }
 
+    @Test
+    public void activateAccountsByBatch() {
+        final String authenticationId = "activateBatch";
+        Jwt jwt = jwt(authenticationId);
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        userRepository.saveAll(List.of(new MyUser("firstname", "lastname", "activatebatch1@email.com", "activateBatch1", false),
+                        new MyUser("firstname", "lastname", "activatebatch2@email.com", "activateBatch2", false)))
+                .as(StepVerifier::create).expectNextCount(2).verifyComplete();
+
+        // ids are matched ignoring case and a repeated id is activated once
+        EntityExchangeResult<ActivationBatch> result = webTestClient.put().uri("/users/active")
+                .headers(addJwt(jwt)).contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of("ACTIVATEBATCH1", "noSuchUser", "activateBatch2", "activatebatch1"))
+                .exchange().expectStatus().isOk().expectBody(ActivationBatch.class).returnResult();
+
+        LOG.info("response: {}", result.getResponseBody());
+        assertThat(result.getResponseBody().activated()).containsExactly("ACTIVATEBATCH1", "activateBatch2");
+        assertThat(result.getResponseBody().missingAuthenticationIds()).containsExactly("noSuchUser");
+
+        userRepository.findByAuthenticationIdIgnoreCase("activateBatch1").as(StepVerifier::create)
+                .assertNext(myUser -> assertThat(myUser.getActive()).isTrue()).verifyComplete();
+        userRepository.findByAuthenticationIdIgnoreCase("activateBatch2").as(StepVerifier::create)
+                .assertNext(myUser -> assertThat(myUser.getActive()).isTrue()).verifyComplete();
+    }
+
     @Test
     public void deleteMyInfo() throws InterruptedException {
         UUID id = UUID.randomUUID();
@@ -918,32 +976,183 @@ public class UserEndpointMockWebServerTest {
 
         LOG.info("activate user authId: {}", id);
         UUID organizationId = UUID.randomUUID();
-        EntityExchangeResult<String> result = webTestClient.mutateWith(mockJwt().jwt(jwt)).delete().uri("/users/"+organizationId)
+        EntityExchangeResult<Map> result = webTestClient.mutateWith(mockJwt().jwt(jwt)).delete().uri("/users/"+organizationId)
                 .headers(httpHeaders -> httpHeaders.setBearerAuth(jwtString))
-                .exchange().expectStatus().isOk().expectBody(String.class).returnResult();
+                .exchange().expectStatus().isOk().expectBody(Map.class).returnResult();
 
         LOG.info("response: {}", result.getResponseBody());
-        assertThat(result.getResponseBody()).isEqualTo("delete my account success for user id: "+myUser.getId());
+        assertThat(result.getResponseBody().get("message")).isEqualTo("delete my account success for user id: "+myUser.getId());
+        assertThat((List<String>) result.getResponseBody().get("failedServices")).isEmpty();
+        assertThat((Map<String, String>) result.getResponseBody().get("services")).containsOnlyKeys(
+                "account", "authentication", "organization", "role");
 
         userRepository.existsByAuthenticationIdIgnoreCase(authenticationId).subscribe(aBoolean -> LOG.info("exists should be false: {}", aBoolean));
 
-        RecordedRequest request = mockWebServer.takeRequest();
-        assertThat(request.getMethod()).isEqualTo("DELETE");
-        assertThat(request.getPath()).startsWith("/accounts");
+        LOG.info("the downstream deletes are made in parallel so assert the paths in any order");
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            RecordedRequest request = mockWebServer.takeRequest();
+            assertThat(request.getMethod()).isEqualTo("DELETE");
+            paths.add(request.getPath());
+        }
+        assertThat(paths).anyMatch(path -> path.startsWith("/accounts"))
+                .anyMatch(path -> path.startsWith("/authentications"))
+                .anyMatch(path -> path.startsWith("/organizations"))
+                .anyMatch(path -> path.startsWith("/roles"));
+    }
 
-        request = mockWebServer.takeRequest();
-        assertThat(request.getMethod()).isEqualTo("DELETE");
-        assertThat(request.getPath()).startsWith("/authentications");
+    @Test
+    public void bulkSignup() throws InterruptedException {
+        Jwt jwt = jwt("bulkSignup");
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
 
-        request = mockWebServer.takeRequest();
-        assertThat(request.getMethod()).isEqualTo("DELETE");
-        assertThat(request.getPath()).startsWith("/organizations");
+        userRepository.save(new MyUser("Active", "user", "active@bulk.email", "activebulk", true)).block();
+        // an unfinished signup is replaced by the bulk signup
+        userRepository.save(new MyUser("Unfinished", "user", "bulk2@bulk.email", "bulk2", false)).block();
+
+        List<UserTransfer> userTransfers = List.of(
+                new UserTransfer("Dommy", "thecat", "bulk1@bulk.email", "bulk1", "pass", false),
+                new UserTransfer("Josey", "thecat", "BULK2@bulk.email", "bulk2", "pass", false),
+                new UserTransfer("", "thecat", "bulk3@bulk.email", "bulk3", "pass", false),
+                new UserTransfer("Tommy", "thecat", "bulk4@bulk.email", "ActiveBulk", "pass", false),
+                new UserTransfer("Apple", "thecat", "bulk1@bulk.email", "bulk5", "pass", false));
+
+        // the remote calls of the two users are made concurrently, so answer every call the same
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest recordedRequest) {
+                return new MockResponse().setHeader("Content-Type", "application/json").setResponseCode(201)
+                        .setBody("{\"message\": \"" + ACTIVATE_ACCOUNT + "\"}");
+            }
+        });
 
-        request = mockWebServer.takeRequest();
-        assertThat(request.getMethod()).isEqualTo("DELETE");
-        assertThat(request.getPath()).startsWith("/roles");
+        try {
+            List<Map> results = webTestClient.post().uri("/users/bulk")
+                    .headers(addJwt(jwt)).bodyValue(userTransfers)
+                    .exchange().expectStatus().isOk()
+                    .returnResult(Map.class).getResponseBody().collectList().block();
+
+            LOG.info("results: {}", results);
+            assertThat(results).hasSize(5);
+            Map<Integer, Map> byIndex = new HashMap<>();
+            results.forEach(result -> byIndex.put((Integer) result.get("index"), result));
+
+            assertThat(byIndex.get(0)).containsEntry("message", ACTIVATE_ACCOUNT).containsKey("userId");
+            assertThat(byIndex.get(1)).containsEntry("message", ACTIVATE_ACCOUNT).containsKey("userId");
+            assertThat(byIndex.get(2)).containsEntry("error", "first name cannot be empty");
+            assertThat(byIndex.get(3)).containsEntry("error", "User is already active with that username (authenticationId)");
+            assertThat(byIndex.get(4)).containsEntry("error", "username or email is repeated in this request");
+
+            // cleanup and creation of authentication and account for the two users
+            for (int i = 0; i < 8; i++) {
+                mockWebServer.takeRequest();
+            }
+        }
+        finally {
+            mockWebServer.setDispatcher(new QueueDispatcher());
+        }
+
+        LOG.info("assert the unfinished signup was replaced and the new users have their accounts");
+        userRepository.findByAuthenticationIdIgnoreCase("bulk2").as(StepVerifier::create)
+                .assertNext(myUser -> {
+                    assertThat(myUser.getFirstName()).isEqualTo("Josey");
+                    assertThat(myUser.getUserAuthAccountCreated()).isTrue();
+                })
+                .verifyComplete();
+        userRepository.findByAuthenticationIdIgnoreCase("bulk1").as(StepVerifier::create)
+                .assertNext(myUser -> assertThat(myUser.getUserAuthAccountCreated()).isTrue())
+                .verifyComplete();
+        assertThat(userRepository.existsByAuthenticationIdIgnoreCase("bulk3").block()).isFalse();
+    }
+
+    @Test
+    public void deleteMyInfoWithFailedService() throws InterruptedException {
+        final String authenticationId = "deleteMyInfoWithFailedService";
+
+        MyUser myUser = new MyUser("firstname", "lastname", "failedservice@email.com", authenticationId, false);
+        userRepository.save(myUser).block();
+
+        Jwt jwt = jwt(authenticationId, myUser.getId());
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        LOG.info("the role service fails, the other services delete the user data");
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest recordedRequest) {
+                if (recordedRequest.getPath().startsWith("/roles")) {
+                    return new MockResponse().setResponseCode(500);
+                }
+                return new MockResponse().setHeader("Content-Type", "application/json").setResponseCode(200)
+                        .setBody("{\"message\": \"deleted\"}");
+            }
+        });
+
+        try {
+            UUID organizationId = UUID.randomUUID();
+            EntityExchangeResult<Map> result = webTestClient.mutateWith(mockJwt().jwt(jwt)).delete().uri("/users/" + organizationId)
+                    .headers(addJwt(jwt))
+                    .exchange().expectStatus().isOk().expectBody(Map.class).returnResult();
+
+            LOG.info("response: {}", result.getResponseBody());
+            assertThat((List<String>) result.getResponseBody().get("failedServices")).containsExactly("role");
+            assertThat((Map<String, String>) result.getResponseBody().get("services"))
+                    .containsEntry("account", "deleted").containsEntry("role", "failed");
+
+            for (int i = 0; i < 4; i++) {
+                mockWebServer.takeRequest();
+            }
+        }
+        finally {
+            mockWebServer.setDispatcher(new QueueDispatcher());
+        }
+
+        LOG.info("assert the failed service is recorded for retry");
+        userDataDeletionFailureRepository.findByUserId(myUser.getId()).as(StepVerifier::create)
+                .assertNext(failure -> assertThat(failure.getService()).isEqualTo("role"))
+                .verifyComplete();
 
+        LOG.info("a retry that fails again is put off with a backoff");
+        mockWebServer.setDispatcher(deleteUserDataDispatcher(500));
+        try {
+            takeRequests(userDataDeletionRetrier.retry().block());
+        }
+        finally {
+            mockWebServer.setDispatcher(new QueueDispatcher());
+        }
+        UserDataDeletionFailure failure = userDataDeletionFailureRepository.findByUserId(myUser.getId()).blockFirst();
+        assertThat(failure.getAttempts()).isEqualTo(1);
+        assertThat(failure.getLeaseOwner()).isNull();
+        assertThat(failure.getNextAttemptAt()).isAfter(LocalDateTime.now());
+
+        LOG.info("the row is deleted once the role service deletes the user data");
+        failure.setNextAttemptAt(LocalDateTime.now());
+        userDataDeletionFailureRepository.save(failure).block();
+        mockWebServer.setDispatcher(deleteUserDataDispatcher(200));
+        try {
+            takeRequests(userDataDeletionRetrier.retry().block());
+        }
+        finally {
+            mockWebServer.setDispatcher(new QueueDispatcher());
+        }
+        userDataDeletionFailureRepository.findByUserId(myUser.getId()).as(StepVerifier::create).verifyComplete();
+    }
+
+    private static Dispatcher deleteUserDataDispatcher(int roleStatus) {
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest recordedRequest) {
+                final int status = recordedRequest.getPath().startsWith("/roles") ? roleStatus : 200;
+                return new MockResponse().setHeader("Content-Type", "application/json").setResponseCode(status)
+                        .setBody("{\"message\": \"deleted\"}");
+            }
+        };
+    }
 
+    // one request per retried row, rows left by other tests included
+    private static void takeRequests(long count) throws InterruptedException {
+        for (long i = 0; i < count; i++) {
+            mockWebServer.takeRequest();
+        }
     }
 
     //@Test
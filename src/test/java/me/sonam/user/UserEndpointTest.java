@@ -5,10 +5,17 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import me.sonam.user.cache.AvailabilityFilter;
 import me.sonam.user.handler.UserTransfer;
 import me.sonam.user.handler.carrier.User;
+import me.sonam.user.idempotency.IdempotentRequests;
+import me.sonam.user.metrics.SlowQueryEndpoint;
+import me.sonam.user.repo.UserBatchInsert;
 import me.sonam.user.repo.UserRepository;
 import me.sonam.user.repo.entity.MyUser;
+import me.sonam.user.util.ThumbnailUrlBackfill;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -19,7 +26,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.webtestclient.autoconfigure.AutoConfigureWebTestClient;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.EntityExchangeResult;
@@ -29,6 +40,7 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
+import java.time.LocalDate;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -60,6 +72,21 @@ public class UserEndpointTest {
     @Autowired
     private WebTestClient webTestClient;
 
+    @Autowired
+    private ThumbnailUrlBackfill thumbnailUrlBackfill;
+
+    @Autowired
+    private AvailabilityFilter availabilityFilter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private SlowQueryEndpoint slowQueryEndpoint;
+
+    @Autowired
+    private UserBatchInsert userBatchInsert;
+
     @MockitoBean
     ReactiveJwtDecoder jwtDecoder;
 
@@ -185,6 +212,39 @@ public class UserEndpointTest {
                 })
                 .expectComplete().verify();
 
+        LOG.info("assert the thumbnailUrl is stored with the profilePhoto and returned from it");
+        final String thumbnailUrl = jsonObject.get("thumbnailUrl").getAsString();
+        StepVerifier.create(userRepository.findByAuthenticationIdIgnoreCase("dave"))
+                .assertNext(myUser -> assertThat(myUser.getThumbnailUrl()).isEqualTo(thumbnailUrl))
+                .verifyComplete();
+
+        EntityExchangeResult<Map> userResult = webTestClient.get().uri("/users/authentication-id/dave")
+                .headers(addJwt(jwt))
+                .exchange().expectStatus().isOk().expectBody(Map.class).returnResult();
+        assertThat(userResult.getResponseBody().get("profilePhoto")).isEqualTo(thumbnailUrl);
+    }
+
+    @Test
+    public void backfillThumbnailUrl() {
+        JsonObject jsonObject = getJsonObject();
+        MyUser withPhoto = new MyUser(UUID.randomUUID(), "Dommy", "thecat", "dommy@cat.email", "dommy",
+                true, true, jsonObject.toString(), true, null, null, true);
+        MyUser withoutPhoto = new MyUser("Apple", "thecat", "apple@cat.email", "apple", true);
+        userRepository.save(withPhoto).then(userRepository.save(withoutPhoto)).block();
+
+        LOG.info("only the user with a profilePhoto and no thumbnailUrl is backfilled");
+        StepVerifier.create(thumbnailUrlBackfill.backfill()).expectNext(1L).verifyComplete();
+
+        StepVerifier.create(userRepository.findById(withPhoto.getId()))
+                .assertNext(myUser -> assertThat(myUser.getThumbnailUrl())
+                        .isEqualTo(jsonObject.get("thumbnailUrl").getAsString()))
+                .verifyComplete();
+        StepVerifier.create(userRepository.findById(withoutPhoto.getId()))
+                .assertNext(myUser -> assertThat(myUser.getThumbnailUrl()).isNull())
+                .verifyComplete();
+
+        LOG.info("nothing is left to backfill");
+        StepVerifier.create(thumbnailUrlBackfill.backfill()).expectNext(0L).verifyComplete();
     }
 
     @Test
@@ -259,6 +319,43 @@ public class UserEndpointTest {
                 .verifyComplete();
     }
 
+    @Test
+    public void getUserByAuthIdWithDateOfBirth() {
+        final String authenticationId = "birthday";
+        Jwt jwt = jwt(authenticationId);
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        MyUser myUser = new MyUser(UUID.randomUUID(), "Dommy", "thecat", "birthday@cat.email", authenticationId,
+                true, true, null, true, LocalDate.of(1990, 5, 17), null, true);
+        userRepository.save(myUser).block();
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("id", myUser.getId().toString());
+        expected.put("firstName", "Dommy");
+        expected.put("lastName", "thecat");
+        expected.put("email", "birthday@cat.email");
+        expected.put("profilePhoto", "");
+        expected.put("authenticationId", authenticationId);
+        expected.put("dateOfBirth", "1990/05/17");
+
+        LOG.info("the second read is written from the json cache");
+        for (int i = 0; i < 2; i++) {
+            webTestClient.get().uri("/users/authentication-id/" + authenticationId)
+                    .headers(addJwt(jwt)).exchange().expectStatus().isOk()
+                    .expectBody(Map.class).isEqualTo(expected);
+        }
+
+        LOG.info("a changed user is serialized again");
+        userRepository.updateByAuthenticationId("John", "thecat", "birthday@cat.email", true, authenticationId).block();
+        expected.put("firstName", "John");
+        // profile search returns the profilePhoto json, not the thumbnail url
+        expected.put("profilePhoto", null);
+
+        webTestClient.get().uri("/users/profile/authentication-id/" + authenticationId)
+                .headers(addJwt(jwt)).exchange().expectStatus().isOk()
+                .expectBody(Map.class).isEqualTo(expected);
+    }
+
     @Test
     public void getUserByAuthIdSearchableIgnore() {
         LOG.info("make rest call to save user and create authentication record");
@@ -300,15 +397,19 @@ public class UserEndpointTest {
     public void findMatchingFirstNameAndLastName() {
         LOG.info("test find by firstName and lastName matching");
         MyUser myUser = new MyUser("Dommy", "thecat", "dommy@cat.email", "dommy@cat.email", false);
-
+        myUser.setSearchable(true);
         userRepository.save(myUser).subscribe();
 
         myUser = new MyUser("Dommy", "thecatman", "dommythecatman@cat.email", "dommythecatman@cat.email", false);
-
+        myUser.setSearchable(true);
         userRepository.save(myUser).subscribe();
 
         myUser = new MyUser("Dommy", "mac", "dommymacn@cat.email", "dommymacn@cat.email", false);
+        myUser.setSearchable(true);
+        userRepository.save(myUser).subscribe();
 
+        myUser = new MyUser("Dommy", "thecatlady", "dommythecatlady@cat.email", "dommythecatlady@cat.email", false);
+        myUser.setSearchable(false);
         userRepository.save(myUser).subscribe();
 
         final String authenticationId = "dommymacn@cat.email";
@@ -323,6 +424,91 @@ public class UserEndpointTest {
         StepVerifier.create(myUserFlux)
                 .expectNextCount(2)
                 .verifyComplete();
+
+        LOG.info("include the user that turned off searchable");
+        myUserFlux = webTestClient.get().uri("/users/names/dommy/thecat?ignoreSearchable=true")
+                .headers(addJwt(jwt))
+                .exchange().expectStatus().isOk()
+                .returnResult(MyUser.class).getResponseBody();
+
+        StepVerifier.create(myUserFlux)
+                .expectNextCount(3)
+                .verifyComplete();
+    }
+
+    @Test
+    public void findMatchingFirstNameAndLastNameByPage() {
+        LOG.info("page through name matches with the next cursor");
+        for (String lastName : List.of("thecat", "thecatman", "bigthecat")) {
+            MyUser myUser = new MyUser("Dommy", lastName, lastName + "@cat.email", lastName, false);
+            myUser.setSearchable(true);
+            userRepository.save(myUser).block();
+        }
+
+        Jwt jwt = jwt("thecat");
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        List<String> lastNames = new ArrayList<>();
+        String cursor = null;
+        for (int page = 0; page < 3; page++) {
+            final String uri = "/users/names/dommy/thecat?limit=2" + (cursor == null ? "" : "&cursor=" + cursor);
+            EntityExchangeResult<List<Map>> result = webTestClient.get().uri(uri)
+                    .headers(addJwt(jwt))
+                    .exchange().expectStatus().isOk()
+                    .expectBodyList(Map.class).returnResult();
+
+            result.getResponseBody().forEach(map -> lastNames.add((String) map.get("lastName")));
+            cursor = result.getResponseHeaders().getFirst("X-Next-Cursor");
+            if (cursor == null) {
+                break;
+            }
+        }
+
+        LOG.info("assert names that start with the search words come first, lastNames: {}", lastNames);
+        assertThat(lastNames).containsExactly("thecat", "thecatman", "bigthecat");
+    }
+
+    @Test
+    public void streamMatchingFirstNameAndLastName() {
+        LOG.info("stream name matches as ndjson");
+        for (String lastName : List.of("thecat", "thecatman", "bigthecat")) {
+            MyUser myUser = new MyUser("Dommy", lastName, lastName + "@cat.email", lastName, false);
+            myUser.setSearchable(true);
+            userRepository.save(myUser).block();
+        }
+
+        Jwt jwt = jwt("thecat");
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        Flux<Map> mapFlux = webTestClient.get().uri("/users/names/dommy/thecat")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .headers(addJwt(jwt))
+                .exchange().expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(Map.class).getResponseBody();
+
+        StepVerifier.create(mapFlux)
+                .assertNext(map -> {
+                    assertThat(map.get("lastName")).isEqualTo("thecat");
+                    assertThat(map).doesNotContainKeys("userAuthAccountCreated", "matchRank");
+                })
+                .expectNextCount(2)
+                .verifyComplete();
+
+        LOG.info("stream name matches as server-sent events with the cursor as event id");
+        Flux<ServerSentEvent<Map>> eventFlux = webTestClient.get().uri("/users/names/dommy/thecat?limit=2")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .headers(addJwt(jwt))
+                .exchange().expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<Map>>() {}).getResponseBody();
+
+        StepVerifier.create(eventFlux)
+                .assertNext(event -> {
+                    assertThat(event.id()).isNotBlank();
+                    assertThat(event.data().get("lastName")).isEqualTo("thecat");
+                })
+                .assertNext(event -> assertThat(event.data().get("lastName")).isEqualTo("thecatman"))
+                .verifyComplete();
     }
 
     /**
@@ -401,6 +587,44 @@ public class UserEndpointTest {
         LOG.info("test completed");
     }
 
+    /**
+     * this will test the endpoint POST /users/batch with a json array of ids
+     */
+    @Test
+    public void getUsersByIdsInBody() {
+        LOG.info("get batch of users by ids in request body");
+
+        Jwt jwt = jwt("dommy@cat.email");
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        MyUser myUser1 = new MyUser("Sonam", "thecat", "dommy@cat.email", "sonam", false);
+        userRepository.save(myUser1).block();
+
+        MyUser myUser2 = new MyUser("Tenzing", "Passang", "tenzing@cat.email", "tenzing", false);
+        userRepository.save(myUser2).block();
+
+        UUID missingId = UUID.randomUUID();
+        List<UUID> requestIds = List.of(myUser2.getId(), missingId, myUser1.getId(), myUser2.getId());
+
+        EntityExchangeResult<Map> result = webTestClient.post().uri("/users/batch")
+                .bodyValue(requestIds)
+                .headers(addJwt(jwt))
+                .exchange().expectStatus().isOk()
+                .expectBody(Map.class).returnResult();
+
+        LOG.info("assert users are in request order without duplicates: {}", result.getResponseBody());
+        List<Map<String, Object>> users = (List<Map<String, Object>>) result.getResponseBody().get("users");
+        assertThat(users).extracting(map -> map.get("id"))
+                .containsExactly(myUser2.getId().toString(), myUser1.getId().toString());
+        assertThat((List<String>) result.getResponseBody().get("missingIds")).containsExactly(missingId.toString());
+
+        LOG.info("a body that is not an array of ids is a bad request");
+        webTestClient.post().uri("/users/batch")
+                .bodyValue(List.of("not-a-uuid"))
+                .headers(addJwt(jwt))
+                .exchange().expectStatus().isBadRequest();
+    }
+
 
     /**
      * get user by user.id
@@ -444,6 +668,186 @@ public class UserEndpointTest {
                 .verifyComplete();
     }
 
+    @Test
+    public void routeAndServiceMetrics() {
+        final String authenticationId = "metereduser";
+        Jwt jwt = jwt(authenticationId);
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        MyUser myUser = new MyUser("Metered", "User", "metered@user.email", authenticationId, false);
+        userRepository.save(myUser).as(StepVerifier::create).expectNextCount(1).verifyComplete();
+
+        webTestClient.get().uri("/users/" + myUser.getId()).headers(addJwt(jwt)).exchange().expectStatus().isOk();
+        webTestClient.get().uri("/users/" + UUID.randomUUID()).headers(addJwt(jwt)).exchange().expectStatus().isBadRequest();
+
+        Timer routeSuccess = meterRegistry.find("user.route.requests").tags("route", "/users/{id}", "method", "GET",
+                "outcome", "success").timer();
+        Timer routeClientError = meterRegistry.find("user.route.requests").tags("route", "/users/{id}",
+                "outcome", "client_error").timer();
+        assertThat(routeSuccess).isNotNull();
+        assertThat(routeSuccess.count()).isGreaterThanOrEqualTo(1);
+        assertThat(routeClientError).isNotNull();
+        assertThat(routeClientError.count()).isGreaterThanOrEqualTo(1);
+
+        // the missing user fails in the service with its exception class as tag
+        Timer serviceNotFound = meterRegistry.find("user.service.calls").tags("method", "getUserById",
+                "outcome", "error", "exception", "UserNotFoundException").timer();
+        assertThat(serviceNotFound).isNotNull();
+        assertThat(serviceNotFound.count()).isGreaterThanOrEqualTo(1);
+        assertThat(meterRegistry.find("user.service.calls.active").tags("method", "getUserById")
+                .longTaskTimer().activeTasks()).isZero();
+    }
+
+    @Test
+    public void repositoryQueryMetrics() {
+        MyUser myUser = new MyUser("Query", "Timed", "query@timed.email", "querytimed", false);
+        userRepository.save(myUser).as(StepVerifier::create).expectNextCount(1).verifyComplete();
+        userRepository.findByAuthenticationIdIgnoreCase("QueryTimed").as(StepVerifier::create).expectNextCount(1).verifyComplete();
+
+        SlowQueryEndpoint.SlowQueries slowQueries = slowQueryEndpoint.slowQueries();
+        assertThat(slowQueries.slowest()).isNotEmpty();
+        assertThat(slowQueries.methods()).anySatisfy(methodTotal -> {
+            assertThat(methodTotal.method()).isEqualTo("UserRepository.findByAuthenticationIdIgnoreCase");
+            assertThat(methodTotal.calls()).isGreaterThanOrEqualTo(1);
+            assertThat(methodTotal.rows()).isGreaterThanOrEqualTo(1);
+        });
+
+        Timer queries = meterRegistry.find("user.repository.queries").tags("repository", "UserRepository",
+                "method", "findByAuthenticationIdIgnoreCase", "outcome", "success").timer();
+        assertThat(queries).isNotNull();
+        assertThat(queries.count()).isGreaterThanOrEqualTo(1);
+
+        LOG.info("a statement sent through DatabaseClient is timed as well");
+        userBatchInsert.insert(List.of(new MyUser("Batch", "One", "batchone@timed.email", "batchone", false),
+                        new MyUser("Batch", "Two", "batchtwo@timed.email", "batchtwo", false)))
+                .as(StepVerifier::create).expectNext(2L).verifyComplete();
+
+        assertThat(slowQueryEndpoint.slowQueries().methods()).anySatisfy(methodTotal -> {
+            assertThat(methodTotal.method()).isEqualTo("UserBatchInsert.insert");
+            assertThat(methodTotal.rows()).isGreaterThanOrEqualTo(2);
+        });
+        Timer inserts = meterRegistry.find("user.repository.queries").tags("repository", "UserBatchInsert",
+                "method", "insert", "outcome", "success").timer();
+        assertThat(inserts).isNotNull();
+        assertThat(inserts.count()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    public void getUserWithETag() {
+        final String authenticationId = "etaguser";
+        Jwt jwt = jwt(authenticationId);
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        MyUser myUser = new MyUser("Dommy", "thecat", "etaguser@cat.email", authenticationId, false);
+        userRepository.save(myUser).block();
+
+        for (String uri : List.of("/users/" + myUser.getId(), "/users/authentication-id/" + authenticationId,
+                "/users/ids/" + myUser.getId())) {
+            LOG.info("conditional get of {}", uri);
+            String eTag = webTestClient.get().uri(uri).headers(addJwt(jwt)).exchange().expectStatus().isOk()
+                    .expectHeader().exists(HttpHeaders.ETAG)
+                    .returnResult(String.class).getResponseHeaders().getETag();
+
+            webTestClient.get().uri(uri).headers(addJwt(jwt)).header(HttpHeaders.IF_NONE_MATCH, eTag)
+                    .exchange().expectStatus().isNotModified()
+                    .expectHeader().valueEquals(HttpHeaders.ETAG, eTag)
+                    .expectBody().isEmpty();
+        }
+        String eTag = webTestClient.get().uri("/users/" + myUser.getId()).headers(addJwt(jwt)).exchange()
+                .returnResult(String.class).getResponseHeaders().getETag();
+
+        LOG.info("an update of the user changes the ETag");
+        UserTransfer userTransfer = new UserTransfer();
+        userTransfer.setFirstName("Josey");
+        userTransfer.setLastName("Cat");
+        userTransfer.setAuthenticationId(authenticationId);
+        webTestClient.put().uri("/users").bodyValue(userTransfer).headers(addJwt(jwt))
+                .exchange().expectStatus().isOk();
+
+        for (String uri : List.of("/users/" + myUser.getId(), "/users/authentication-id/" + authenticationId)) {
+            String newETag = webTestClient.get().uri(uri).headers(addJwt(jwt)).header(HttpHeaders.IF_NONE_MATCH, eTag)
+                    .exchange().expectStatus().isOk()
+                    .expectBody(Map.class).value(map -> assertThat(map.get("firstName")).isEqualTo("Josey"))
+                    .returnResult().getResponseHeaders().getETag();
+            assertThat(newETag).isNotEqualTo(eTag);
+        }
+    }
+
+    @Test
+    public void updateUserWithIdempotencyKey() {
+        final String authenticationId = "idempotentuser";
+        Jwt jwt = jwt(authenticationId);
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        userRepository.save(new MyUser("Dommy", "thecat", "idempotent@cat.email", authenticationId, false)).block();
+
+        UserTransfer userTransfer = new UserTransfer();
+        userTransfer.setFirstName("Josey");
+        userTransfer.setLastName("Cat");
+        userTransfer.setAuthenticationId(authenticationId);
+
+        String body = webTestClient.put().uri("/users").bodyValue(userTransfer).headers(addJwt(jwt))
+                .header(IdempotentRequests.IDEMPOTENCY_KEY, "update-1")
+                .exchange().expectStatus().isOk()
+                .expectHeader().doesNotExist(IdempotentRequests.IDEMPOTENT_REPLAYED)
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        LOG.info("a repeat of the key gets the stored response without updating again");
+        long version = userRepository.findByAuthenticationIdIgnoreCase(authenticationId).block().getVersion();
+        webTestClient.put().uri("/users").bodyValue(userTransfer).headers(addJwt(jwt))
+                .header(IdempotentRequests.IDEMPOTENCY_KEY, "update-1")
+                .exchange().expectStatus().isOk()
+                .expectHeader().valueEquals(IdempotentRequests.IDEMPOTENT_REPLAYED, "true")
+                .expectBody(String.class).isEqualTo(body);
+        assertThat(userRepository.findByAuthenticationIdIgnoreCase(authenticationId).block().getVersion()).isEqualTo(version);
+
+        LOG.info("the key can not be used for a different request");
+        userTransfer.setFirstName("Tommy");
+        webTestClient.put().uri("/users").bodyValue(userTransfer).headers(addJwt(jwt))
+                .header(IdempotentRequests.IDEMPOTENCY_KEY, "update-1")
+                .exchange().expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_CONTENT);
+
+        webTestClient.put().uri("/users").bodyValue(userTransfer).headers(addJwt(jwt))
+                .header(IdempotentRequests.IDEMPOTENCY_KEY, "update-2")
+                .exchange().expectStatus().isOk()
+                .expectHeader().doesNotExist(IdempotentRequests.IDEMPOTENT_REPLAYED);
+        assertThat(userRepository.findByAuthenticationIdIgnoreCase(authenticationId).block().getFirstName()).isEqualTo("Tommy");
+    }
+
+    @Test
+    public void checkAvailability() {
+        Jwt jwt = jwt("dave");
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        userRepository.save(new MyUser("Dommy", "thecat", "Taken@cat.email", "TakenUser", true)).block();
+        // an inactive user without an account is replaced by a new signup, so its names are available
+        userRepository.save(new MyUser("Josey", "thecat", "pending@cat.email", "pendinguser", false)).block();
+        assertThat(availabilityFilter.rebuild().block()).isEqualTo(2);
+
+        LOG.info("taken names are confirmed by a query, ignoring case");
+        webTestClient.get().uri("/users/availability?authenticationId=takenuser&email=taken@CAT.email")
+                .headers(addJwt(jwt)).exchange().expectStatus().isOk()
+                .expectBody(Map.class).isEqualTo(Map.of("authenticationIdAvailable", false, "emailAvailable", false));
+
+        webTestClient.get().uri("/users/availability?authenticationId=pendinguser&email=pending@cat.email")
+                .headers(addJwt(jwt)).exchange().expectStatus().isOk()
+                .expectBody(Map.class).isEqualTo(Map.of("authenticationIdAvailable", true, "emailAvailable", true));
+
+        webTestClient.get().uri("/users/availability?authenticationId=newuser")
+                .headers(addJwt(jwt)).exchange().expectStatus().isOk()
+                .expectBody(Map.class).isEqualTo(Map.of("authenticationIdAvailable", true));
+
+        LOG.info("a user saved after the build is added to the filter");
+        MyUser myUser = userRepository.save(new MyUser("Dommy", "thecat", "new@cat.email", "newuser", true)).block();
+        availabilityFilter.add(myUser.getAuthenticationId(), myUser.getEmail());
+        webTestClient.get().uri("/users/availability?authenticationId=NewUser")
+                .headers(addJwt(jwt)).exchange().expectStatus().isOk()
+                .expectBody(Map.class).isEqualTo(Map.of("authenticationIdAvailable", false));
+
+        webTestClient.get().uri("/users/availability")
+                .headers(addJwt(jwt)).exchange().expectStatus().isBadRequest();
+    }
+
     private Jwt jwt(String subjectName) {
         return new Jwt("token", null, null,
                 Map.of("alg", "none"), Map.of("sub", subjectName));
@@ -0,0 +1,4 @@
+-- separator: @@
+create table separator_test (name varchar(50))@@ insert into separator_test (name) values ('first')@@
+insert into separator_test (name)
+    values ('second')@@